@@ -0,0 +1,65 @@
+package com.streamr.client.protocol;
+
+import com.squareup.moshi.JsonReader;
+import com.streamr.client.protocol.control_layer.BroadcastMessage;
+import com.streamr.client.protocol.control_layer.ControlMessage;
+import com.streamr.client.protocol.control_layer.ControlMessageAdapter;
+import com.streamr.client.protocol.control_layer.ControlMessageDecoder;
+import com.streamr.client.protocol.message_layer.MessageID;
+import com.streamr.client.protocol.message_layer.MessageRef;
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import com.streamr.client.utils.Address;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares decoding an incoming BroadcastMessage with ControlMessageDecoder to the ControlMessageAdapter chain
+ * that ControlMessage.fromJson used before. The content is a JSON object with one string field of about
+ * payloadBytes bytes, so the content is escaped in the frame like real messages.
+ *
+ * Run with: ./gradlew jmh -Pjmh.include=ControlMessageDecodeBenchmark (add -prof gc to see allocations)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlMessageDecodeBenchmark {
+
+    @Param({"1024", "65536"})
+    public int payloadBytes;
+
+    private final ControlMessageAdapter adapter = new ControlMessageAdapter();
+    private String frame;
+
+    @Setup
+    public void setup() {
+        StringBuilder text = new StringBuilder(payloadBytes);
+        while (text.length() < payloadBytes) {
+            text.append("lorem ipsum \"dolor\" sit amet ");
+        }
+        text.setLength(payloadBytes);
+        StreamMessage msg = new StreamMessage(
+                new MessageID("streamId", 0, 1600000000000L, 0, new Address("0x1111111111111111111111111111111111111111"), "msgChainId"),
+                new MessageRef(1599999999999L, 0),
+                Collections.singletonMap("text", text.toString()));
+        msg.setSignatureFields("0x" + String.join("", Collections.nCopies(65, "ab")), StreamMessage.SignatureType.ETH);
+        frame = new BroadcastMessage("", msg).toJson();
+    }
+
+    @Benchmark
+    public ControlMessage adapterChain() throws IOException {
+        return adapter.fromJson(JsonReader.of(new Buffer().writeString(frame, StandardCharsets.UTF_8)));
+    }
+
+    @Benchmark
+    public ControlMessage decoder() {
+        return ControlMessageDecoder.decode(frame);
+    }
+}
@@ -0,0 +1,65 @@
+package com.streamr.client.protocol;
+
+import com.squareup.moshi.JsonWriter;
+import com.streamr.client.protocol.control_layer.ControlMessageAdapter;
+import com.streamr.client.protocol.control_layer.PublishRequest;
+import com.streamr.client.protocol.control_layer.PublishRequestEncoder;
+import com.streamr.client.protocol.message_layer.MessageID;
+import com.streamr.client.protocol.message_layer.MessageRef;
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import com.streamr.client.utils.Address;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares serializing a PublishRequest with PublishRequestEncoder to the ControlMessageAdapter chain
+ * that PublishRequest.toJson used before. The allocation rates are the interesting part:
+ *
+ * Run with: ./gradlew jmh -Pjmh.include=PublishRequestEncodeBenchmark -Pjmh.profilers=gc
+ * and compare gc.alloc.rate.norm (bytes allocated per operation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PublishRequestEncodeBenchmark {
+
+    @Param({"1024", "65536"})
+    public int payloadBytes;
+
+    private final ControlMessageAdapter adapter = new ControlMessageAdapter();
+    private PublishRequest request;
+
+    @Setup
+    public void setup() {
+        StringBuilder text = new StringBuilder(payloadBytes);
+        while (text.length() < payloadBytes) {
+            text.append("lorem ipsum \"dolor\" sit amet ");
+        }
+        text.setLength(payloadBytes);
+        StreamMessage msg = new StreamMessage(
+                new MessageID("streamId", 0, 1600000000000L, 0, new Address("0x1111111111111111111111111111111111111111"), "msgChainId"),
+                new MessageRef(1599999999999L, 0),
+                Collections.singletonMap("text", text.toString()));
+        msg.setSignatureFields("0x" + String.join("", Collections.nCopies(65, "ab")), StreamMessage.SignatureType.ETH);
+        request = new PublishRequest("pub.1", msg, "sessionToken");
+    }
+
+    @Benchmark
+    public String adapterChain() throws IOException {
+        Buffer buffer = new Buffer();
+        adapter.toJson(JsonWriter.of(buffer), request);
+        return buffer.readUtf8();
+    }
+
+    @Benchmark
+    public String encoder() {
+        return PublishRequestEncoder.encode(request);
+    }
+}
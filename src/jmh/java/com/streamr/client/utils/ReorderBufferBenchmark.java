@@ -0,0 +1,80 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.MessageID;
+import com.streamr.client.protocol.message_layer.MessageRef;
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the ReorderBuffer used by OrderedMsgChain to the PriorityQueue with a MessageRef comparator
+ * that it replaced. Each invocation fills the queue with messages of a gap and then drains it.
+ *
+ * Run with: ./gradlew jmh -Pjmh.include=ReorderBufferBenchmark (add -prof gc to see allocations)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReorderBufferBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int messages;
+
+    /**
+     * "inOrder": the messages after the gap arrive in order (the typical case).
+     * "shuffled": the messages after the gap arrive in random order.
+     */
+    @Param({"inOrder", "shuffled"})
+    public String arrival;
+
+    private List<StreamMessage> input;
+
+    @Setup
+    public void setup() {
+        Address publisherId = new Address("0x1111111111111111111111111111111111111111");
+        input = new ArrayList<>(messages);
+        for (int i = 1; i <= messages; i++) {
+            input.add(new StreamMessage(
+                    new MessageID("streamId", 0, i, 0, publisherId, "msgChainId"),
+                    new MessageRef((long) i - 1, 0),
+                    new HashMap<>()));
+        }
+        if ("shuffled".equals(arrival)) {
+            Collections.shuffle(input, new Random(42));
+        }
+    }
+
+    @Benchmark
+    public void priorityQueue(Blackhole bh) {
+        PriorityQueue<StreamMessage> queue = new PriorityQueue<>(
+                (o1, o2) -> o1.getMessageRef().compareTo(o2.getMessageRef()));
+        for (StreamMessage msg : input) {
+            queue.offer(msg);
+        }
+        while (!queue.isEmpty()) {
+            bh.consume(queue.poll());
+        }
+    }
+
+    @Benchmark
+    public void reorderBuffer(Blackhole bh) {
+        ReorderBuffer queue = new ReorderBuffer(OrderedMsgChain.MAX_QUEUE_SIZE);
+        for (StreamMessage msg : input) {
+            queue.offer(msg);
+        }
+        while (!queue.isEmpty()) {
+            bh.consume(queue.poll());
+        }
+    }
+}
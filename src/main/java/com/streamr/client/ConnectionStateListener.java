@@ -0,0 +1,13 @@
+package com.streamr.client;
+
+import org.java_websocket.enums.ReadyState;
+
+/**
+ * Notified when the websocket connection of a StreamrClient changes state: NOT_YET_CONNECTED when a connection
+ * attempt starts, OPEN when connected, CLOSING when disconnect is requested and CLOSED when the connection is closed.
+ * Called on the websocket's thread, so implementations should return quickly.
+ */
+@FunctionalInterface
+public interface ConnectionStateListener {
+    void onStateChanged(ReadyState state);
+}
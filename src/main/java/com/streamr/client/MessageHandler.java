@@ -1,5 +1,6 @@
 package com.streamr.client;
 
+import com.streamr.client.exceptions.GapFillFailedException;
 import com.streamr.client.exceptions.UnableToDecryptException;
 import com.streamr.client.protocol.message_layer.StreamMessage;
 import com.streamr.client.subs.Subscription;
@@ -11,4 +12,5 @@ public interface MessageHandler {
     void onMessage(Subscription sub, StreamMessage message);
     default void done(Subscription sub) {}
     default void onUnableToDecrypt(UnableToDecryptException e) { log.warn("Unable to decrypt", e); }
+    default void onGapFillFailed(Subscription sub, GapFillFailedException e) { log.warn("Unable to fill gap", e); }
 }
@@ -4,10 +4,14 @@ import com.streamr.client.authentication.AuthenticationMethod;
 import com.streamr.client.authentication.EthereumAuthenticationMethod;
 import com.streamr.client.dataunion.DataUnionClient;
 import com.streamr.client.exceptions.ConnectionTimeoutException;
+import com.streamr.client.exceptions.ErrorResponseException;
+import com.streamr.client.exceptions.GapFillFailedException;
 import com.streamr.client.exceptions.MalformedMessageException;
 import com.streamr.client.exceptions.PartitionNotSpecifiedException;
 import com.streamr.client.exceptions.SubscriptionNotFoundException;
+import com.streamr.client.exceptions.UnableToDecryptException;
 import com.streamr.client.options.DataUnionClientOptions;
+import com.streamr.client.options.OrderingOptions;
 import com.streamr.client.options.ResendOption;
 import com.streamr.client.options.StreamrClientOptions;
 import com.streamr.client.protocol.control_layer.*;
@@ -16,27 +20,42 @@ import com.streamr.client.protocol.message_layer.GroupKeyRequest;
 import com.streamr.client.protocol.message_layer.MessageRef;
 import com.streamr.client.protocol.message_layer.StreamMessage;
 import com.streamr.client.rest.Stream;
+import com.streamr.client.rest.StreamPart;
 import com.streamr.client.subs.*;
+import com.streamr.client.transport.JavaWebSocketTransport;
+import com.streamr.client.transport.Transport;
+import com.streamr.client.transport.TransportListener;
 import com.streamr.client.utils.*;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.enums.ReadyState;
 import org.java_websocket.exceptions.WebsocketNotConnectedException;
-import org.java_websocket.handshake.ServerHandshake;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 import java.io.IOException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.channels.NotYetConnectedException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -46,8 +65,11 @@ public class StreamrClient extends StreamrRESTClient {
 
     private static final Logger log = LoggerFactory.getLogger(StreamrClient.class);
 
-    // Underlying websocket implementation
-    private WebSocketClient websocket;
+    private static final int RESUBSCRIBE_BATCHES_PER_SECOND = 10;
+
+    // The websocket connections, stream-partitions are assigned to them by connectionRing
+    private final List<Connection> connections;
+    private final ConsistentHashRing<Connection> connectionRing;
 
     protected final Subscriptions subs = new Subscriptions();
 
@@ -57,17 +79,42 @@ public class StreamrClient extends StreamrRESTClient {
     private final StreamMessageValidator streamMessageValidator;
     private final GroupKeyStore keyStore;
     private final KeyExchangeUtil keyExchangeUtil;
+    // Created on the first publishAsync(), since it starts a thread
+    private volatile PublishQueue publishQueue;
+    // Null unless StreamrClientOptions.publishJournalDirectory is set
+    private final PublishJournal publishJournal;
+    // Null unless StreamrClientOptions.dispatchLanes is positive
+    private final StripedExecutor dispatchExecutor;
 
     private Stream keyExchangeStream;
     private Subscription keyExchangeSub;
 
-    private final HashMap<String, OneTimeResend> secondResends = new HashMap<>();
+    // Accessed from the dispatch lanes
+    private final ConcurrentHashMap<String, OneTimeResend> secondResends = new ConcurrentHashMap<>();
+    // Checkpoints to resume from, by subscription id, until the SubscribeResponse arrives
+    private final ConcurrentHashMap<String, Collection<Checkpoint>> pendingCheckpoints = new ConcurrentHashMap<>();
 
     private ErrorMessageHandler errorMessageHandler;
-    private boolean keepConnected = false;
-    private final ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
+    private volatile boolean keepConnected = false;
+    private volatile boolean closed = false;
+    // A daemon thread, so that a disconnected client doesn't keep the JVM running. It isn't shut down on
+    // disconnect, so that the client can connect again, but only by close().
+    private final ScheduledExecutorService executorService = SharedTimer.create("streamr-client");
+    // Fetches the streams for warmUpValidator(), which blocks on HTTP and so can't run on executorService
+    private final ScheduledExecutorService streamFetchExecutor = SharedTimer.create("streamr-client-stream-fetch");
+    // Runs the gap checks of the subscriptions, which may call the MessageHandlers, off the shared timer
+    private final ScheduledExecutorService deliveryExecutor = SharedTimer.create("streamr-client-delivery");
     private final Object stateChangeLock = new Object();
-    private int requestCounter = 0;
+    private final Backoff reconnectBackoff;
+    // Completed by the websocket's onOpen and onClose callbacks
+    private final List<CompletableFuture<Void>> pendingConnects = new CopyOnWriteArrayList<>();
+    private final List<CompletableFuture<Void>> pendingDisconnects = new CopyOnWriteArrayList<>();
+    private final List<ConnectionStateListener> stateListeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong requestCounter = new AtomicLong();
+    // Futures of subscribeAsync(), unsubscribeAsync() and resendAsync() by requestId
+    private final PendingRequests pendingRequests;
+    // Futures of resendAsync() by subscription id, until the resend request is sent
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingResends = new ConcurrentHashMap<>();
 
     public StreamrClient(StreamrClientOptions options) {
         super(options);
@@ -132,6 +179,32 @@ public class StreamrClient extends StreamrRESTClient {
                         sub.onNewKeysAdded(publisherId, keys);
                     }
                 });
+        if (options.getPublishJournalDirectory() != null) {
+            try {
+                publishJournal = new PublishJournal(options.getPublishJournalDirectory(), options.getPublishJournalSegmentSize());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            publishJournal = null;
+        }
+
+        pendingRequests = new PendingRequests(options.getRequestTimeoutMillis());
+        reconnectBackoff = new Backoff(options.getReconnectRetryInterval(),
+                Math.max(options.getReconnectRetryInterval(), options.getReconnectMaxRetryInterval()));
+
+        List<String> urls = options.getWebsocketApiUrls();
+        List<Connection> pool = new ArrayList<>();
+        for (int i = 0; i < options.getConnectionPoolSize(); i++) {
+            pool.add(new Connection(i, urls.get(i % urls.size())));
+        }
+        connections = Collections.unmodifiableList(pool);
+        connectionRing = new ConsistentHashRing<>(connections);
+
+        dispatchExecutor = options.getDispatchLanes() > 0
+                ? new StripedExecutor(options.getDispatchLanes(), options.getDispatchLaneCapacity(), "streamr-dispatch",
+                        options.getDispatchLaneMaxWaitMillis())
+                : null;
     }
 
     public StreamrClient(AuthenticationMethod authenticationMethod) {
@@ -142,51 +215,6 @@ public class StreamrClient extends StreamrRESTClient {
         this(new StreamrClientOptions());
     }
 
-    private void initWebsocket() {
-        try {
-            this.websocket = new WebSocketClient(new URI(options.getWebsocketApiUrl())) {
-                @Override
-                public void onOpen(ServerHandshake handshakedata) {
-                    log.info("Connection established");
-                    StreamrClient.this.onOpen();
-                    try {
-                        StreamrClient.this.subs.forEach(StreamrClient.this::resubscribe);
-                    } catch (WebsocketNotConnectedException e) {
-                        log.error("Failed to resubscribe", e);
-                    }
-                }
-
-                @Override
-                public void onMessage(String message) {
-                    handleMessage(message);
-                }
-
-                @Override
-                public void onClose(int code, String reason, boolean remote) {
-                    log.info("Connection closed! Code: " + code + ", Reason: " + reason);
-                    if (!keepConnected) {
-                        StreamrClient.this.onClose();
-                    }
-                }
-
-                @Override
-                public void onError(Exception ex) {
-                    log.error("WebSocketClient#onError called", ex);
-                    if (!(ex instanceof IOException)) {
-                        StreamrClient.this.onError(ex);
-                    }
-                }
-
-                @Override
-                public void send(String text) throws NotYetConnectedException {
-                    super.send(text);
-                }
-            };
-        } catch (URISyntaxException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
     /*
      * Connecting and disconnecting
      */
@@ -194,11 +222,36 @@ public class StreamrClient extends StreamrRESTClient {
     public void onOpen() {}
     public void onClose() {
         streamMessageValidator.clearAndClose();
+        pendingRequests.failAll(new RuntimeException("Disconnected before a response was received"));
+        secondResends.values().forEach(OneTimeResend::cancel);
+        secondResends.clear();
+        if (options.getCheckpointStore() != null) {
+            try {
+                options.getCheckpointStore().flush();
+            } catch (RuntimeException e) {
+                log.error("Failed to flush checkpoints", e);
+            }
+        }
     }
     public void onError(Exception ex) {}
 
+    /**
+     * Returns the transport of the first connection of the pool.
+     */
+    public Transport getTransport() {
+        return connections.get(0).transport;
+    }
+
+    /**
+     * Returns the WebSocketClient of the first connection of the pool, or null if the connections don't use
+     * the default JavaWebSocketTransport.
+     *
+     * @deprecated use getTransport()
+     */
+    @Deprecated
     public WebSocketClient getWebsocket() {
-        return websocket;
+        Transport transport = getTransport();
+        return transport instanceof JavaWebSocketTransport ? ((JavaWebSocketTransport) transport).getWebSocketClient() : null;
     }
 
     /**
@@ -208,73 +261,89 @@ public class StreamrClient extends StreamrRESTClient {
         if (getState() == ReadyState.OPEN) {
             return;
         }
+        join(connectAsync());
+        log.info("Connected to " + options.getWebsocketApiUrl());
+    }
+
+    /**
+     * Starts connecting the websocket, and keeps reconnecting it until disconnected.
+     *
+     * @return a future completed as soon as the connection is open, or completed exceptionally with a
+     * ConnectionTimeoutException if the connection isn't open within the connection timeout
+     */
+    public CompletableFuture<Void> connectAsync() {
+        if (closed) {
+            throw new IllegalStateException("The client has been closed");
+        }
+        // Registered before checking the state, so that an onOpen in between completes it
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingConnects.add(future);
 
         synchronized (stateChangeLock) {
             if (!keepConnected) {
                 keepConnected = true;
-                log.info("Connecting to " + options.getWebsocketApiUrl() + "...");
-                executorService.scheduleAtFixedRate(() -> {
-                            if (keepConnected) {
-                                if (getState() != ReadyState.OPEN) {
-                                    boolean isReconnect = this.websocket != null;
-                                    log.info("Not connected. Attempting to " + (isReconnect ? "reconnect" : "connect"));
-                                    if (isReconnect) {
-                                        this.websocket.closeConnection(0, "");
-                                    }
-                                    initWebsocket();
-                                    this.websocket.connect();
-                                }
-                            } else {
-                                if (getState() != ReadyState.CLOSED) {
-                                    log.info("Closing connection");
-                                    websocket.closeConnection(0, "");
-                                    websocket = null;
-                                    executorService.shutdown();
-                                }
-                            }
-                        },
-                        0,
-                        options.getReconnectRetryInterval(),
-                        TimeUnit.MILLISECONDS
-                );
-            }
-        }
-
-        waitForState(ReadyState.OPEN);
-        if (getState() != ReadyState.OPEN) {
-            throw new ConnectionTimeoutException(options.getWebsocketApiUrl());
-        }
-
-        if (keyExchangeStream != null && keyExchangeSub == null) {
-            keyExchangeSub = subscribe(keyExchangeStream, new MessageHandler() {
-                @Override
-                public void onMessage(Subscription sub, StreamMessage message) {
-                    try {
-                        if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_REQUEST)) {
-                            try {
-                                keyExchangeUtil.handleGroupKeyRequest(message);
-                            } catch (Exception e) {
-                                GroupKeyRequest groupKeyRequest = (GroupKeyRequest) AbstractGroupKeyMessage.fromStreamMessage(message);
-                                StreamMessage errorMessage = msgCreationUtil.createGroupKeyErrorResponse(message.getPublisherId(), groupKeyRequest, e);
-                                publish(errorMessage); //sending the error to the sender of 'message'
-                            }
-                        } else if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_RESPONSE)) {
-                            keyExchangeUtil.handleGroupKeyResponse(message);
-                        } else if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_ANNOUNCE)) {
-                            keyExchangeUtil.handleGroupKeyAnnounce(message);
-                        } else if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_ERROR_RESPONSE)) {
-                            Map<String, Object> content = message.getParsedContent();
-                            log.warn("Received error of type " + content.get("code") + " from " + message.getPublisherId() + ": " + content.get("message"));
-                        } else {
-                            throw new MalformedMessageException("Unexpected message type on key exchange stream: " + message.getMessageType());
+                log.info("Connecting to " + String.join(", ", options.getWebsocketApiUrls()) + "...");
+                for (Connection connection : connections) {
+                    connection.startConnecting();
+                }
+            }
+        }
+
+        if (getState() == ReadyState.OPEN) {
+            pendingConnects.remove(future);
+            future.complete(null);
+        } else {
+            timeoutAfter(future, pendingConnects, () -> new ConnectionTimeoutException(options.getWebsocketApiUrl()));
+        }
+        return future.thenRun(this::subscribeToKeyExchangeStream);
+    }
+
+    /**
+     * Makes sure the connection of the stream-partition is open. Connects the client if it isn't connected.
+     * Otherwise only waits for the connection of the stream-partition, so that a pooled connection that's
+     * down doesn't block the stream-partitions of the healthy ones.
+     */
+    private void connect(String streamId, int partition) throws ConnectionTimeoutException {
+        if (connectionFor(streamId, partition).getState() != ReadyState.OPEN) {
+            join(connectAsync(streamId, partition));
+        }
+    }
+
+    private CompletableFuture<Void> connectAsync(String streamId, int partition) {
+        return keepConnected ? connectionFor(streamId, partition).awaitOpen() : connectAsync();
+    }
+
+    private synchronized void subscribeToKeyExchangeStream() {
+        if (keyExchangeStream == null || keyExchangeSub != null) {
+            return;
+        }
+        keyExchangeSub = subscribe(keyExchangeStream, new MessageHandler() {
+            @Override
+            public void onMessage(Subscription sub, StreamMessage message) {
+                try {
+                    if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_REQUEST)) {
+                        try {
+                            keyExchangeUtil.handleGroupKeyRequest(message);
+                        } catch (Exception e) {
+                            GroupKeyRequest groupKeyRequest = (GroupKeyRequest) AbstractGroupKeyMessage.fromStreamMessage(message);
+                            StreamMessage errorMessage = msgCreationUtil.createGroupKeyErrorResponse(message.getPublisherId(), groupKeyRequest, e);
+                            publish(errorMessage); //sending the error to the sender of 'message'
                         }
-                    } catch (Exception e) {
-                        log.error(e.getMessage());
+                    } else if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_RESPONSE)) {
+                        keyExchangeUtil.handleGroupKeyResponse(message);
+                    } else if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_ANNOUNCE)) {
+                        keyExchangeUtil.handleGroupKeyAnnounce(message);
+                    } else if (message.getMessageType().equals(StreamMessage.MessageType.GROUP_KEY_ERROR_RESPONSE)) {
+                        Map<String, Object> content = message.getParsedContent();
+                        log.warn("Received error of type " + content.get("code") + " from " + message.getPublisherId() + ": " + content.get("message"));
+                    } else {
+                        throw new MalformedMessageException("Unexpected message type on key exchange stream: " + message.getMessageType());
                     }
+                } catch (Exception e) {
+                    log.error(e.getMessage());
                 }
-            });
-        }
-        log.info("Connected to " + options.getWebsocketApiUrl());
+            }
+        });
     }
 
     /**
@@ -284,48 +353,180 @@ public class StreamrClient extends StreamrRESTClient {
         if (getState() == ReadyState.CLOSED) {
             return;
         }
+        join(disconnectAsync());
+    }
+
+    /**
+     * Disconnects and stops the threads of the client. The client can't be connected again afterwards.
+     * Messages waiting in the dispatch lanes are not handled.
+     */
+    public void close() throws ConnectionTimeoutException {
+        closed = true;
+        try {
+            disconnect();
+        } finally {
+            if (dispatchExecutor != null) {
+                dispatchExecutor.shutdown();
+            }
+            executorService.shutdownNow();
+            streamFetchExecutor.shutdownNow();
+            deliveryExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Stops reconnecting and closes the websocket.
+     *
+     * @return a future completed as soon as the connection is closed
+     */
+    public CompletableFuture<Void> disconnectAsync() {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        pendingDisconnects.add(future);
 
+        List<Transport> toClose = new ArrayList<>();
         synchronized (stateChangeLock) {
             keepConnected = false;
+            for (Connection connection : connections) {
+                connection.stopConnecting();
+                Transport transport = connection.transport;
+                if (transport != null && transport.getState() != ReadyState.CLOSED) {
+                    toClose.add(transport);
+                }
+            }
+        }
+        if (publishJournal != null) {
+            // Releases the segment files, the unsent messages are picked up again once the client is used again
+            publishJournal.close();
+        }
+        PublishQueue queue;
+        synchronized (this) {
+            queue = publishQueue;
+            // A new one is created if publishAsync() is called again
+            publishQueue = null;
         }
-        waitForState(ReadyState.CLOSED);
-        ReadyState state = getState();
-        if (state != ReadyState.CLOSED) {
-            throw new RuntimeException(String.format(
-                    "Failed to disconnect: never went from %s to CLOSED readyState",
-                    state
-            ));
+        if (queue != null) {
+            queue.close();
         }
+
+        if (toClose.isEmpty()) {
+            pendingDisconnects.remove(future);
+            future.complete(null);
+        } else {
+            log.info("Closing connection");
+            timeoutAfter(future, pendingDisconnects, () -> new RuntimeException(String.format(
+                    "Failed to disconnect: never went from %s to CLOSED readyState", getState())));
+            notifyStateListeners(ReadyState.CLOSING);
+            for (Transport transport : toClose) {
+                transport.close();
+            }
+        }
+        return future;
+    }
+
+    public void addConnectionStateListener(ConnectionStateListener listener) {
+        stateListeners.add(listener);
+    }
+
+    public void removeConnectionStateListener(ConnectionStateListener listener) {
+        stateListeners.remove(listener);
     }
 
     public void setErrorMessageHandler(ErrorMessageHandler errorMessageHandler) {
         this.errorMessageHandler = errorMessageHandler;
     }
 
-    private void waitForState(ReadyState target) {
-        long maxWaitTime = options.getReconnectRetryInterval() + options.getConnectionTimeoutMillis() + 500;
-        long timeWaited = 0;
-        while (getState() != target && timeWaited < maxWaitTime) {
+    private void notifyStateListeners(ReadyState state) {
+        for (ConnectionStateListener listener : stateListeners) {
             try {
-                Thread.sleep(100);
-                timeWaited += 100;
-            } catch (InterruptedException e) {
-                // ignore
+                listener.onStateChanged(state);
+            } catch (RuntimeException e) {
+                log.error("Error in ConnectionStateListener", e);
             }
         }
     }
 
+    private static void completeAll(List<CompletableFuture<Void>> futures) {
+        for (CompletableFuture<Void> future : futures) {
+            if (futures.remove(future)) {
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Completes the pending future exceptionally unless it's completed within the same time the
+     * blocking connect() and disconnect() used to wait.
+     */
+    private void timeoutAfter(CompletableFuture<Void> future, List<CompletableFuture<Void>> pending,
+                              Supplier<RuntimeException> exception) {
+        long timeout = options.getReconnectRetryInterval() + options.getConnectionTimeoutMillis() + 500;
+        ScheduledFuture<?> task = SharedTimer.getDefault().schedule(() -> {
+            if (pending.remove(future)) {
+                future.completeExceptionally(exception.get());
+            }
+        }, timeout, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, e) -> task.cancel(false));
+    }
+
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
     private void send(ControlMessage message) {
         log.trace("[{}] >> {}", publisherId != null ? publisherId.toString().substring(0, 6) : null, message);
-        if (this.websocket != null) {
-            this.websocket.send(message.toJson());
-        } else {
-            log.warn("send: websocket is null, not sending message {}", message);
+        connectionFor(message).send(message);
+    }
+
+    /**
+     * Returns the connection of the stream-partition the message is about. Messages not about a
+     * stream-partition go to the first connection.
+     */
+    private Connection connectionFor(ControlMessage message) {
+        if (connections.size() == 1) {
+            return connections.get(0);
+        } else if (message instanceof PublishRequest) {
+            StreamMessage msg = ((PublishRequest) message).getStreamMessage();
+            return connectionFor(msg.getStreamId(), msg.getStreamPartition());
+        } else if (message instanceof SubscribeRequest) {
+            return connectionFor(((SubscribeRequest) message).getStreamId(), ((SubscribeRequest) message).getStreamPartition());
+        } else if (message instanceof UnsubscribeRequest) {
+            return connectionFor(((UnsubscribeRequest) message).getStreamId(), ((UnsubscribeRequest) message).getStreamPartition());
+        } else if (message instanceof ResendLastRequest) {
+            return connectionFor(((ResendLastRequest) message).getStreamId(), ((ResendLastRequest) message).getStreamPartition());
+        } else if (message instanceof ResendFromRequest) {
+            return connectionFor(((ResendFromRequest) message).getStreamId(), ((ResendFromRequest) message).getStreamPartition());
+        } else if (message instanceof ResendRangeRequest) {
+            return connectionFor(((ResendRangeRequest) message).getStreamId(), ((ResendRangeRequest) message).getStreamPartition());
         }
+        return connections.get(0);
     }
 
+    private Connection connectionFor(String streamId, int partition) {
+        return connections.size() == 1 ? connections.get(0) : connectionRing.get(streamId, partition);
+    }
+
+    /**
+     * Returns the state of the connections: the common state if all connections are in the same state,
+     * otherwise NOT_YET_CONNECTED while (re)connecting and CLOSING while disconnecting.
+     */
     public ReadyState getState() {
-        return this.websocket == null ? ReadyState.CLOSED : this.websocket.getReadyState();
+        ReadyState first = connections.get(0).getState();
+        for (int i = 1; i < connections.size(); i++) {
+            if (connections.get(i).getState() != first) {
+                return keepConnected ? ReadyState.NOT_YET_CONNECTED : ReadyState.CLOSING;
+            }
+        }
+        return first;
     }
 
     public Address getPublisherId() {
@@ -336,6 +537,14 @@ public class StreamrClient extends StreamrRESTClient {
         return keyStore;
     }
 
+    /**
+     * Exposes the counters of the gap fill requests (requested, sent, saved by merging, in flight, queued),
+     * one GapFillCoordinator per connection of the pool.
+     */
+    public List<GapFillCoordinator> getGapFillCoordinators() {
+        return connections.stream().map(connection -> connection.gapFillCoordinator).collect(Collectors.toList());
+    }
+
     public DataUnionClient dataUnionClient(String mainnetAdminPrvKey, String sidechainAdminPrvKey) {
         return new DataUnionClient(new DataUnionClientOptions(options.getMainnetRpcUrl(), mainnetAdminPrvKey, options.getSidechainRpcUrl(), sidechainAdminPrvKey));
     }
@@ -352,33 +561,8 @@ public class StreamrClient extends StreamrRESTClient {
             log.trace("[{}] << {}", publisherId != null ? publisherId.toString().substring(0, 6) : null, message);
 
             if (message != null) {
-                try {
-                    if (message.getType() == BroadcastMessage.TYPE) {
-                        BroadcastMessage msg = (BroadcastMessage) message;
-                        handleMessage(msg.getStreamMessage(), Subscription::handleRealTimeMessage);
-                    } else if (message.getType() == UnicastMessage.TYPE) {
-                        UnicastMessage msg = (UnicastMessage) message;
-                        handleMessage(msg.getStreamMessage(), Subscription::handleResentMessage);
-                    } else if (message.getType() == SubscribeResponse.TYPE) {
-                        handleSubscribeResponse((SubscribeResponse)message);
-                    } else if (message.getType() == UnsubscribeResponse.TYPE) {
-                        handleUnsubscribeResponse((UnsubscribeResponse)message);
-                    } else if (message.getType() == ResendResponseResending.TYPE) {
-                        handleResendResponseResending((ResendResponseResending)message);
-                    } else if (message.getType() == ResendResponseNoResend.TYPE) {
-                        handleResendResponseNoResend((ResendResponseNoResend)message);
-                    } else if (message.getType() == ResendResponseResent.TYPE) {
-                        handleResendResponseResent((ResendResponseResent)message);
-                    } else if (message.getType() == ErrorResponse.TYPE) {
-                        ErrorResponse error = (ErrorResponse) message;
-                        if (this.errorMessageHandler != null) {
-                            this.errorMessageHandler.onErrorMessage(error);
-                        } else {
-                            log.error("Protocol error message: '{}'", error.getErrorMessage());
-                        }
-                    }
-                } catch (Exception e) {
-                    log.error("Error handling message: " + message, e);
+                if (dispatchExecutor == null || !dispatch(message)) {
+                    handleControlMessage(message);
                 }
             } else {
                 log.error("Parsed message was null! Raw message: " + rawMessageAsString);
@@ -388,22 +572,113 @@ public class StreamrClient extends StreamrRESTClient {
         }
     }
 
+    /**
+     * Hands a message related to a stream-partition over to the dispatch lane of the stream-partition,
+     * so that its messages and responses are handled in order.
+     *
+     * @return false if the message is not related to a stream-partition and must be handled directly
+     */
+    private boolean dispatch(ControlMessage message) {
+        String streamId;
+        int partition;
+        if (message instanceof BroadcastMessage) {
+            StreamMessage msg = ((BroadcastMessage) message).getStreamMessage();
+            streamId = msg.getStreamId();
+            partition = msg.getStreamPartition();
+        } else if (message instanceof UnicastMessage) {
+            StreamMessage msg = ((UnicastMessage) message).getStreamMessage();
+            streamId = msg.getStreamId();
+            partition = msg.getStreamPartition();
+        } else if (message instanceof SubscribeResponse) {
+            streamId = ((SubscribeResponse) message).getStreamId();
+            partition = ((SubscribeResponse) message).getStreamPartition();
+        } else if (message instanceof UnsubscribeResponse) {
+            streamId = ((UnsubscribeResponse) message).getStreamId();
+            partition = ((UnsubscribeResponse) message).getStreamPartition();
+        } else if (message instanceof ResendResponse) {
+            streamId = ((ResendResponse) message).getStreamId();
+            partition = ((ResendResponse) message).getStreamPartition();
+        } else {
+            return false;
+        }
+        try {
+            dispatchExecutor.execute(streamId, partition, () -> handleControlMessage(message));
+        } catch (RejectedExecutionException e) {
+            // The ordering of the subscription requests the dropped messages as a gap
+            log.error("Dropping message of stream {} partition {}: {}", streamId, partition, e.getMessage());
+        }
+        return true;
+    }
+
+    // Used in unit tests only
+    void handleControlMessage(ControlMessage message) {
+        try {
+            if (message.getType() == BroadcastMessage.TYPE) {
+                BroadcastMessage msg = (BroadcastMessage) message;
+                handleMessage(msg.getStreamMessage(), Subscription::handleRealTimeMessage);
+            } else if (message.getType() == UnicastMessage.TYPE) {
+                UnicastMessage msg = (UnicastMessage) message;
+                handleMessage(msg.getStreamMessage(), Subscription::handleResentMessage);
+            } else if (message.getType() == SubscribeResponse.TYPE) {
+                handleSubscribeResponse((SubscribeResponse)message);
+            } else if (message.getType() == UnsubscribeResponse.TYPE) {
+                handleUnsubscribeResponse((UnsubscribeResponse)message);
+            } else if (message.getType() == ResendResponseResending.TYPE) {
+                handleResendResponseResending((ResendResponseResending)message);
+            } else if (message.getType() == ResendResponseNoResend.TYPE) {
+                handleResendResponseNoResend((ResendResponseNoResend)message);
+            } else if (message.getType() == ResendResponseResent.TYPE) {
+                handleResendResponseResent((ResendResponseResent)message);
+            } else if (message.getType() == ErrorResponse.TYPE) {
+                ErrorResponse error = (ErrorResponse) message;
+                // ErrorResponses don't tell the stream-partition, and the coordinators ignore unknown requestIds
+                for (Connection connection : connections) {
+                    connection.gapFillCoordinator.onResponse(error.getRequestId());
+                }
+                pendingRequests.fail(error.getRequestId(), new ErrorResponseException(error));
+                if (this.errorMessageHandler != null) {
+                    this.errorMessageHandler.onErrorMessage(error);
+                } else {
+                    log.error("Protocol error message: '{}'", error.getErrorMessage());
+                }
+            }
+        } catch (Exception e) {
+            log.error("Error handling message: " + message, e);
+        }
+    }
+
+    /**
+     * Returns the executor that handles incoming messages per stream-partition, exposing the lane queue depths
+     * and lags, or null if StreamrClientOptions.dispatchLanes is 0.
+     */
+    public StripedExecutor getDispatchExecutor() {
+        return dispatchExecutor;
+    }
+
+    /**
+     * The messages that are dropped anyway are dropped before validating, since the validator decodes the
+     * signature and content of a lazily decoded message. The other fields are decoded when the message is
+     * delivered, see BasicSubscription.
+     */
     private void handleMessage(StreamMessage message,
                                BiConsumer<Subscription, StreamMessage> subMsgHandler) throws SubscriptionNotFoundException {
-        streamMessageValidator.validate(message);
         Subscription sub = subs.get(message.getStreamId(), message.getStreamPartition());
 
-        // Only call the handler if we are in subscribed state (and not for example UNSUBSCRIBING)
-        if (sub.isSubscribed()) {
-            // we can clear the second resend upon reception of a message because gap filling will
-            // take care of sending other resend requests if needed.
-            OneTimeResend resend = secondResends.get(sub.getId());
-            if (resend != null) {
-                resend.interrupt();
-                secondResends.remove(sub.getId());
-            }
-            subMsgHandler.accept(sub, message);
+        // Only call the handler if we are in subscribed state (and not for example UNSUBSCRIBING),
+        // and the subscription hasn't failed (it's being unsubscribed)
+        if (!sub.isSubscribed() || sub.isFailed()) {
+            return;
         }
+        if (sub.isDuplicate(message)) {
+            log.trace("Dropping duplicate message {} of stream {} partition {}",
+                    message.getMessageRef(), message.getStreamId(), message.getStreamPartition());
+            return;
+        }
+        streamMessageValidator.validate(message);
+        // we can clear the second resend upon reception of a message because gap filling will
+        // take care of sending other resend requests if needed.
+        cancelSecondResend(sub);
+        subMsgHandler.accept(sub, message);
     }
 
     /*
@@ -432,8 +707,35 @@ public class StreamrClient extends StreamrRESTClient {
 
     public void publish(Stream stream, Map<String, Object> payload, Date timestamp, @Nullable String partitionKey, @Nullable GroupKey newGroupKey) {
         // Convenience feature: allow user to call publish() without having had called connect() beforehand.
-        connect();
+        if (publishJournal == null) {
+            if (!keepConnected) {
+                connect();
+            }
+        } else if (!keepConnected) {
+            // With a journal, only the first connect blocks. While reconnecting, messages go to the journal.
+            try {
+                connect();
+            } catch (ConnectionTimeoutException e) {
+                log.warn("Unable to connect, writing messages to the publish journal until connected", e);
+            }
+        }
 
+        StreamMessage streamMessage = createStreamMessage(stream, payload, timestamp, partitionKey, newGroupKey);
+        if (publishJournal == null) {
+            // Only the connection of the stream-partition needs to be open
+            connect(streamMessage.getStreamId(), streamMessage.getStreamPartition());
+        }
+        try {
+            publish(streamMessage);
+        } catch (WebsocketNotConnectedException e) {
+            // Only without a publish journal: re-try sending once
+            connect(streamMessage.getStreamId(), streamMessage.getStreamPartition());
+            publish(streamMessage);
+        }
+    }
+
+    private StreamMessage createStreamMessage(Stream stream, Map<String, Object> payload, Date timestamp,
+                                              @Nullable String partitionKey, @Nullable GroupKey newGroupKey) {
         GroupKey currentKey = keyStore.getCurrentKey(stream.getId());
 
         // Use the new key if there wasn't one before
@@ -457,18 +759,122 @@ public class StreamrClient extends StreamrRESTClient {
             keyExchangeUtil.rekey(stream.getId(), true);
         }
 
-        StreamMessage streamMessage = msgCreationUtil.createStreamMessage(stream, payload, timestamp, partitionKey, currentKey, newGroupKey);
-        try {
+        return msgCreationUtil.createStreamMessage(stream, payload, timestamp, partitionKey, currentKey, newGroupKey);
+    }
+
+    public CompletableFuture<Void> publishAsync(Stream stream, Map<String, Object> payload) {
+        return publishAsync(stream, payload, new Date(), null, null);
+    }
+
+    public CompletableFuture<Void> publishAsync(Stream stream, Map<String, Object> payload, Date timestamp) {
+        return publishAsync(stream, payload, timestamp, null, null);
+    }
+
+    public CompletableFuture<Void> publishAsync(Stream stream, Map<String, Object> payload, Date timestamp, @Nullable String partitionKey) {
+        return publishAsync(stream, payload, timestamp, partitionKey, null);
+    }
+
+    /**
+     * Like publish(), but the message is created, encrypted, signed and sent on the client's sender thread.
+     * Messages are sent in the order publishAsync() is called. The payload must not be modified afterwards.
+     * If the publish queue is full, behaves according to StreamrClientOptions.getPublishQueueFullPolicy().
+     * The sender thread doesn't wait for connections: a message whose connection isn't open is sent once it is.
+     *
+     * @return a future completed when the message has been written to the websocket
+     */
+    public CompletableFuture<Void> publishAsync(Stream stream, Map<String, Object> payload, Date timestamp,
+                                                @Nullable String partitionKey, @Nullable GroupKey newGroupKey) {
+        return getPublishQueue()
+                .submit(() -> publishWhenConnected(createStreamMessage(stream, payload, timestamp, partitionKey, newGroupKey)))
+                .thenCompose(sent -> sent);
+    }
+
+    /**
+     * Sends the message if its connection is open, and otherwise once the connection is open, without blocking.
+     * The messages waiting for a connection are sent in order. Called on the publish queue's sender thread.
+     */
+    private CompletableFuture<Void> publishWhenConnected(StreamMessage streamMessage) {
+        if (publishJournal != null) {
+            if (!keepConnected) {
+                connectAsync();
+            }
+            // Goes to the journal while the connection is down
             publish(streamMessage);
-        } catch (WebsocketNotConnectedException e) {
-            // TODO: re-try sending once. Need to implement proper message enqueuing while not connected later.
-            connect();
+            return CompletableFuture.completedFuture(null);
+        }
+        Connection connection = connectionFor(streamMessage.getStreamId(), streamMessage.getStreamPartition());
+        if (connection.publishTail.isDone() && connection.getState() == ReadyState.OPEN) {
             publish(streamMessage);
+            return CompletableFuture.completedFuture(null);
+        }
+        // After the previous waiting message, whether or not it was sent
+        CompletableFuture<Void> sent = connection.publishTail
+                .handle((result, e) -> (Void) null)
+                .thenCompose(v -> connectAsync(streamMessage.getStreamId(), streamMessage.getStreamPartition()))
+                .thenRun(() -> publish(streamMessage));
+        connection.publishTail = sent;
+        return sent;
+    }
+
+    /**
+     * Exposes the depth, counters and send latency of the publishAsync() queue.
+     */
+    public PublishQueue getPublishQueue() {
+        PublishQueue queue = publishQueue;
+        if (queue == null) {
+            synchronized (this) {
+                queue = publishQueue;
+                if (queue == null) {
+                    queue = new PublishQueue(options.getPublishQueueCapacity(), options.getPublishQueueFullPolicy());
+                    publishQueue = queue;
+                }
+            }
         }
+        return queue;
     }
 
     private void publish(StreamMessage streamMessage) {
-        send(new PublishRequest(newRequestId("pub"), streamMessage, getSessionToken()));
+        if (publishJournal == null) {
+            send(new PublishRequest(newRequestId("pub"), streamMessage, getSessionToken()));
+            return;
+        }
+        // Journaled messages must be sent before newer ones
+        synchronized (publishJournal) {
+            if (connectionFor(streamMessage.getStreamId(), streamMessage.getStreamPartition()).getState() == ReadyState.OPEN
+                    && replayPublishJournal()) {
+                try {
+                    send(new PublishRequest(newRequestId("pub"), streamMessage, getSessionToken()));
+                    return;
+                } catch (WebsocketNotConnectedException e) {
+                    log.debug("Connection lost, writing message {} to the publish journal", streamMessage.getMessageRef());
+                }
+            }
+            publishJournal.append(streamMessage);
+        }
+    }
+
+    /**
+     * Sends the journaled messages. Must be called while holding the publishJournal lock.
+     *
+     * @return true if the journal is empty afterwards
+     */
+    private boolean replayPublishJournal() {
+        if (!publishJournal.isEmpty()) {
+            log.info("Sending {} messages from the publish journal", publishJournal.size());
+            try {
+                publishJournal.replay(msg -> send(new PublishRequest(newRequestId("pub"), msg, getSessionToken())));
+            } catch (RuntimeException e) {
+                log.warn("Failed to send the publish journal, {} messages left", publishJournal.size(), e);
+            }
+        }
+        return publishJournal.isEmpty();
+    }
+
+    /**
+     * Returns the journal of messages published while disconnected, or null if the journal is not enabled.
+     */
+    public PublishJournal getPublishJournal() {
+        return publishJournal;
     }
 
     public GroupKey rekey(Stream stream) {
@@ -491,48 +897,243 @@ public class StreamrClient extends StreamrRESTClient {
     }
 
     protected Subscription subscribe(Stream stream, int partition, MessageHandler handler, ResendOption resendOption, boolean isExplicitResend) {
-        if (!getState().equals(ReadyState.OPEN)) {
-            connect();
+        return subscribe(stream.getId(), partition, handler, resendOption, isExplicitResend, null, null);
+    }
+
+    /**
+     * Like subscribe(), but doesn't block: connects if needed, and returns a future completed with the
+     * Subscription when the SubscribeResponse arrives. The future completes exceptionally with an
+     * ErrorResponseException if the subscribe request fails, or with a RequestTimeoutException if there's
+     * no response within StreamrClientOptions.requestTimeoutMillis.
+     */
+    public CompletableFuture<Subscription> subscribeAsync(Stream stream, int partition, MessageHandler handler,
+                                                          @Nullable ResendOption resendOption) {
+        return connectAsync(stream.getId(), partition).thenCompose(v -> {
+            CompletableFuture<Void> subscribed = new CompletableFuture<>();
+            Subscription sub = subscribe(stream.getId(), partition, handler, resendOption, false, subscribed, null);
+            subscribed.whenComplete((response, e) -> {
+                if (e != null) {
+                    removeFailedSubscription(sub);
+                }
+            });
+            return subscribed.thenApply(response -> sub);
+        });
+    }
+
+    public MultiPartitionSubscription subscribeAllPartitions(Stream stream, MessageHandler handler) {
+        return subscribeAllPartitions(stream, handler, null, MultiPartitionSubscription.Ordering.PARTITION);
+    }
+
+    /**
+     * Subscribes to all partitions of the stream behind a single handle. With Ordering.PARTITION the partitions
+     * are handled in parallel, with Ordering.TIMESTAMP the messages of all partitions are merged in timestamp
+     * order, waiting at most StreamrClientOptions.partitionMergeDelayMillis for the other partitions.
+     */
+    public MultiPartitionSubscription subscribeAllPartitions(Stream stream, MessageHandler handler,
+                                                             @Nullable ResendOption resendOption,
+                                                             MultiPartitionSubscription.Ordering ordering) {
+        int partitionCount = stream.getPartitions() != null ? stream.getPartitions() : 1;
+        MultiPartitionSubscription multiSub = new MultiPartitionSubscription(stream.getId(), partitionCount, handler,
+                ordering, options.getPartitionMergeDelayMillis(), options.getDispatchLaneCapacity());
+        for (int partition = 0; partition < partitionCount; partition++) {
+            multiSub.setSubscription(partition, subscribe(stream.getId(), partition, multiSub.getPartitionHandler(),
+                    resendOption, false, null, null));
         }
+        return multiSub;
+    }
+
+    /**
+     * Subscribes to many stream-partitions, for example all partitions of many streams (see
+     * Stream.toStreamParts()). Connects if needed, and then keeps up to StreamrClientOptions.subscribeWindow
+     * SubscribeRequests in flight, sending the next one as each SubscribeResponse arrives. The stream metadata
+     * needed to validate the messages is fetched once per stream in the background meanwhile.
+     *
+     * @param resendOption resend option for every subscription, or null for real-time only
+     * @return a future completed with the subscriptions, in the order of streamParts, when all of them are
+     * subscribed. Completes exceptionally on the first failed or timed out request; the subscriptions made
+     * before that are kept.
+     */
+    public CompletableFuture<List<Subscription>> subscribeAll(Collection<StreamPart> streamParts, MessageHandler handler,
+                                                              @Nullable ResendOption resendOption) {
+        List<StreamPart> parts = new ArrayList<>(streamParts);
+        // Once connected, each subscribe waits only for the connection of its stream-partition
+        CompletableFuture<Void> connected = keepConnected ? CompletableFuture.completedFuture(null) : connectAsync();
+        return connected.thenCompose(v -> {
+            warmUpValidator(parts);
+            return subscribeWindowed(parts, handler, resendOption);
+        });
+    }
+
+    /**
+     * Fetches the metadata of each stream once, so that the first message of each partition doesn't wait for it.
+     * The streams are fetched one at a time on the client's own thread. Failures are ignored, the validator
+     * fetches the stream again when needed.
+     */
+    private void warmUpValidator(List<StreamPart> parts) {
+        Set<String> streamIds = new HashSet<>();
+        for (StreamPart part : parts) {
+            streamIds.add(part.getStreamId());
+        }
+        for (String streamId : streamIds) {
+            CompletableFuture.runAsync(() -> streamMessageValidator.warmUp(streamId), streamFetchExecutor)
+                    .exceptionally(e -> {
+                        log.debug("Failed to fetch stream {} in advance", streamId, e);
+                        return null;
+                    });
+        }
+    }
 
-        SubscribeRequest subscribeRequest = new SubscribeRequest(newRequestId("sub"), stream.getId(), partition, getSessionToken());
+    private CompletableFuture<List<Subscription>> subscribeWindowed(List<StreamPart> parts, MessageHandler handler,
+                                                                    @Nullable ResendOption resendOption) {
+        CompletableFuture<List<Subscription>> result = new CompletableFuture<>();
+        if (parts.isEmpty()) {
+            result.complete(Collections.emptyList());
+            return result;
+        }
+        Subscription[] subscriptions = new Subscription[parts.size()];
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger remaining = new AtomicInteger(parts.size());
+        Runnable sendNext = new Runnable() {
+            @Override
+            public void run() {
+                int i = next.getAndIncrement();
+                if (i >= parts.size() || result.isDone()) {
+                    return;
+                }
+                StreamPart part = parts.get(i);
+                CompletableFuture<Void> subscribed = new CompletableFuture<>();
+                try {
+                    subscriptions[i] = subscribe(part.getStreamId(), part.getStreamPartition(), handler, resendOption,
+                            false, subscribed, null);
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                subscribed.whenComplete((response, e) -> {
+                    if (e != null) {
+                        result.completeExceptionally(e);
+                    } else if (remaining.decrementAndGet() == 0) {
+                        result.complete(Arrays.asList(subscriptions));
+                    } else {
+                        run();
+                    }
+                });
+            }
+        };
+        int window = Math.max(1, options.getSubscribeWindow());
+        for (int i = 0; i < window && i < parts.size(); i++) {
+            sendNext.run();
+        }
+        return result;
+    }
+
+    /**
+     * @param subscribed if not null, completed by the SubscribeResponse
+     * @param resent if not null, registered under the requestId of the resend request sent after subscribing,
+     *               so that it fails if the resend request fails or times out
+     */
+    private Subscription subscribe(String streamId, int partition, MessageHandler handler, ResendOption resendOption,
+                                   boolean isExplicitResend, @Nullable CompletableFuture<Void> subscribed,
+                                   @Nullable CompletableFuture<Void> resent) {
+        connect(streamId, partition);
+
+        SubscribeRequest subscribeRequest = new SubscribeRequest(newRequestId("sub"), streamId, partition, getSessionToken());
 
         Subscription sub;
-        BasicSubscription.GroupKeyRequestFunction requestFunction = (publisherId, groupKeyIds) -> sendGroupKeyRequest(stream.getId(), publisherId, groupKeyIds);
+        BasicSubscription.GroupKeyRequestFunction requestFunction = (publisherId, groupKeyIds) -> sendGroupKeyRequest(streamId, publisherId, groupKeyIds);
+        handler = unsubscribeWhenFailed(handler);
+        // Explicit resends don't move the checkpoints of the stream-partition
+        OrderingOptions orderingOptions = new OrderingOptions(options.getSpillDirectory(), options.getChainEvictionOptions(),
+                options.getGapFillPolicy(), isExplicitResend ? null : options.getCheckpointStore(), deliveryExecutor);
         if (resendOption == null) {
-            sub = new RealTimeSubscription(stream.getId(), partition, handler, keyStore, keyExchangeUtil,
+            sub = new RealTimeSubscription(streamId, partition, handler, keyStore, keyExchangeUtil,
                     requestFunction, options.getPropagationTimeout(), options.getResendTimeout(),
-                    options.getSkipGapsOnFullQueue());
+                    options.getSkipGapsOnFullQueue(), orderingOptions);
         } else if (isExplicitResend) {
-            sub = new HistoricalSubscription(stream.getId(), partition, handler, keyStore, keyExchangeUtil, resendOption,
+            sub = new HistoricalSubscription(streamId, partition, handler, keyStore, keyExchangeUtil, resendOption,
                     requestFunction, options.getPropagationTimeout(), options.getResendTimeout(),
-                    options.getSkipGapsOnFullQueue());
+                    options.getSkipGapsOnFullQueue(), orderingOptions, null);
         } else {
-            sub = new CombinedSubscription(stream.getId(), partition, handler, keyStore, keyExchangeUtil, resendOption, requestFunction,
-                    options.getPropagationTimeout(), options.getResendTimeout(), options.getSkipGapsOnFullQueue());
+            sub = new CombinedSubscription(streamId, partition, handler, keyStore, keyExchangeUtil, resendOption, requestFunction,
+                    options.getPropagationTimeout(), options.getResendTimeout(), options.getSkipGapsOnFullQueue(),
+                    orderingOptions);
         }
         sub.setGapHandler((MessageRef from, MessageRef to, Address publisherId, String msgChainId) -> {
-            ResendRangeRequest req = new ResendRangeRequest(
-                    newRequestId("resend"),
-                    stream.getId(),
-                    partition,
-                    from,
-                    to,
-                    publisherId,
-                    msgChainId,
-                    getSessionToken()
-            );
             sub.setResending(true);
-            send(req);
+            connectionFor(streamId, partition).gapFillCoordinator.request(streamId, partition, from, to, publisherId, msgChainId);
         });
+        if (resendOption == null && options.getCheckpointStore() != null) {
+            Collection<Checkpoint> checkpoints = options.getCheckpointStore().get(streamId, partition);
+            if (!checkpoints.isEmpty()) {
+                log.debug("Resuming stream {} partition {} from {} checkpoints", streamId, partition, checkpoints.size());
+                ((RealTimeSubscription) sub).setLastCheckpoints(checkpoints);
+                pendingCheckpoints.put(sub.getId(), checkpoints);
+            }
+        }
         subs.add(sub);
         sub.setState(Subscription.State.SUBSCRIBING);
+        if (subscribed != null) {
+            pendingRequests.register(subscribeRequest.getRequestId(), subscribed);
+        }
+        if (resent != null) {
+            pendingResends.put(sub.getId(), resent);
+        }
         send(subscribeRequest);
         return sub;
     }
 
+    /**
+     * Resubscribes to the subscriptions assigned to the newly opened connection. The SubscribeRequests are sent
+     * without waiting for the responses, in batches paced to options.resubscribeRate per second. The first batch
+     * is sent right away, the rest on the executorService. Stops if the transport is replaced in the meantime.
+     */
+    private void resubscribeAll(Connection connection, Transport transport) {
+        List<Subscription> pending = new ArrayList<>();
+        subs.forEach(sub -> {
+            if (connectionFor(sub.getStreamId(), sub.getPartition()) == connection) {
+                pending.add(sub);
+            }
+        });
+        if (pending.isEmpty()) {
+            return;
+        }
+        int batchSize = Math.max(1, options.getResubscribeRate() / RESUBSCRIBE_BATCHES_PER_SECOND);
+        Iterator<Subscription> it = pending.iterator();
+        Runnable sendBatch = new Runnable() {
+            @Override
+            public void run() {
+                if (connection.transport != transport || !transport.isOpen()) {
+                    return;
+                }
+                try {
+                    for (int i = 0; i < batchSize && it.hasNext(); i++) {
+                        resubscribe(it.next());
+                    }
+                } catch (WebsocketNotConnectedException e) {
+                    log.error("Failed to resubscribe", e);
+                    return;
+                }
+                if (it.hasNext()) {
+                    executorService.schedule(this, 1000 / RESUBSCRIBE_BATCHES_PER_SECOND, TimeUnit.MILLISECONDS);
+                }
+            }
+        };
+        sendBatch.run();
+    }
+
+    /**
+     * Sends a SubscribeRequest for an existing subscription. Subscriptions without resend options resume from
+     * the last received message of each of their chains: the chains are bulk-restored with one resend per
+     * publisher after the SubscribeResponse, instead of each chain detecting and filling its gap separately.
+     */
     private void resubscribe(Subscription sub) {
         SubscribeRequest subscribeRequest = new SubscribeRequest(newRequestId("resub"), sub.getStreamId(), sub.getPartition(), getSessionToken());
+        if (!sub.hasResendOptions()) {
+            Collection<Checkpoint> checkpoints = sub.getCheckpoints();
+            if (!checkpoints.isEmpty()) {
+                pendingCheckpoints.put(sub.getId(), checkpoints);
+            }
+        }
         sub.setState(Subscription.State.SUBSCRIBING);
         send(subscribeRequest);
     }
@@ -542,7 +1143,53 @@ public class StreamrClient extends StreamrRESTClient {
      */
 
     public void resend(Stream stream, int partition, MessageHandler handler, ResendOption resendOption) {
-        MessageHandler a = new MessageHandler() {
+        subscribe(stream, partition, unsubscribeWhenDone(handler), resendOption, true);
+    }
+
+    /**
+     * Like resend(), but doesn't block: connects if needed, and returns a future completed after the last
+     * resent message has been handed to the handler and MessageHandler.done() has been called. The future
+     * completes exceptionally with an ErrorResponseException if the subscribe or resend request fails, or with
+     * a RequestTimeoutException if either gets no response within StreamrClientOptions.requestTimeoutMillis.
+     */
+    public CompletableFuture<Void> resendAsync(Stream stream, int partition, MessageHandler handler, ResendOption resendOption) {
+        return connectAsync(stream.getId(), partition).thenCompose(v -> {
+            CompletableFuture<Void> subscribed = new CompletableFuture<>();
+            CompletableFuture<Void> resent = new CompletableFuture<>();
+            MessageHandler completeWhenDone = new MessageHandler() {
+                @Override
+                public void onMessage(Subscription sub, StreamMessage message) {
+                    handler.onMessage(sub, message);
+                }
+                public void done(Subscription sub) {
+                    handler.done(sub);
+                    resent.complete(null);
+                }
+            };
+            Subscription sub = subscribe(stream.getId(), partition, unsubscribeWhenDone(completeWhenDone), resendOption, true, subscribed, resent);
+            subscribed.whenComplete((response, e) -> {
+                if (e != null) {
+                    removeFailedSubscription(sub);
+                    resent.completeExceptionally(e);
+                }
+            });
+            resent.whenComplete((response, e) -> {
+                if (e != null && subscribed.isDone() && !subscribed.isCompletedExceptionally()) {
+                    // The resend request failed after subscribing
+                    try {
+                        unsubscribe(sub);
+                    } catch (RuntimeException unsubscribeError) {
+                        log.warn("Failed to unsubscribe after a failed resend", unsubscribeError);
+                        removeFailedSubscription(sub);
+                    }
+                }
+            });
+            return resent;
+        });
+    }
+
+    private MessageHandler unsubscribeWhenDone(MessageHandler handler) {
+        return new MessageHandler() {
             @Override
             public void onMessage(Subscription sub, StreamMessage message) {
                 handler.onMessage(sub, message);
@@ -552,8 +1199,39 @@ public class StreamrClient extends StreamrRESTClient {
                 handler.done(sub);
             }
         };
+    }
 
-        subscribe(stream, partition, a, resendOption, true);
+    /**
+     * Unsubscribes a subscription that has failed because of an unfillable gap
+     * (GapFillPolicy.OnFailure.FAIL_SUBSCRIPTION), since it won't deliver messages anymore.
+     */
+    private MessageHandler unsubscribeWhenFailed(MessageHandler handler) {
+        return new MessageHandler() {
+            @Override
+            public void onMessage(Subscription sub, StreamMessage message) {
+                handler.onMessage(sub, message);
+            }
+            public void done(Subscription sub) {
+                handler.done(sub);
+            }
+            public void onUnableToDecrypt(UnableToDecryptException e) {
+                handler.onUnableToDecrypt(e);
+            }
+            public void onGapFillFailed(Subscription sub, GapFillFailedException e) {
+                if (e.isSubscriptionFailed()) {
+                    // Called on the timer, holding the lock of the chain
+                    executorService.execute(() -> {
+                        try {
+                            log.info("Unsubscribing failed subscription {}", sub.getId());
+                            StreamrClient.this.unsubscribe(sub);
+                        } catch (RuntimeException unsubscribeError) {
+                            log.error("Failed to unsubscribe failed subscription {}", sub.getId(), unsubscribeError);
+                        }
+                    });
+                }
+                handler.onGapFillFailed(sub, e);
+            }
+        };
     }
 
     /*
@@ -561,22 +1239,83 @@ public class StreamrClient extends StreamrRESTClient {
      */
 
     public void unsubscribe(Subscription sub) {
+        unsubscribe(sub, null);
+    }
+
+    /**
+     * Unsubscribes from all partitions and stops delivering messages to the handler.
+     */
+    public void unsubscribe(MultiPartitionSubscription multiSub) {
+        for (Subscription sub : multiSub.getSubscriptions()) {
+            unsubscribe(sub);
+        }
+        multiSub.close();
+    }
+
+    /**
+     * Like unsubscribe(), but returns a future completed when the UnsubscribeResponse arrives. The future
+     * completes exceptionally with an ErrorResponseException if the request fails, or with a
+     * RequestTimeoutException if there's no response within StreamrClientOptions.requestTimeoutMillis.
+     */
+    public CompletableFuture<Void> unsubscribeAsync(Subscription sub) {
+        CompletableFuture<Void> unsubscribed = new CompletableFuture<>();
+        try {
+            unsubscribe(sub, unsubscribed);
+        } catch (RuntimeException e) {
+            unsubscribed.completeExceptionally(e);
+        }
+        return unsubscribed;
+    }
+
+    private void unsubscribe(Subscription sub, @Nullable CompletableFuture<Void> unsubscribed) {
         UnsubscribeRequest unsubscribeRequest = new UnsubscribeRequest(newRequestId("unsub"), sub.getStreamId(), sub.getPartition());
         sub.setState(Subscription.State.UNSUBSCRIBING);
         sub.setResending(false);
+        if (unsubscribed != null) {
+            pendingRequests.register(unsubscribeRequest.getRequestId(), unsubscribed);
+        }
         send(unsubscribeRequest);
     }
 
     private void handleSubscribeResponse(SubscribeResponse res) throws SubscriptionNotFoundException {
         Subscription sub = subs.get(res.getStreamId(), res.getStreamPartition());
         sub.setState(Subscription.State.SUBSCRIBED);
+        pendingRequests.complete(res.getRequestId());
         if (sub.hasResendOptions()) {
             ResendOption resendOption = sub.getResendOption();
             ControlMessage req = resendOption.toRequest(newRequestId("resend"), res.getStreamId(), res.getStreamPartition(), this.getSessionToken());
+            CompletableFuture<Void> resent = pendingResends.remove(sub.getId());
+            if (resent != null) {
+                pendingRequests.register(req.getRequestId(), resent);
+            }
             send(req);
-            OneTimeResend resend = new OneTimeResend(websocket, req, options.getResendTimeout(), sub);
-            secondResends.put(sub.getId(), resend);
-            resend.start();
+            OneTimeResend resend = new OneTimeResend(connectionFor(req).transport, req, sub);
+            OneTimeResend previous = secondResends.put(sub.getId(), resend);
+            if (previous != null) {
+                previous.cancel();
+            }
+            resend.schedule(executorService, options.getResendTimeout());
+        }
+        Collection<Checkpoint> checkpoints = pendingCheckpoints.remove(sub.getId());
+        if (checkpoints != null) {
+            sendCheckpointResends(sub, checkpoints);
+        }
+    }
+
+    /**
+     * Requests the messages published after the checkpoints, one ResendFromRequest per publisher starting
+     * from the oldest checkpoint of its chains. The checkpointed messages themselves and the messages of chains
+     * with later checkpoints are dropped as duplicates by the OrderedMsgChains.
+     */
+    private void sendCheckpointResends(Subscription sub, Collection<Checkpoint> checkpoints) {
+        Map<Address, MessageRef> fromByPublisher = new HashMap<>();
+        for (Checkpoint checkpoint : checkpoints) {
+            fromByPublisher.merge(checkpoint.getPublisherId(), checkpoint.getLastReceived(),
+                    (a, b) -> a.compareTo(b) <= 0 ? a : b);
+        }
+        for (Map.Entry<Address, MessageRef> entry : fromByPublisher.entrySet()) {
+            send(new ResendFromRequest(newRequestId("resend"), sub.getStreamId(), sub.getPartition(),
+                    entry.getValue(), entry.getKey().toString(), getSessionToken()));
         }
     }
 
@@ -584,6 +1323,28 @@ public class StreamrClient extends StreamrRESTClient {
         Subscription sub = subs.get(res.getStreamId(), res.getStreamPartition());
         sub.setState(Subscription.State.UNSUBSCRIBED);
         subs.remove(sub);
+        pendingCheckpoints.remove(sub.getId());
+        cancelSecondResend(sub);
+        pendingRequests.complete(res.getRequestId());
+    }
+
+    /**
+     * Forgets a subscription whose SubscribeRequest failed, so that it doesn't receive messages and
+     * a new subscription can be made to the stream-partition.
+     */
+    private void removeFailedSubscription(Subscription sub) {
+        sub.setState(Subscription.State.UNSUBSCRIBED);
+        subs.removeIfPresent(sub);
+        pendingCheckpoints.remove(sub.getId());
+        pendingResends.remove(sub.getId());
+        cancelSecondResend(sub);
+    }
+
+    private void cancelSecondResend(Subscription sub) {
+        OneTimeResend resend = secondResends.remove(sub.getId());
+        if (resend != null) {
+            resend.cancel();
+        }
     }
 
     private void handleResendResponseResending(ResendResponseResending res) throws SubscriptionNotFoundException {
@@ -593,24 +1354,240 @@ public class StreamrClient extends StreamrRESTClient {
     }
 
     private void handleResendResponseNoResend(ResendResponseNoResend res) throws SubscriptionNotFoundException {
+        connectionFor(res.getStreamId(), res.getStreamPartition()).gapFillCoordinator.onResponse(res.getRequestId());
         Subscription sub = subs.get(res.getStreamId(), res.getStreamPartition());
         sub.endResend();
     }
 
     private void handleResendResponseResent(ResendResponseResent res) throws SubscriptionNotFoundException {
+        connectionFor(res.getStreamId(), res.getStreamPartition()).gapFillCoordinator.onResponse(res.getRequestId());
         Subscription sub = subs.get(res.getStreamId(), res.getStreamPartition());
         sub.endResend();
     }
 
     private void sendGroupKeyRequest(String streamId, Address publisherId, List<String> groupKeyIds) {
-        if (!getState().equals(ReadyState.OPEN)) {
-            connect();
-        }
         StreamMessage request = msgCreationUtil.createGroupKeyRequest(publisherId, streamId, encryptionUtil.getPublicKeyAsPemString(), groupKeyIds);
+        connect(request.getStreamId(), request.getStreamPartition());
         publish(request);
     }
 
     private String newRequestId(String prefix) {
-        return String.format("%s.%s.%d", prefix, IdGenerator.get(), requestCounter++);
+        return String.format("%s.%s.%d", prefix, IdGenerator.get(), requestCounter.getAndIncrement());
+    }
+
+    /**
+     * One connection of the pool. Reconnects on its own, and on (re)connect resubscribes only the
+     * subscriptions assigned to it. The Transport is replaced on every connect attempt. The gap fill requests
+     * of its stream-partitions are limited by its own GapFillCoordinator, so that a connection waiting for a
+     * restarted broker doesn't hold up the gap fills of the others.
+     */
+    private class Connection implements TransportListener {
+        private final int index;
+        private final String url;
+        private volatile Transport transport;
+        // Guarded by stateChangeLock
+        private ScheduledFuture<?> reconnectTask = null;
+        private int failedConnectAttempts = 0;
+        // The transport whose failure already scheduled the next connect attempt
+        private Transport retryScheduledFor = null;
+        // Futures of awaitOpen(), completed by onOpen
+        private final List<CompletableFuture<Void>> pendingOpens = new CopyOnWriteArrayList<>();
+        // The last message of publishAsync() that waits for this connection. Only accessed on the publish queue's sender thread.
+        private CompletableFuture<Void> publishTail = CompletableFuture.completedFuture(null);
+        private final GapFillCoordinator gapFillCoordinator;
+
+        private Connection(int index, String url) {
+            this.index = index;
+            this.url = url;
+            gapFillCoordinator = new GapFillCoordinator(options.getMaxGapFillRequestsInFlight(),
+                    options.getMaxGapFillRequestsInFlightPerPartition(), options.getResendTimeout(),
+                    (streamId, partition, from, to, publisherId, msgChainId) -> {
+                        ResendRangeRequest req = new ResendRangeRequest(newRequestId("resend"), streamId, partition,
+                                from, to, publisherId, msgChainId, getSessionToken());
+                        send(req);
+                        return req.getRequestId();
+                    }, SharedTimer.getDefault(), executorService);
+        }
+
+        private ReadyState getState() {
+            Transport t = transport;
+            return t == null ? ReadyState.CLOSED : t.getState();
+        }
+
+        /**
+         * @return a future completed when this connection is open, or completed exceptionally with a
+         * ConnectionTimeoutException if it isn't open within the connection timeout
+         */
+        private CompletableFuture<Void> awaitOpen() {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            pendingOpens.add(future);
+            if (getState() == ReadyState.OPEN) {
+                pendingOpens.remove(future);
+                future.complete(null);
+            } else {
+                timeoutAfter(future, pendingOpens, () -> new ConnectionTimeoutException(url));
+            }
+            return future;
+        }
+
+        private void send(ControlMessage message) {
+            Transport t = transport;
+            if (t != null) {
+                t.send(message.toJson());
+            } else {
+                log.warn("send: transport is null, not sending message {}", message);
+            }
+        }
+
+        private void initTransport() {
+            transport = options.getTransportFactory().create(url, this);
+        }
+
+        @Override
+        public void onOpen(Transport t) {
+            log.info("Connection established to {}", url);
+            synchronized (stateChangeLock) {
+                failedConnectAttempts = 0;
+                if (reconnectTask != null) {
+                    reconnectTask.cancel(false);
+                    reconnectTask = null;
+                }
+            }
+            boolean allOpen = StreamrClient.this.getState() == ReadyState.OPEN;
+            if (allOpen) {
+                StreamrClient.this.onOpen();
+            }
+            resubscribeAll(this, t);
+            if (publishJournal != null) {
+                synchronized (publishJournal) {
+                    replayPublishJournal();
+                }
+            }
+            completeAll(pendingOpens);
+            if (allOpen) {
+                notifyStateListeners(ReadyState.OPEN);
+                completeAll(pendingConnects);
+            }
+        }
+
+        @Override
+        public void onMessage(Transport t, String message) {
+            handleMessage(message);
+        }
+
+        @Override
+        public void onClose(Transport t, int code, String reason, boolean remote) {
+            log.info("Connection to " + url + " closed! Code: " + code + ", Reason: " + reason);
+            // The responses to the requests in flight won't arrive, the chains request the gaps again
+            gapFillCoordinator.clear();
+            boolean allClosed = true;
+            for (Connection connection : connections) {
+                allClosed &= connection == this || connection.getState() == ReadyState.CLOSED;
+            }
+            if (!keepConnected && allClosed) {
+                StreamrClient.this.onClose();
+            }
+            if (allClosed) {
+                notifyStateListeners(ReadyState.CLOSED);
+            }
+            if (!keepConnected) {
+                if (allClosed) {
+                    completeAll(pendingDisconnects);
+                }
+            } else {
+                onConnectionLost(t);
+            }
+        }
+
+        @Override
+        public void onError(Transport t, Exception ex) {
+            log.error("Transport error on connection to " + url, ex);
+            if (!(ex instanceof IOException)) {
+                StreamrClient.this.onError(ex);
+            }
+        }
+
+        /**
+         * Starts the connect attempts. Must hold stateChangeLock.
+         */
+        private void startConnecting() {
+            failedConnectAttempts = 0;
+            scheduleConnectAttempt();
+        }
+
+        /**
+         * Cancels the pending connect attempt. Must hold stateChangeLock.
+         */
+        private void stopConnecting() {
+            if (reconnectTask != null) {
+                reconnectTask.cancel(false);
+                reconnectTask = null;
+            }
+        }
+
+        /**
+         * Schedules the next connect attempt according to reconnectBackoff. Must hold stateChangeLock.
+         */
+        private void scheduleConnectAttempt() {
+            if (reconnectTask != null) {
+                reconnectTask.cancel(false);
+            }
+            long delay = reconnectBackoff.getDelay(failedConnectAttempts++);
+            if (delay > 0) {
+                log.info("Attempting to reconnect to {} in {} ms", url, delay);
+            }
+            reconnectTask = executorService.schedule(this::attemptConnect, delay, TimeUnit.MILLISECONDS);
+        }
+
+        private void attemptConnect() {
+            Transport previous;
+            synchronized (stateChangeLock) {
+                if (!keepConnected || getState() == ReadyState.OPEN) {
+                    return;
+                }
+                previous = transport;
+                log.info("Not connected. Attempting to " + (previous != null ? "reconnect" : "connect") + " to " + url);
+                // Replace the transport first, so that the onClose of the previous one doesn't count as a failure
+                initTransport();
+            }
+            if (previous != null) {
+                previous.close();
+            }
+            notifyStateListeners(ReadyState.NOT_YET_CONNECTED);
+            synchronized (stateChangeLock) {
+                Transport attempt = transport;
+                if (!keepConnected || attempt.getState() != ReadyState.NOT_YET_CONNECTED) {
+                    return;
+                }
+                attempt.connect();
+
+                // Give up on the attempt if the handshake doesn't complete in time
+                reconnectTask = executorService.schedule(() -> {
+                    if (attempt.getState() != ReadyState.OPEN) {
+                        log.warn("Connection attempt to {} timed out after {} ms", url, options.getConnectionTimeoutMillis());
+                        attempt.close();
+                        onConnectionLost(attempt);
+                    }
+                }, options.getConnectionTimeoutMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        /**
+         * Called when the given transport closed or failed to connect. Schedules the next connect attempt
+         * once per transport, ignoring transports that have already been replaced.
+         */
+        private void onConnectionLost(Transport t) {
+            synchronized (stateChangeLock) {
+                if (keepConnected && t == transport && t != retryScheduledFor) {
+                    retryScheduledFor = t;
+                    scheduleConnectAttempt();
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "connection-" + index;
+        }
     }
 }
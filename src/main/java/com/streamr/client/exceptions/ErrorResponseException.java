@@ -0,0 +1,16 @@
+package com.streamr.client.exceptions;
+
+import com.streamr.client.protocol.control_layer.ErrorResponse;
+
+public class ErrorResponseException extends RuntimeException {
+    private final String errorCode;
+
+    public ErrorResponseException(ErrorResponse response) {
+        super("Request " + response.getRequestId() + " failed: " + response.getErrorCode() + ": " + response.getErrorMessage());
+        this.errorCode = response.getErrorCode();
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+}
@@ -4,8 +4,23 @@ import com.streamr.client.protocol.message_layer.MessageRef;
 import com.streamr.client.utils.Address;
 
 public class GapFillFailedException extends RuntimeException {
-    public GapFillFailedException(MessageRef from, MessageRef to, Address publisherId, String msgChainId, int maxRequests) {
+    private final boolean subscriptionFailed;
+
+    public GapFillFailedException(MessageRef from, MessageRef to, Address publisherId, String msgChainId, int maxRequests,
+                                  boolean subscriptionFailed) {
         super("Failed to fill gap between " + from + " and " + to + " for " + publisherId + "-"
                 + msgChainId + " after " + maxRequests + " trials");
+        this.subscriptionFailed = subscriptionFailed;
+    }
+
+    public GapFillFailedException(MessageRef from, MessageRef to, Address publisherId, String msgChainId, int maxRequests) {
+        this(from, to, publisherId, msgChainId, maxRequests, false);
+    }
+
+    /**
+     * @return true if the subscription stopped delivering messages because of the gap
+     */
+    public boolean isSubscriptionFailed() {
+        return subscriptionFailed;
     }
 }
@@ -0,0 +1,7 @@
+package com.streamr.client.exceptions;
+
+public class PublishQueueFullException extends RuntimeException {
+    public PublishQueueFullException(int capacity) {
+        super("Publish queue is full (" + capacity + " messages)");
+    }
+}
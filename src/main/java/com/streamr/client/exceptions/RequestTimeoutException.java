@@ -0,0 +1,7 @@
+package com.streamr.client.exceptions;
+
+public class RequestTimeoutException extends RuntimeException {
+    public RequestTimeoutException(String requestId, long timeoutMillis) {
+        super("No response to request " + requestId + " within " + timeoutMillis + " ms");
+    }
+}
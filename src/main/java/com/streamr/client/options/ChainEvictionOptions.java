@@ -0,0 +1,51 @@
+package com.streamr.client.options;
+
+/**
+ * Controls how a subscription forgets the message chains (publisherId, msgChainId) it has seen.
+ * Without eviction, every chain ever seen stays in memory, which leaks on streams with many
+ * short-lived publishers or publishers that change msgChainId on restart.
+ */
+public class ChainEvictionOptions {
+    private final long idleTimeoutMillis;
+    private final long gracePeriodMillis;
+    private final int maxChains;
+
+    /**
+     * @param idleTimeoutMillis a chain that hasn't received messages for this long (and isn't waiting for a gap
+     *                          to be filled) is evicted
+     * @param gracePeriodMillis the last received message reference of an evicted chain is remembered for this long,
+     *                          so that duplicates are still rejected if the chain becomes active again
+     * @param maxChains maximum number of chains per subscription, 0 for no limit. When the limit is reached,
+     *                  the least recently active idle chain is evicted.
+     */
+    public ChainEvictionOptions(long idleTimeoutMillis, long gracePeriodMillis, int maxChains) {
+        if (idleTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("idleTimeoutMillis must be positive");
+        }
+        if (gracePeriodMillis < 0 || maxChains < 0) {
+            throw new IllegalArgumentException("gracePeriodMillis and maxChains must not be negative");
+        }
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.gracePeriodMillis = gracePeriodMillis;
+        this.maxChains = maxChains;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public long getGracePeriodMillis() {
+        return gracePeriodMillis;
+    }
+
+    public int getMaxChains() {
+        return maxChains;
+    }
+
+    /**
+     * Evicts chains that have been idle for 10 minutes, and remembers them for another 10 minutes.
+     */
+    public static ChainEvictionOptions getDefault() {
+        return new ChainEvictionOptions(10 * 60 * 1000, 10 * 60 * 1000, 0);
+    }
+}
@@ -0,0 +1,78 @@
+package com.streamr.client.options;
+
+import com.streamr.client.utils.CheckpointStore;
+import com.streamr.client.utils.GapFillPolicy;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Controls how a subscription orders its messages and fills the gaps, given to the subscription when it's
+ * created. Null fields leave the feature disabled, or use its default.
+ */
+public class OrderingOptions {
+    private final File spillDirectory;
+    private final ChainEvictionOptions chainEvictionOptions;
+    private final GapFillPolicy gapFillPolicy;
+    private final CheckpointStore checkpointStore;
+    private final Executor deliveryExecutor;
+
+    /**
+     * @param spillDirectory messages that don't fit into a full ordering queue are spilled to files in this
+     *                       directory, see OrderedMsgChain.setSpillDirectory(). Null disables spilling.
+     * @param chainEvictionOptions when idle message chains are forgotten. Null disables eviction.
+     * @param gapFillPolicy how gaps are requested and what happens to a gap that can't be filled.
+     *                      Null for GapFillPolicy.getDefault().
+     * @param checkpointStore where the last handled message of each chain is recorded. Null disables checkpointing.
+     * @param deliveryExecutor runs the gap checks, which may deliver the queued messages, see
+     *                         OrderedMsgChain.setDeliveryExecutor(). Null for a process-wide default thread.
+     */
+    public OrderingOptions(@Nullable File spillDirectory, @Nullable ChainEvictionOptions chainEvictionOptions,
+                           @Nullable GapFillPolicy gapFillPolicy, @Nullable CheckpointStore checkpointStore,
+                           @Nullable Executor deliveryExecutor) {
+        this.spillDirectory = spillDirectory;
+        this.chainEvictionOptions = chainEvictionOptions;
+        this.gapFillPolicy = gapFillPolicy;
+        this.checkpointStore = checkpointStore;
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    public OrderingOptions(@Nullable File spillDirectory, @Nullable ChainEvictionOptions chainEvictionOptions,
+                           @Nullable GapFillPolicy gapFillPolicy, @Nullable CheckpointStore checkpointStore) {
+        this(spillDirectory, chainEvictionOptions, gapFillPolicy, checkpointStore, null);
+    }
+
+    @Nullable
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    @Nullable
+    public ChainEvictionOptions getChainEvictionOptions() {
+        return chainEvictionOptions;
+    }
+
+    @Nullable
+    public GapFillPolicy getGapFillPolicy() {
+        return gapFillPolicy;
+    }
+
+    @Nullable
+    public CheckpointStore getCheckpointStore() {
+        return checkpointStore;
+    }
+
+    @Nullable
+    public Executor getDeliveryExecutor() {
+        return deliveryExecutor;
+    }
+
+    /**
+     * @return options without spilling, chain eviction or checkpointing, with the default GapFillPolicy
+     *         and delivery executor
+     */
+    public static OrderingOptions getDefault() {
+        return new OrderingOptions(null, null, null, null, null);
+    }
+}
@@ -5,7 +5,17 @@ import com.streamr.client.authentication.EthereumAuthenticationMethod;
 import com.streamr.client.exceptions.InvalidOptionsException;
 import com.streamr.client.protocol.control_layer.ControlMessage;
 import com.streamr.client.protocol.message_layer.StreamMessage;
+import com.streamr.client.transport.JavaWebSocketTransport;
+import com.streamr.client.transport.TransportFactory;
 import com.streamr.client.utils.Address;
+import com.streamr.client.utils.CheckpointStore;
+import com.streamr.client.utils.GapFillPolicy;
+import com.streamr.client.utils.PublishQueue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
 
 public class StreamrClientOptions {
 
@@ -25,9 +35,30 @@ public class StreamrClientOptions {
 
     private long connectionTimeoutMillis = 60 * 1000;
     private long reconnectRetryInterval = 10 * 1000;
+    private long reconnectMaxRetryInterval = 0;
+    private int resubscribeRate = 1000;
+    private int connectionPoolSize = 1;
+    private TransportFactory transportFactory = JavaWebSocketTransport::new;
+    private long requestTimeoutMillis = 30 * 1000;
+    private int subscribeWindow = 100;
+    private long partitionMergeDelayMillis = 500;
+    private List<String> websocketApiUrls = null;
     private int propagationTimeout = 5000;
     private int resendTimeout = 5000;
     private boolean skipGapsOnFullQueue = true;
+    private int maxGapFillRequestsInFlight = 100;
+    private int maxGapFillRequestsInFlightPerPartition = 10;
+    private File spillDirectory = null;
+    private ChainEvictionOptions chainEvictionOptions = null;
+    private CheckpointStore checkpointStore = null;
+    private GapFillPolicy gapFillPolicy = GapFillPolicy.getDefault();
+    private int publishQueueCapacity = 10000;
+    private PublishQueue.FullPolicy publishQueueFullPolicy = PublishQueue.FullPolicy.BLOCK;
+    private File publishJournalDirectory = null;
+    private int publishJournalSegmentSize = 16 * 1024 * 1024;
+    private int dispatchLanes = 0;
+    private int dispatchLaneCapacity = 1000;
+    private long dispatchLaneMaxWaitMillis = 30000;
 
     public StreamrClientOptions() {}
 
@@ -80,6 +111,86 @@ public class StreamrClientOptions {
         this.websocketApiUrl = addMissingQueryString(websocketApiUrl);
     }
 
+    public long getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    /**
+     * How long the futures returned by subscribeAsync(), unsubscribeAsync() and resendAsync() wait for the
+     * response before completing with a RequestTimeoutException.
+     */
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    public int getSubscribeWindow() {
+        return subscribeWindow;
+    }
+
+    /**
+     * Maximum number of SubscribeRequests sent by subscribeAll() without a response yet.
+     */
+    public void setSubscribeWindow(int subscribeWindow) {
+        this.subscribeWindow = subscribeWindow;
+    }
+
+    public long getPartitionMergeDelayMillis() {
+        return partitionMergeDelayMillis;
+    }
+
+    /**
+     * How long a message of a MultiPartitionSubscription with Ordering.TIMESTAMP waits for messages of the other
+     * partitions before it's delivered anyway. Longer delays tolerate quieter partitions at the cost of latency.
+     */
+    public void setPartitionMergeDelayMillis(long partitionMergeDelayMillis) {
+        this.partitionMergeDelayMillis = partitionMergeDelayMillis;
+    }
+
+    public int getConnectionPoolSize() {
+        return connectionPoolSize;
+    }
+
+    /**
+     * Number of websocket connections to keep open. Each stream-partition is assigned to one of the connections
+     * by consistent hashing, and its subscription and publishes go through that connection. Each connection
+     * has its own read thread and reconnects and resubscribes independently of the others.
+     */
+    public void setConnectionPoolSize(int connectionPoolSize) {
+        if (connectionPoolSize < 1) {
+            throw new InvalidOptionsException("connectionPoolSize must be at least 1");
+        }
+        this.connectionPoolSize = connectionPoolSize;
+    }
+
+    /**
+     * @return the URLs the pooled connections connect to, by default just websocketApiUrl
+     */
+    public List<String> getWebsocketApiUrls() {
+        return websocketApiUrls != null ? websocketApiUrls : Collections.singletonList(websocketApiUrl);
+    }
+
+    /**
+     * Spreads the pooled connections over several URLs: connection i connects to websocketApiUrls[i % n].
+     */
+    public void setWebsocketApiUrls(List<String> websocketApiUrls) {
+        if (websocketApiUrls.isEmpty()) {
+            throw new InvalidOptionsException("websocketApiUrls must not be empty");
+        }
+        this.websocketApiUrls = websocketApiUrls.stream().map(this::addMissingQueryString).collect(Collectors.toList());
+    }
+
+    public TransportFactory getTransportFactory() {
+        return transportFactory;
+    }
+
+    /**
+     * Creates the connections' transports. Defaults to JavaWebSocketTransport, see also OkHttpTransport and
+     * LoopbackTransport.
+     */
+    public void setTransportFactory(TransportFactory transportFactory) {
+        this.transportFactory = transportFactory;
+    }
+
     public String getRestApiUrl() {
         return restApiUrl;
     }
@@ -120,6 +231,32 @@ public class StreamrClientOptions {
         this.reconnectRetryInterval = reconnectRetryInterval;
     }
 
+    public long getReconnectMaxRetryInterval() {
+        return reconnectMaxRetryInterval;
+    }
+
+    /**
+     * Upper bound of the delay between reconnect attempts. The first reconnect attempt is made right away,
+     * after that the delay is picked at random between 0 and reconnectRetryInterval, doubling the upper bound
+     * after each failed attempt until it reaches reconnectMaxRetryInterval. Set to 0 (the default) to use
+     * reconnectRetryInterval as the upper bound for every attempt.
+     */
+    public void setReconnectMaxRetryInterval(long reconnectMaxRetryInterval) {
+        this.reconnectMaxRetryInterval = reconnectMaxRetryInterval;
+    }
+
+    public int getResubscribeRate() {
+        return resubscribeRate;
+    }
+
+    /**
+     * Maximum number of SubscribeRequests per second sent when resubscribing after a reconnect, so that
+     * a client with many subscriptions doesn't flood the freshly opened connection.
+     */
+    public void setResubscribeRate(int resubscribeRate) {
+        this.resubscribeRate = resubscribeRate;
+    }
+
     public boolean getPublishSignedMsgs() {
         return publishSignedMsgs;
     }
@@ -148,6 +285,165 @@ public class StreamrClientOptions {
         this.skipGapsOnFullQueue = skipGapsOnFullQueue;
     }
 
+    public int getMaxGapFillRequestsInFlight() {
+        return maxGapFillRequestsInFlight;
+    }
+
+    /**
+     * Maximum number of gap fill (resend range) requests waiting for a response on each connection of the pool,
+     * see setConnectionPoolSize(). Further requests are queued, and merged if they overlap.
+     */
+    public void setMaxGapFillRequestsInFlight(int maxGapFillRequestsInFlight) {
+        this.maxGapFillRequestsInFlight = maxGapFillRequestsInFlight;
+    }
+
+    public int getMaxGapFillRequestsInFlightPerPartition() {
+        return maxGapFillRequestsInFlightPerPartition;
+    }
+
+    /**
+     * Maximum number of gap fill (resend range) requests waiting for a response per stream-partition.
+     */
+    public void setMaxGapFillRequestsInFlightPerPartition(int maxGapFillRequestsInFlightPerPartition) {
+        this.maxGapFillRequestsInFlightPerPartition = maxGapFillRequestsInFlightPerPartition;
+    }
+
+    public File getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * If set, messages that don't fit into a full ordering queue (eg. during a long gap fill) are spilled
+     * to files in this directory and read back once the gap is filled, instead of being handled according
+     * to skipGapsOnFullQueue. Null (the default) disables spilling.
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    public ChainEvictionOptions getChainEvictionOptions() {
+        return chainEvictionOptions;
+    }
+
+    /**
+     * Controls when subscriptions forget idle message chains, eg. ChainEvictionOptions.getDefault().
+     * Null (the default) disables eviction.
+     */
+    public void setChainEvictionOptions(ChainEvictionOptions chainEvictionOptions) {
+        this.chainEvictionOptions = chainEvictionOptions;
+    }
+
+    public CheckpointStore getCheckpointStore() {
+        return checkpointStore;
+    }
+
+    /**
+     * If set, the last received message of each message chain is recorded in the store. Subscriptions made
+     * without a ResendOption resume from the stored checkpoints: the messages published since are resent
+     * automatically and the ones already processed are dropped as duplicates. Null (the default) disables
+     * checkpointing. See FileCheckpointStore.
+     */
+    public void setCheckpointStore(CheckpointStore checkpointStore) {
+        this.checkpointStore = checkpointStore;
+    }
+
+    public GapFillPolicy getGapFillPolicy() {
+        return gapFillPolicy;
+    }
+
+    /**
+     * Controls how gaps are requested and what happens to gaps that can't be filled. The policy is shared
+     * by all subscriptions of the client and counts the outcomes. Defaults to GapFillPolicy.skip().
+     */
+    public void setGapFillPolicy(GapFillPolicy gapFillPolicy) {
+        this.gapFillPolicy = gapFillPolicy;
+    }
+
+    public int getPublishQueueCapacity() {
+        return publishQueueCapacity;
+    }
+
+    /**
+     * Maximum number of messages waiting to be sent by publishAsync().
+     */
+    public void setPublishQueueCapacity(int publishQueueCapacity) {
+        this.publishQueueCapacity = publishQueueCapacity;
+    }
+
+    public PublishQueue.FullPolicy getPublishQueueFullPolicy() {
+        return publishQueueFullPolicy;
+    }
+
+    /**
+     * What publishAsync() does when the publish queue is full: block the caller (the default), drop the message
+     * (the returned future fails) or throw a PublishQueueFullException.
+     */
+    public void setPublishQueueFullPolicy(PublishQueue.FullPolicy publishQueueFullPolicy) {
+        this.publishQueueFullPolicy = publishQueueFullPolicy;
+    }
+
+    public File getPublishJournalDirectory() {
+        return publishJournalDirectory;
+    }
+
+    /**
+     * If set, messages published while the connection is down are written to a journal in this directory
+     * and sent in order when the connection comes back, instead of publish() failing. Messages left in the
+     * journal by a previous run are sent on the first connect. Null (the default) disables the journal.
+     */
+    public void setPublishJournalDirectory(File publishJournalDirectory) {
+        this.publishJournalDirectory = publishJournalDirectory;
+    }
+
+    public int getPublishJournalSegmentSize() {
+        return publishJournalSegmentSize;
+    }
+
+    /**
+     * Size of the publish journal's segment files in bytes.
+     */
+    public void setPublishJournalSegmentSize(int publishJournalSegmentSize) {
+        this.publishJournalSegmentSize = publishJournalSegmentSize;
+    }
+
+    public int getDispatchLanes() {
+        return dispatchLanes;
+    }
+
+    /**
+     * If positive, incoming messages are validated, decrypted and passed to the MessageHandlers on this many
+     * threads instead of the websocket read thread. Messages of a stream-partition are always handled on the
+     * same thread, in order. 0 (the default) handles everything on the websocket read thread.
+     */
+    public void setDispatchLanes(int dispatchLanes) {
+        this.dispatchLanes = dispatchLanes;
+    }
+
+    public int getDispatchLaneCapacity() {
+        return dispatchLaneCapacity;
+    }
+
+    /**
+     * Maximum number of messages waiting per dispatch lane. When a lane is full, reading from the websocket
+     * waits for room.
+     */
+    public void setDispatchLaneCapacity(int dispatchLaneCapacity) {
+        this.dispatchLaneCapacity = dispatchLaneCapacity;
+    }
+
+    public long getDispatchLaneMaxWaitMillis() {
+        return dispatchLaneMaxWaitMillis;
+    }
+
+    /**
+     * How long reading from the websocket waits for room in a full dispatch lane before dropping the message.
+     * Dropped messages are requested again as gaps. The limit keeps a MessageHandler that waits for the client,
+     * eg. calls subscribe() from the handler, from deadlocking against its own full lane. 0 waits forever.
+     */
+    public void setDispatchLaneMaxWaitMillis(long dispatchLaneMaxWaitMillis) {
+        this.dispatchLaneMaxWaitMillis = dispatchLaneMaxWaitMillis;
+    }
+
     private String addMissingQueryString(String url) {
         String[] parts = url.split("\\?");
         if (parts.length == 1) { // no query string
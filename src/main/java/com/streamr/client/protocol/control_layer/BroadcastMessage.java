@@ -2,6 +2,8 @@ package com.streamr.client.protocol.control_layer;
 
 import com.streamr.client.protocol.message_layer.StreamMessage;
 
+import java.util.Objects;
+
 public class BroadcastMessage extends ControlMessage {
     public static final int TYPE = 0;
 
@@ -16,6 +18,18 @@ public class BroadcastMessage extends ControlMessage {
         return streamMessage;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        BroadcastMessage that = (BroadcastMessage) o;
+        return Objects.equals(streamMessage, that.streamMessage);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamMessage);
+    }
+
     @Override
     public String toString() {
         return String.format("BroadcastMessage{requestId=%s, streamMessage=%s",
@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 
 public abstract class ControlMessage {
     private static final ControlMessageAdapter adapter = new ControlMessageAdapter();
@@ -43,16 +44,28 @@ public abstract class ControlMessage {
     }
 
     public static ControlMessage fromJson(String json) throws IOException {
+        ControlMessage decoded = ControlMessageDecoder.decode(json);
+        if (decoded != null) {
+            return decoded;
+        }
         JsonReader reader = JsonReader.of(new Buffer().writeString(json, StandardCharsets.UTF_8));
         return adapter.fromJson(reader);
     }
 
+    /**
+     * Compares the fields, the subclasses add their own.
+     */
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ControlMessage that = (ControlMessage) o;
-        return this.toJson().equals(that.toJson());
+        return type == that.type && Objects.equals(requestId, that.requestId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, requestId);
     }
 
     @Override
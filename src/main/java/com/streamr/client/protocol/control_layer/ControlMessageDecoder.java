@@ -0,0 +1,52 @@
+package com.streamr.client.protocol.control_layer;
+
+import com.streamr.client.protocol.message_layer.JsonCursor;
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import com.streamr.client.protocol.message_layer.StreamMessageV32Adapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the BroadcastMessages and UnicastMessages of the latest control layer version with V32 StreamMessages,
+ * which is nearly all incoming traffic, in a single pass over the frame with a JsonCursor. The adapter chain of
+ * ControlMessage.fromJson copies the frame into a Buffer and reads every string from it again.
+ */
+public final class ControlMessageDecoder {
+    private static final Logger log = LoggerFactory.getLogger(ControlMessageDecoder.class);
+
+    private static final int STREAM_MESSAGE_VERSION = 32;
+
+    private ControlMessageDecoder() {}
+
+    /**
+     * @return the decoded message, or null if the frame is of another type or version, or couldn't be decoded.
+     * Then it should be parsed with the ControlMessageAdapter, which also reports the errors.
+     */
+    public static ControlMessage decode(String json) {
+        try {
+            JsonCursor cursor = new JsonCursor(json);
+            cursor.beginArray();
+            if (cursor.nextInt() != ControlMessage.LATEST_VERSION) {
+                return null;
+            }
+            int type = cursor.nextInt();
+            if (type != BroadcastMessage.TYPE && type != UnicastMessage.TYPE) {
+                return null;
+            }
+            String requestId = cursor.nextString();
+            cursor.beginArray();
+            if (cursor.nextInt() != STREAM_MESSAGE_VERSION) {
+                return null;
+            }
+            StreamMessage streamMessage = StreamMessageV32Adapter.decode(cursor);
+            cursor.endArray();
+            cursor.endArray();
+            return type == BroadcastMessage.TYPE
+                    ? new BroadcastMessage(requestId, streamMessage)
+                    : new UnicastMessage(requestId, streamMessage);
+        } catch (RuntimeException e) {
+            log.debug("Falling back to ControlMessageAdapter", e);
+            return null;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.streamr.client.protocol.control_layer;
 
+import java.util.Objects;
+
 public class ErrorResponse extends ControlMessage {
     public static final int TYPE = 7;
     private final String errorMessage;
@@ -19,6 +21,19 @@ public class ErrorResponse extends ControlMessage {
         return errorCode;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        ErrorResponse that = (ErrorResponse) o;
+        return Objects.equals(errorMessage, that.errorMessage) &&
+                Objects.equals(errorCode, that.errorCode);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(errorMessage, errorCode);
+    }
+
     @Override
     public String toString() {
         return String.format("ErrorResponse{requestId=%s, errorCode=%s, errorMessage=%s",
@@ -2,6 +2,8 @@ package com.streamr.client.protocol.control_layer;
 
 import com.streamr.client.protocol.message_layer.StreamMessage;
 
+import java.util.Objects;
+
 public class PublishRequest extends ControlMessage {
 
     public static final int TYPE = 8;
@@ -23,6 +25,27 @@ public class PublishRequest extends ControlMessage {
         return sessionToken;
     }
 
+    /**
+     * Serialized with PublishRequestEncoder, which writes the same JSON as the adapters with fewer allocations.
+     */
+    @Override
+    public String toJson() {
+        return PublishRequestEncoder.encode(this);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        PublishRequest that = (PublishRequest) o;
+        return Objects.equals(streamMessage, that.streamMessage) &&
+                Objects.equals(sessionToken, that.sessionToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamMessage, sessionToken);
+    }
+
     @Override
     public String toString() {
         return String.format("PublishRequest{requestId=%s, streamMessage=%s, sessionToken=%s",
@@ -0,0 +1,122 @@
+package com.streamr.client.protocol.control_layer;
+
+import com.streamr.client.protocol.message_layer.MessageID;
+import com.streamr.client.protocol.message_layer.MessageRef;
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import com.streamr.client.utils.EncryptedGroupKey;
+
+/**
+ * Serializes PublishRequests with V32 StreamMessages, the hot path of publishing. Writes the same JSON as
+ * the PublishRequestAdapter chain (including Moshi's string escaping), but directly into a StringBuilder
+ * that's reused by each thread, instead of going through a Buffer, a JsonWriter and the nested adapters.
+ */
+public final class PublishRequestEncoder {
+    // Builders that grew larger than this for a huge message aren't kept
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+    private static final int STREAM_MESSAGE_VERSION = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> builders = ThreadLocal.withInitial(() -> new StringBuilder(1024));
+
+    private PublishRequestEncoder() {}
+
+    public static String encode(PublishRequest request) {
+        StringBuilder sb = builders.get();
+        sb.setLength(0);
+        try {
+            sb.append('[').append(ControlMessage.LATEST_VERSION)
+                    .append(',').append(PublishRequest.TYPE)
+                    .append(',');
+            appendString(sb, request.getRequestId());
+            sb.append(',');
+            appendStreamMessage(sb, request.getStreamMessage());
+            sb.append(',');
+            appendString(sb, request.getSessionToken());
+            sb.append(']');
+            return sb.toString();
+        } finally {
+            if (sb.capacity() > MAX_RETAINED_CAPACITY) {
+                builders.remove();
+            }
+        }
+    }
+
+    private static void appendStreamMessage(StringBuilder sb, StreamMessage msg) {
+        MessageID id = msg.getMessageID();
+        sb.append('[').append(STREAM_MESSAGE_VERSION).append(",[");
+        appendString(sb, id.getStreamId());
+        sb.append(',').append(id.getStreamPartition())
+                .append(',').append(id.getTimestamp())
+                .append(',').append(id.getSequenceNumber())
+                .append(',');
+        appendString(sb, id.getPublisherId().toString());
+        sb.append(',');
+        appendString(sb, id.getMsgChainId());
+        sb.append("],");
+        MessageRef prev = msg.getPreviousMessageRef();
+        if (prev != null) {
+            sb.append('[').append(prev.getTimestamp()).append(',').append(prev.getSequenceNumber()).append(']');
+        } else {
+            sb.append("null");
+        }
+        sb.append(',').append(msg.getMessageType().getId())
+                .append(',').append(msg.getContentType().getId())
+                .append(',').append(msg.getEncryptionType().getId())
+                .append(',');
+        appendString(sb, msg.getGroupKeyId());
+        sb.append(',');
+        appendString(sb, msg.getSerializedContent());
+        sb.append(',');
+        EncryptedGroupKey newGroupKey = msg.getNewGroupKey();
+        appendString(sb, newGroupKey != null ? newGroupKey.serialize() : null);
+        sb.append(',').append(msg.getSignatureType().getId())
+                .append(',');
+        appendString(sb, msg.getSignature());
+        sb.append(']');
+    }
+
+    /**
+     * Appends a JSON string literal, or null. Escapes like Moshi's JsonWriter: quotes, backslashes, control
+     * characters and the line and paragraph separators.
+     */
+    static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        int last = 0;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            switch (c) {
+                case '"': replacement = "\\\""; break;
+                case '\\': replacement = "\\\\"; break;
+                case '\t': replacement = "\\t"; break;
+                case '\b': replacement = "\\b"; break;
+                case '\n': replacement = "\\n"; break;
+                case '\r': replacement = "\\r"; break;
+                case '\f': replacement = "\\f"; break;
+                default: replacement = null;
+            }
+            // Copy the unescaped run in one go
+            sb.append(value, last, i);
+            if (replacement != null) {
+                sb.append(replacement);
+            } else {
+                sb.append("\\u")
+                        .append(HEX_DIGITS[(c >> 12) & 0xf])
+                        .append(HEX_DIGITS[(c >> 8) & 0xf])
+                        .append(HEX_DIGITS[(c >> 4) & 0xf])
+                        .append(HEX_DIGITS[c & 0xf]);
+            }
+            last = i + 1;
+        }
+        sb.append(value, last, length);
+        sb.append('"');
+    }
+}
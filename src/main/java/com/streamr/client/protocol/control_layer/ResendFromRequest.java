@@ -2,6 +2,8 @@ package com.streamr.client.protocol.control_layer;
 
 import com.streamr.client.protocol.message_layer.MessageRef;
 
+import java.util.Objects;
+
 public class ResendFromRequest extends ControlMessage {
     public static final int TYPE = 12;
 
@@ -45,6 +47,22 @@ public class ResendFromRequest extends ControlMessage {
         return sessionToken;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        ResendFromRequest that = (ResendFromRequest) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition &&
+                Objects.equals(fromMsgRef, that.fromMsgRef) &&
+                Objects.equals(publisherId, that.publisherId) &&
+                Objects.equals(sessionToken, that.sessionToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition, fromMsgRef, publisherId, sessionToken);
+    }
+
     @Override
     public String toString() {
         return String.format("ResendFromRequest{requestId=%s, streamId=%s, streamPartition=%s, fromMsgRef=%s, publisherId=%s, sessionToken=%s",
@@ -1,5 +1,7 @@
 package com.streamr.client.protocol.control_layer;
 
+import java.util.Objects;
+
 public class ResendLastRequest extends ControlMessage {
     public static final int TYPE = 11;
 
@@ -32,6 +34,21 @@ public class ResendLastRequest extends ControlMessage {
         return sessionToken;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        ResendLastRequest that = (ResendLastRequest) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition &&
+                numberLast == that.numberLast &&
+                Objects.equals(sessionToken, that.sessionToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition, numberLast, sessionToken);
+    }
+
     @Override
     public String toString() {
         return String.format("ResendLastRequest{requestId=%s, streamId=%s, streamPartition=%s, numberLast=%s, sessionToken=%s",
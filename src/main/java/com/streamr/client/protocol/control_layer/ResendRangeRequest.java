@@ -3,6 +3,8 @@ package com.streamr.client.protocol.control_layer;
 import com.streamr.client.protocol.message_layer.MessageRef;
 import com.streamr.client.utils.Address;
 
+import java.util.Objects;
+
 public class ResendRangeRequest extends ControlMessage {
     public static final int TYPE = 13;
 
@@ -63,6 +65,24 @@ public class ResendRangeRequest extends ControlMessage {
         return sessionToken;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        ResendRangeRequest that = (ResendRangeRequest) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition &&
+                Objects.equals(fromMsgRef, that.fromMsgRef) &&
+                Objects.equals(toMsgRef, that.toMsgRef) &&
+                Objects.equals(publisherId, that.publisherId) &&
+                Objects.equals(msgChainId, that.msgChainId) &&
+                Objects.equals(sessionToken, that.sessionToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition, fromMsgRef, toMsgRef, publisherId, msgChainId, sessionToken);
+    }
+
     @Override
     public String toString() {
         return String.format("ResendRangeRequest{requestId=%s, streamId=%s, streamPartition=%s, fromMsgRef=%s, toMsgRef=%s, publisherId=%s, msgChainId=%s, sessionToken=%s",
@@ -1,5 +1,7 @@
 package com.streamr.client.protocol.control_layer;
 
+import java.util.Objects;
+
 public abstract class ResendResponse extends ControlMessage {
 
     private String streamId;
@@ -19,6 +21,19 @@ public abstract class ResendResponse extends ControlMessage {
         return streamPartition;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        ResendResponse that = (ResendResponse) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition);
+    }
+
     @Override
     public String toString() {
         return String.format("%s{requestId=%s, streamId=%s, streamPartition=%s",
@@ -1,5 +1,7 @@
 package com.streamr.client.protocol.control_layer;
 
+import java.util.Objects;
+
 public class SubscribeRequest extends ControlMessage {
     public static final int TYPE = 9;
 
@@ -26,6 +28,20 @@ public class SubscribeRequest extends ControlMessage {
         return sessionToken;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        SubscribeRequest that = (SubscribeRequest) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition &&
+                Objects.equals(sessionToken, that.sessionToken);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition, sessionToken);
+    }
+
     @Override
     public String toString() {
         return String.format("SubscribeRequest{requestId=%s, streamId=%s, streamPartition=%s, sessionToken=%s",
@@ -1,5 +1,7 @@
 package com.streamr.client.protocol.control_layer;
 
+import java.util.Objects;
+
 public class SubscribeResponse extends ControlMessage {
     public static final int TYPE = 2;
 
@@ -20,6 +22,19 @@ public class SubscribeResponse extends ControlMessage {
         return streamPartition;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        SubscribeResponse that = (SubscribeResponse) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition);
+    }
+
     @Override
     public String toString() {
         return String.format("SubscribeResponse{requestId=%s, streamId=%s, streamPartition=%s",
@@ -2,6 +2,8 @@ package com.streamr.client.protocol.control_layer;
 
 import com.streamr.client.protocol.message_layer.StreamMessage;
 
+import java.util.Objects;
+
 public class UnicastMessage extends ControlMessage {
     public static final int TYPE = 1;
 
@@ -16,6 +18,18 @@ public class UnicastMessage extends ControlMessage {
         return msg;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        UnicastMessage that = (UnicastMessage) o;
+        return Objects.equals(msg, that.msg);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(msg);
+    }
+
     @Override
     public String toString() {
         return String.format("UnicastMessage{requestId=%s, streamMessage=%s",
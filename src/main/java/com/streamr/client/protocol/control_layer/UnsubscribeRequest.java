@@ -1,5 +1,7 @@
 package com.streamr.client.protocol.control_layer;
 
+import java.util.Objects;
+
 public class UnsubscribeRequest extends ControlMessage {
     public static final int TYPE = 10;
 
@@ -20,6 +22,19 @@ public class UnsubscribeRequest extends ControlMessage {
         return streamPartition;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        UnsubscribeRequest that = (UnsubscribeRequest) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition);
+    }
+
     @Override
     public String toString() {
         return String.format("UnsubscribeRequest{requestId=%s, streamId=%s, streamPartition=%s",
@@ -1,5 +1,7 @@
 package com.streamr.client.protocol.control_layer;
 
+import java.util.Objects;
+
 public class UnsubscribeResponse extends ControlMessage {
     public static final int TYPE = 3;
     private String streamId;
@@ -19,6 +21,19 @@ public class UnsubscribeResponse extends ControlMessage {
         return streamPartition;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (!super.equals(o)) return false;
+        UnsubscribeResponse that = (UnsubscribeResponse) o;
+        return Objects.equals(streamId, that.streamId) &&
+                streamPartition == that.streamPartition;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * super.hashCode() + Objects.hash(streamId, streamPartition);
+    }
+
     @Override
     public String toString() {
         return String.format("UnsubscribeResponse{requestId=%s, streamId=%s, streamPartition=%s",
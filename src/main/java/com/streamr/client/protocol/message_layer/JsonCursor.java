@@ -0,0 +1,242 @@
+package com.streamr.client.protocol.message_layer;
+
+import com.streamr.client.exceptions.MalformedMessageException;
+
+/**
+ * Reads the nested JSON arrays of the protocol directly from the String of a websocket frame, in a single pass.
+ * Unlike Moshi's JsonReader, it doesn't copy the frame into a Buffer first, and strings without escape sequences
+ * are returned as substrings of the frame. Only the arrays, strings, integers and nulls of the protocol's
+ * array format are supported.
+ */
+public final class JsonCursor {
+    private final String json;
+    private int pos = 0;
+    // True after a value, when the next value in the same array must be preceded by a comma
+    private boolean needComma = false;
+
+    public JsonCursor(String json) {
+        this(json, 0);
+    }
+
+    /**
+     * @param position where to start reading, eg. a position returned by skipStringOrNull()
+     */
+    public JsonCursor(String json, int position) {
+        this.json = json;
+        this.pos = position;
+    }
+
+    public int getPosition() {
+        return pos;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    public void beginArray() {
+        beforeValue();
+        expect('[');
+        needComma = false;
+    }
+
+    public void endArray() {
+        skipWhitespace();
+        expect(']');
+        needComma = true;
+    }
+
+    /**
+     * @return true if the next value is null, in which case it's consumed
+     */
+    public boolean nextIsNull() {
+        beforeValue();
+        if (json.startsWith("null", pos)) {
+            pos += 4;
+            needComma = true;
+            return true;
+        }
+        return false;
+    }
+
+    public int nextInt() {
+        long value = nextLong();
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw error("Integer out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    public long nextLong() {
+        beforeValue();
+        int start = pos;
+        if (pos < json.length() && json.charAt(pos) == '-') {
+            pos++;
+        }
+        long value = 0;
+        int digits = 0;
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            // Up to 18 digits can't overflow, longer numbers are left to Long.parseLong
+            value = value * 10 + (c - '0');
+            digits++;
+            pos++;
+        }
+        if (digits == 0) {
+            throw error("Expected a number");
+        }
+        if (pos < json.length() && isFractionOrExponent(json.charAt(pos))) {
+            // Integral values written as doubles, eg. 1.0 or 1e3
+            while (pos < json.length() && (isFractionOrExponent(json.charAt(pos)) || Character.isDigit(json.charAt(pos))
+                    || json.charAt(pos) == '+' || json.charAt(pos) == '-')) {
+                pos++;
+            }
+            double d = Double.parseDouble(json.substring(start, pos));
+            if (d != Math.rint(d) || d < Long.MIN_VALUE || d > Long.MAX_VALUE) {
+                throw error("Expected an integer but was " + json.substring(start, pos));
+            }
+            needComma = true;
+            return (long) d;
+        }
+        needComma = true;
+        if (digits > 18) {
+            try {
+                return Long.parseLong(json.substring(start, pos));
+            } catch (NumberFormatException e) {
+                throw error("Integer out of range: " + json.substring(start, pos));
+            }
+        }
+        return json.charAt(start) == '-' ? -value : value;
+    }
+
+    public String nextString() {
+        beforeValue();
+        expect('"');
+        int start = pos;
+        // Fast path: no escape sequences, the value is a substring of the frame
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c == '"') {
+                pos++;
+                needComma = true;
+                return json.substring(start, pos - 1);
+            } else if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        StringBuilder sb = new StringBuilder(pos - start + 16);
+        sb.append(json, start, pos);
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                needComma = true;
+                return sb.toString();
+            } else if (c == '\\') {
+                sb.append(readEscaped());
+            } else {
+                sb.append(c);
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    public String nextStringOrNull() {
+        return nextIsNull() ? null : nextString();
+    }
+
+    /**
+     * Skips a string without decoding it, so that it can be read later with a new JsonCursor at the returned
+     * position.
+     *
+     * @return the position of the string, or -1 if the value is null
+     */
+    public int skipStringOrNull() {
+        if (nextIsNull()) {
+            return -1;
+        }
+        beforeValue();
+        int start = pos;
+        expect('"');
+        while (pos < json.length()) {
+            char c = json.charAt(pos++);
+            if (c == '"') {
+                needComma = true;
+                return start;
+            } else if (c == '\\') {
+                // The escaped character can't end the string
+                pos++;
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private char readEscaped() {
+        if (pos >= json.length()) {
+            throw error("Unterminated escape sequence");
+        }
+        char c = json.charAt(pos++);
+        switch (c) {
+            case '"': return '"';
+            case '\\': return '\\';
+            case '/': return '/';
+            case 'b': return '\b';
+            case 'f': return '\f';
+            case 'n': return '\n';
+            case 'r': return '\r';
+            case 't': return '\t';
+            case 'u':
+                if (pos + 4 > json.length()) {
+                    throw error("Unterminated escape sequence");
+                }
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(json.charAt(pos++), 16);
+                    if (digit < 0) {
+                        throw error("Invalid unicode escape");
+                    }
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            default:
+                throw error("Invalid escape sequence: \\" + c);
+        }
+    }
+
+    private void beforeValue() {
+        skipWhitespace();
+        if (needComma) {
+            expect(',');
+            skipWhitespace();
+            needComma = false;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < json.length()) {
+            char c = json.charAt(pos);
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private void expect(char expected) {
+        if (pos >= json.length() || json.charAt(pos) != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        pos++;
+    }
+
+    private static boolean isFractionOrExponent(char c) {
+        return c == '.' || c == 'e' || c == 'E';
+    }
+
+    private MalformedMessageException error(String message) {
+        return new MalformedMessageException(message + " at position " + pos);
+    }
+}
@@ -58,6 +58,31 @@ public class MessageID {
         return msgChainId;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessageID that = (MessageID) o;
+        return timestamp == that.timestamp &&
+                sequenceNumber == that.sequenceNumber &&
+                streamPartition == that.streamPartition &&
+                streamId.equals(that.streamId) &&
+                publisherId.equals(that.publisherId) &&
+                msgChainId.equals(that.msgChainId);
+    }
+
+    @Override
+    public int hashCode() {
+        // Unlike Objects.hash(), doesn't allocate a varargs array or box the numbers
+        int result = streamId.hashCode();
+        result = 31 * result + streamPartition;
+        result = 31 * result + Long.hashCode(timestamp);
+        result = 31 * result + Long.hashCode(sequenceNumber);
+        result = 31 * result + publisherId.hashCode();
+        result = 31 * result + msgChainId.hashCode();
+        return result;
+    }
+
     @Override
     public String toString() {
         return "MessageID{" +
@@ -4,10 +4,17 @@ import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.JsonReader;
 import com.squareup.moshi.JsonWriter;
 import com.streamr.client.utils.Address;
+import com.streamr.client.utils.InternCache;
 
 import java.io.IOException;
 
 public class MessageIDAdapter extends JsonAdapter<MessageID> {
+    // The streamIds, publisherIds and msgChainIds of the decoded messages repeat, so the decoded
+    // MessageIDs share canonical instances of them. Shared by all the decoders, see MessageIDAdapter.create().
+    private static final InternCache<String> streamIds = InternCache.ofStrings(1024);
+    private static final InternCache<Address> publisherIds = new InternCache<>(4096, Address::new);
+    private static final InternCache<String> msgChainIds = InternCache.ofStrings(4096);
+
     @Override
     public MessageID fromJson(JsonReader reader) throws IOException {
         reader.beginArray();
@@ -18,7 +25,17 @@ public class MessageIDAdapter extends JsonAdapter<MessageID> {
         String publisherId = reader.nextString();
         String msgChainId = reader.nextString();
         reader.endArray();
-        return new MessageID(streamId, streamPartition, timestamp, sequenceNumber, new Address(publisherId), msgChainId);
+        return create(streamId, streamPartition, timestamp, sequenceNumber, publisherId, msgChainId);
+    }
+
+    /**
+     * Creates a decoded MessageID with the canonical instances of streamId, publisherId and msgChainId.
+     * An Address that's already cached isn't validated again.
+     */
+    static MessageID create(String streamId, int streamPartition, long timestamp, long sequenceNumber,
+                            String publisherId, String msgChainId) {
+        return new MessageID(streamIds.get(streamId), streamPartition, timestamp, sequenceNumber,
+                publisherIds.get(publisherId), msgChainIds.get(msgChainId));
     }
 
     @Override
@@ -34,6 +34,19 @@ public class MessageRef implements Comparable<MessageRef>{
         return (int)(sequenceNumber - o.sequenceNumber);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MessageRef that = (MessageRef) o;
+        return timestamp == that.timestamp && sequenceNumber == that.sequenceNumber;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Long.hashCode(timestamp) + Long.hashCode(sequenceNumber);
+    }
+
     @Override
     public String toString() {
         return timestamp+"-"+sequenceNumber;
@@ -1,6 +1,7 @@
 package com.streamr.client.protocol.message_layer;
 
 import com.streamr.client.exceptions.EncryptedContentNotParsableException;
+import com.streamr.client.exceptions.MalformedMessageException;
 import com.streamr.client.exceptions.UnsupportedMessageException;
 import com.streamr.client.utils.Address;
 import com.streamr.client.utils.EncryptedGroupKey;
@@ -10,6 +11,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Map;
+import java.util.Objects;
 
 public class StreamMessage implements ITimestamped {
 
@@ -134,6 +136,18 @@ public class StreamMessage implements ITimestamped {
     private SignatureType signatureType;
     private String signature;
 
+    // Lazily decoded messages keep the frame they were decoded from, and the positions of the fields that
+    // haven't been decoded yet (-1 once decoded). The positions are volatile so that a thread that sees a
+    // field decoded also sees its value.
+    private String frame;
+    private volatile int serializedContentPosition = -1;
+    private volatile int newGroupKeyPosition = -1;
+    private volatile int signaturePosition = -1;
+
+    // The serialized form, cached until a setter changes the message
+    private volatile String serialized;
+    private volatile byte[] serializedBytes;
+
     /**
      * Full constructor, creates a StreamMessage with all fields directly set to the provided values.
      */
@@ -161,6 +175,30 @@ public class StreamMessage implements ITimestamped {
         this.signature = signature;
     }
 
+    /**
+     * Lazy constructor, used when decoding. The header fields are set directly. The content, newGroupKey and
+     * signature are decoded from the frame on first access, from the given positions (-1 for null).
+     */
+    StreamMessage(
+            MessageID messageID,
+            MessageRef previousMessageRef,
+            MessageType messageType,
+            ContentType contentType,
+            EncryptionType encryptionType,
+            String groupKeyId,
+            SignatureType signatureType,
+            String frame,
+            int serializedContentPosition,
+            int newGroupKeyPosition,
+            int signaturePosition
+    ) {
+        this(messageID, previousMessageRef, messageType, (String) null, contentType, encryptionType, groupKeyId, null, signatureType, null);
+        this.frame = frame;
+        this.serializedContentPosition = serializedContentPosition;
+        this.newGroupKeyPosition = newGroupKeyPosition;
+        this.signaturePosition = signaturePosition;
+    }
+
     /**
      * Convenience constructor. Serializes the provided Map to JSON and sets ContentType to JSON.
      */
@@ -234,8 +272,9 @@ public class StreamMessage implements ITimestamped {
         return previousMessageRef;
     }
 
-    public void setPreviousMessageRef(MessageRef previousMessageRef) {
+    public synchronized void setPreviousMessageRef(MessageRef previousMessageRef) {
         this.previousMessageRef = previousMessageRef;
+        invalidateSerialized();
     }
 
     public SignatureType getSignatureType() {
@@ -243,13 +282,19 @@ public class StreamMessage implements ITimestamped {
     }
 
     public String getSignature() {
+        if (signaturePosition >= 0) {
+            decodeSignature();
+        }
         return signature;
     }
 
-    public void setSignatureFields(String signature, SignatureType signatureType) {
+    public synchronized void setSignatureFields(String signature, SignatureType signatureType) {
         // These go hand in hand
         this.signature = signature;
         this.signatureType = signatureType;
+        signaturePosition = -1;
+        releaseFrameIfDecoded();
+        invalidateSerialized();
     }
 
     @Override
@@ -273,16 +318,16 @@ public class StreamMessage implements ITimestamped {
         return encryptionType;
     }
 
-    public Map<String, Object> getParsedContent() {
+    public synchronized Map<String, Object> getParsedContent() {
         if (parsedContent == null) {
             if (encryptionType != EncryptionType.NONE) {
                 throw new EncryptedContentNotParsableException(encryptionType);
             }
             if (contentType == ContentType.JSON) {
                 try {
-                    this.parsedContent = HttpUtils.mapAdapter.fromJson(serializedContent);
+                    this.parsedContent = HttpUtils.mapAdapter.fromJson(getSerializedContent());
                 } catch (IOException e) {
-                    throw new RuntimeException("Failed to parse message content: " + serializedContent);
+                    throw new RuntimeException("Failed to parse message content: " + getSerializedContent());
                 }
             } else {
                 throw new RuntimeException("Unknown contentType encountered: " + contentType);
@@ -292,59 +337,196 @@ public class StreamMessage implements ITimestamped {
     }
 
     public String getSerializedContent() {
+        if (serializedContentPosition >= 0) {
+            decodeSerializedContent();
+        }
         return serializedContent;
     }
 
     public byte[] getSerializedContentAsBytes() {
-        return serializedContent.getBytes(StandardCharsets.UTF_8);
+        return getSerializedContent().getBytes(StandardCharsets.UTF_8);
     }
 
-    public void setEncryptionType(EncryptionType encryptionType) {
+    public synchronized void setEncryptionType(EncryptionType encryptionType) {
         this.encryptionType = encryptionType;
+        invalidateSerialized();
     }
 
     public String getGroupKeyId() {
         return groupKeyId;
     }
 
-    public void setGroupKeyId(String groupKeyId) {
+    public synchronized void setGroupKeyId(String groupKeyId) {
         this.groupKeyId = groupKeyId;
+        invalidateSerialized();
     }
 
     public EncryptedGroupKey getNewGroupKey() {
+        if (newGroupKeyPosition >= 0) {
+            decodeNewGroupKey();
+        }
         return newGroupKey;
     }
 
-    public void setNewGroupKey(EncryptedGroupKey newGroupKey) {
+    public synchronized void setNewGroupKey(EncryptedGroupKey newGroupKey) {
         if (newGroupKey.getGroupKeyId().equals(groupKeyId)) {
             throw new IllegalArgumentException("newGroupKey isn't new - it matches the groupKeyId of the message: " + newGroupKey.getGroupKeyId());
         }
         this.newGroupKey = newGroupKey;
+        newGroupKeyPosition = -1;
+        releaseFrameIfDecoded();
+        invalidateSerialized();
     }
 
-    public void setSerializedContent(String serializedContent) {
+    public synchronized void setSerializedContent(String serializedContent) {
         this.serializedContent = serializedContent;
+        this.parsedContent = null;
+        serializedContentPosition = -1;
+        releaseFrameIfDecoded();
+        invalidateSerialized();
     }
 
     public void setSerializedContent(byte[] serializedContent) {
         setSerializedContent(new String(serializedContent, StandardCharsets.UTF_8));
     }
 
-    public void setParsedContent(Map<String, Object> parsedContent) {
+    public synchronized void setParsedContent(Map<String, Object> parsedContent) {
         this.parsedContent = parsedContent;
         this.serializedContent = HttpUtils.mapAdapter.toJson(parsedContent);
+        serializedContentPosition = -1;
+        releaseFrameIfDecoded();
+        invalidateSerialized();
     }
 
+    /**
+     * @return true if some fields haven't been decoded from the frame yet
+     */
+    public boolean isLazy() {
+        return serializedContentPosition >= 0 || newGroupKeyPosition >= 0 || signaturePosition >= 0;
+    }
+
+    /**
+     * Rough estimate of the heap used by the content and signature strings, without decoding them.
+     * While the message is lazy, its frame is counted instead of the fields that haven't been decoded.
+     */
+    public synchronized long estimateContentSizeInBytes() {
+        long result = 0;
+        if (frame != null) {
+            result += 2L * frame.length();
+        }
+        if (serializedContentPosition < 0 && serializedContent != null) {
+            result += 2L * serializedContent.length();
+        }
+        if (signaturePosition < 0 && signature != null) {
+            result += 2L * signature.length();
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the fields that haven't been decoded from the frame yet.
+     *
+     * @throws MalformedMessageException if one of them is malformed
+     */
+    public void decode() {
+        if (serializedContentPosition >= 0) {
+            decodeSerializedContent();
+        }
+        if (newGroupKeyPosition >= 0) {
+            decodeNewGroupKey();
+        }
+        if (signaturePosition >= 0) {
+            decodeSignature();
+        }
+    }
+
+    private synchronized void decodeSerializedContent() {
+        if (serializedContentPosition >= 0) {
+            serializedContent = new JsonCursor(frame, serializedContentPosition).nextString();
+            serializedContentPosition = -1;
+            releaseFrameIfDecoded();
+        }
+    }
+
+    private synchronized void decodeNewGroupKey() {
+        if (newGroupKeyPosition >= 0) {
+            String serializedNewGroupKey = new JsonCursor(frame, newGroupKeyPosition).nextString();
+            try {
+                newGroupKey = EncryptedGroupKey.deserialize(serializedNewGroupKey);
+            } catch (IOException e) {
+                throw new MalformedMessageException("Malformed newGroupKey: " + serializedNewGroupKey, e);
+            }
+            newGroupKeyPosition = -1;
+            releaseFrameIfDecoded();
+        }
+    }
+
+    private synchronized void decodeSignature() {
+        if (signaturePosition >= 0) {
+            signature = new JsonCursor(frame, signaturePosition).nextString();
+            signaturePosition = -1;
+            releaseFrameIfDecoded();
+        }
+    }
+
+    /**
+     * @return the value of a lazily decoded field for toString(), which shouldn't decode the field
+     */
+    private static String undecodedOr(int position, Object value) {
+        return position >= 0 ? "<not decoded>" : "'" + value + "'";
+    }
+
+    private void releaseFrameIfDecoded() {
+        if (!isLazy()) {
+            frame = null;
+        }
+    }
+
+    /**
+     * Must hold the lock, like the setters that call it, so that serialize() and toBytes() can't cache
+     * a result computed from the fields before the change.
+     */
+    private void invalidateSerialized() {
+        serialized = null;
+        serializedBytes = null;
+    }
+
+    /**
+     * @return the message serialized to the latest version, cached until the message is changed
+     */
     public String serialize() {
-        return StreamMessageAdapter.serialize(this);
+        String result = serialized;
+        if (result == null) {
+            synchronized (this) {
+                result = serialized;
+                if (result == null) {
+                    result = StreamMessageAdapter.serialize(this);
+                    serialized = result;
+                }
+            }
+        }
+        return result;
     }
 
     public static StreamMessage deserialize(String json) {
         return StreamMessageAdapter.deserialize(json);
     }
 
+    /**
+     * @return the UTF-8 bytes of serialize(), cached like it. The array is shared and must not be modified.
+     */
     public byte[] toBytes() {
-        return serialize().getBytes(StandardCharsets.UTF_8);
+        byte[] result = serializedBytes;
+        if (result == null) {
+            synchronized (this) {
+                result = serializedBytes;
+                if (result == null) {
+                    result = serialize().getBytes(StandardCharsets.UTF_8);
+                    serializedBytes = result;
+                }
+            }
+        }
+        return result;
     }
 
     public int sizeInBytes(){
@@ -360,13 +542,13 @@ public class StreamMessage implements ITimestamped {
         return messageType+"{" +
                 "messageID=" + messageID +
                 ", previousMessageRef=" + previousMessageRef +
-                ", content='" + serializedContent + '\'' +
+                ", content=" + undecodedOr(serializedContentPosition, serializedContent) +
                 ", contentType=" + contentType +
                 ", encryptionType=" + encryptionType +
                 ", groupKeyId='" + groupKeyId + '\'' +
-                ", newGroupKey='" + newGroupKey + '\'' +
+                ", newGroupKey=" + undecodedOr(newGroupKeyPosition, newGroupKey) +
                 ", signatureType=" + signatureType +
-                ", signature='" + signature + '\'' +
+                ", signature=" + undecodedOr(signaturePosition, signature) +
                 '}';
     }
 
@@ -376,7 +558,32 @@ public class StreamMessage implements ITimestamped {
         if (o == null || getClass() != o.getClass()) return false;
 
         StreamMessage that = (StreamMessage) o;
-        return this.serialize().equals(that.serialize());
+        // Cheapest and most selective fields first
+        return messageID.equals(that.messageID) &&
+                messageType == that.messageType &&
+                contentType == that.contentType &&
+                encryptionType == that.encryptionType &&
+                signatureType == that.signatureType &&
+                Objects.equals(previousMessageRef, that.previousMessageRef) &&
+                Objects.equals(groupKeyId, that.groupKeyId) &&
+                Objects.equals(getSignature(), that.getSignature()) &&
+                Objects.equals(getSerializedContent(), that.getSerializedContent()) &&
+                // Compared in the serialized form, like they're sent
+                Objects.equals(serializedNewGroupKey(), that.serializedNewGroupKey());
+    }
+
+    /**
+     * Only the MessageID is hashed: it can't change, so the hash code stays the same when the setters are
+     * used, and it identifies the message in practice.
+     */
+    @Override
+    public int hashCode() {
+        return messageID.hashCode();
+    }
+
+    private String serializedNewGroupKey() {
+        EncryptedGroupKey key = getNewGroupKey();
+        return key != null ? key.serialize() : null;
     }
 
 }
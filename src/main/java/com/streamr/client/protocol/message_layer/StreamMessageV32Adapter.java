@@ -64,6 +64,49 @@ public class StreamMessageV32Adapter extends JsonAdapter<StreamMessage> {
         }
     }
 
+    /**
+     * Reads a V32 StreamMessage with a JsonCursor over the original frame. The version has already been read.
+     * Only the header is decoded: the content, newGroupKey and signature are skipped, and decoded from the
+     * frame if and when the message needs them. A message dropped as a duplicate or filtered out never
+     * decodes them.
+     */
+    public static StreamMessage decode(JsonCursor cursor) {
+        cursor.beginArray();
+        MessageID messageID = MessageIDAdapter.create(cursor.nextString(), cursor.nextInt(), cursor.nextLong(),
+                cursor.nextLong(), cursor.nextString(), cursor.nextString());
+        cursor.endArray();
+        MessageRef previousMessageRef = null;
+        if (!cursor.nextIsNull()) {
+            cursor.beginArray();
+            previousMessageRef = new MessageRef(cursor.nextLong(), cursor.nextLong());
+            cursor.endArray();
+        }
+        StreamMessage.MessageType messageType = StreamMessage.MessageType.fromId((byte) cursor.nextInt());
+        StreamMessage.ContentType contentType = StreamMessage.ContentType.fromId((byte) cursor.nextInt());
+        EncryptionType encryptionType = EncryptionType.fromId((byte) cursor.nextInt());
+        String groupKeyId = cursor.nextStringOrNull();
+        int serializedContentPosition = cursor.skipStringOrNull();
+        if (serializedContentPosition < 0) {
+            throw new MalformedMessageException("Content must not be null");
+        }
+        int newGroupKeyPosition = cursor.skipStringOrNull();
+        SignatureType signatureType = SignatureType.fromId((byte) cursor.nextInt());
+        int signaturePosition = cursor.skipStringOrNull();
+        return new StreamMessage(
+                messageID,
+                previousMessageRef,
+                messageType,
+                contentType,
+                encryptionType,
+                groupKeyId,
+                signatureType,
+                cursor.getJson(),
+                serializedContentPosition,
+                newGroupKeyPosition,
+                signaturePosition
+        );
+    }
+
     @Override
     public void toJson(JsonWriter writer, StreamMessage value) throws IOException {
         writer.beginArray();
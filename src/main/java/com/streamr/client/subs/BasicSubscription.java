@@ -2,8 +2,11 @@ package com.streamr.client.subs;
 
 import com.streamr.client.MessageHandler;
 import com.streamr.client.exceptions.GapDetectedException;
+import com.streamr.client.exceptions.GapFillFailedException;
+import com.streamr.client.exceptions.MalformedMessageException;
 import com.streamr.client.exceptions.UnableToDecryptException;
 import com.streamr.client.exceptions.UnsupportedMessageException;
+import com.streamr.client.options.OrderingOptions;
 import com.streamr.client.protocol.message_layer.MessageRef;
 import com.streamr.client.protocol.message_layer.StreamMessage;
 import com.streamr.client.utils.*;
@@ -20,14 +23,16 @@ public abstract class BasicSubscription extends Subscription {
     private final ConcurrentHashMap<String, Timer> pendingGroupKeyRequests = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, Integer> nbGroupKeyRequestsCalls = new ConcurrentHashMap<>();
     private final HashSet<String> alreadyFailedToDecrypt = new HashSet<>();
+    private final OrderingOptions orderingOptions;
 
     protected final DecryptionQueues decryptionQueues;
     private final GroupKeyRequestFunction groupKeyRequestFunction;
 
     public BasicSubscription(String streamId, int partition, MessageHandler handler, GroupKeyStore keyStore,
                              KeyExchangeUtil keyExchangeUtil, GroupKeyRequestFunction groupKeyRequestFunction, long propagationTimeout,
-                             long resendTimeout, boolean skipGapsOnFullQueue) {
+                             long resendTimeout, boolean skipGapsOnFullQueue, OrderingOptions orderingOptions) {
         super(streamId, partition, handler, keyStore, keyExchangeUtil, propagationTimeout, resendTimeout, skipGapsOnFullQueue);
+        this.orderingOptions = orderingOptions;
 
         orderingUtil = new OrderingUtil(
                 streamId, partition,
@@ -35,7 +40,8 @@ public abstract class BasicSubscription extends Subscription {
                 (MessageRef from, MessageRef to, Address publisherId, String msgChainId) -> {
                     throw new GapDetectedException(streamId, partition, from, to, publisherId, msgChainId);
                 },
-                this.propagationTimeout, this.resendTimeout, this.skipGapsOnFullQueue
+                (GapFillFailedException e) -> { throw e; },
+                this.propagationTimeout, this.resendTimeout, this.skipGapsOnFullQueue, orderingOptions
         );
 
         decryptionQueues = new DecryptionQueues(streamId, partition);
@@ -44,6 +50,13 @@ public abstract class BasicSubscription extends Subscription {
                 : ((publisherId, groupKeyIds) -> getLogger().warn("Group key missing for stream " + streamId + " and publisher " + publisherId + " but no handler is set."));
     }
 
+    public BasicSubscription(String streamId, int partition, MessageHandler handler, GroupKeyStore keyStore,
+                             KeyExchangeUtil keyExchangeUtil, GroupKeyRequestFunction groupKeyRequestFunction, long propagationTimeout,
+                             long resendTimeout, boolean skipGapsOnFullQueue) {
+        this(streamId, partition, handler, keyStore, keyExchangeUtil, groupKeyRequestFunction, propagationTimeout, resendTimeout,
+                skipGapsOnFullQueue, OrderingOptions.getDefault());
+    }
+
     @Override
     public void handleResentMessage(StreamMessage msg) throws GapDetectedException, UnsupportedMessageException {
         orderingUtil.add(msg);
@@ -56,7 +69,42 @@ public abstract class BasicSubscription extends Subscription {
 
     public void setGapHandler(OrderedMsgChain.GapHandlerFunction gapHandler) {
         orderingUtil = new OrderingUtil(streamId, partition,
-                this::handleInOrder, gapHandler, propagationTimeout, resendTimeout, skipGapsOnFullQueue);
+                this::handleInOrder, gapHandler, this::handleGapFillFailed, propagationTimeout, resendTimeout, skipGapsOnFullQueue,
+                orderingOptions);
+    }
+
+    public OrderingOptions getOrderingOptions() {
+        return orderingOptions;
+    }
+
+    @Override
+    public boolean isFailed() {
+        return orderingUtil.isFailed();
+    }
+
+    @Override
+    public boolean isDuplicate(StreamMessage msg) {
+        return orderingUtil.isDuplicate(msg);
+    }
+
+    @Override
+    public int retryBlockedGaps() {
+        return orderingUtil.retryBlockedGaps();
+    }
+
+    private Void handleGapFillFailed(GapFillFailedException e) {
+        handler.onGapFillFailed(this, e);
+        return null;
+    }
+
+    @Override
+    public Collection<Checkpoint> getCheckpoints() {
+        return orderingUtil.getCheckpoints();
+    }
+
+    @Override
+    public long estimateMemoryUsage() {
+        return orderingUtil.estimateMemoryUsage();
     }
 
     public OrderedMsgChain.GapHandlerFunction getGapHandler() {
@@ -150,10 +198,20 @@ public abstract class BasicSubscription extends Subscription {
     }
 
     private void decryptAndHandle(StreamMessage msg) {
+        try {
+            // A malformed field of a lazily decoded message is reported here, rather than by a getter called
+            // in the MessageHandler
+            msg.decode();
+        } catch (MalformedMessageException e) {
+            getLogger().error("Dropping malformed message {} from {} in stream {}",
+                    msg.getMessageRef(), msg.getPublisherId(), msg.getStreamId(), e);
+            return;
+        }
         try {
             boolean success = tryDecrypt(msg);
             if (success) {
                 handler.onMessage(this, msg);
+                recordCheckpoint(msg);
 
                 // Handle new key if the message contains one
                 if (msg.getNewGroupKey() != null) {
@@ -172,6 +230,20 @@ public abstract class BasicSubscription extends Subscription {
         }
     }
 
+    /**
+     * Records a checkpoint of the message once the MessageHandler has been called with it, if the
+     * OrderingOptions have a CheckpointStore.
+     *
+     * Messages of the chain that were queued waiting for a decryption key haven't been handled yet, so the
+     * checkpoint isn't moved past them. It's recorded again when they are handled.
+     */
+    private void recordCheckpoint(StreamMessage msg) {
+        CheckpointStore store = orderingOptions.getCheckpointStore();
+        if (store != null && decryptionQueues.isEmpty(msg.getPublisherId(), msg.getMsgChainId())) {
+            store.update(new Checkpoint(streamId, partition, msg.getPublisherId(), msg.getMsgChainId(), msg.getMessageRef()));
+        }
+    }
+
     @Override
     public void onNewKeysAdded(Address publisherId, Collection<GroupKey> groupKeys) {
         // Cancel any pending request timers for all the received keys
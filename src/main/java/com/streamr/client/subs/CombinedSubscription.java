@@ -2,6 +2,7 @@ package com.streamr.client.subs;
 
 import com.streamr.client.MessageHandler;
 import com.streamr.client.exceptions.*;
+import com.streamr.client.options.OrderingOptions;
 import com.streamr.client.options.ResendOption;
 import com.streamr.client.protocol.message_layer.StreamMessage;
 import com.streamr.client.utils.*;
@@ -16,7 +17,8 @@ public class CombinedSubscription extends Subscription {
 
     public CombinedSubscription(String streamId, int partition, MessageHandler handler, GroupKeyStore keyStore, KeyExchangeUtil keyExchangeUtil, ResendOption resendOption,
                                 BasicSubscription.GroupKeyRequestFunction groupKeyRequestFunction,
-                                long propagationTimeout, long resendTimeout, boolean skipGapsOnFullQueue) {
+                                long propagationTimeout, long resendTimeout, boolean skipGapsOnFullQueue,
+                                OrderingOptions orderingOptions) {
 
         super(streamId, partition, handler, keyStore, keyExchangeUtil, propagationTimeout, resendTimeout, skipGapsOnFullQueue);
 
@@ -33,7 +35,7 @@ public class CombinedSubscription extends Subscription {
 
                 // once the initial resend is done, switch to real time
                 RealTimeSubscription realTime = new RealTimeSubscription(streamId, partition, handler, keyStore, keyExchangeUtil,
-                        groupKeyRequestFunction, propagationTimeout, resendTimeout, skipGapsOnFullQueue);
+                        groupKeyRequestFunction, propagationTimeout, resendTimeout, skipGapsOnFullQueue, orderingOptions);
 
                 realTime.setGapHandler(currentSub.getGapHandler());
                 // set the last received references to the last references of the resent messages
@@ -52,7 +54,15 @@ public class CombinedSubscription extends Subscription {
         };
         // starts to request the initial resend
         currentSub = new HistoricalSubscription(streamId, partition, wrapperHandler, keyStore, keyExchangeUtil, resendOption,
-                groupKeyRequestFunction, propagationTimeout, resendTimeout, skipGapsOnFullQueue, queuedRealtimeMessages::push);
+                groupKeyRequestFunction, propagationTimeout, resendTimeout, skipGapsOnFullQueue, orderingOptions,
+                queuedRealtimeMessages::push);
+    }
+
+    public CombinedSubscription(String streamId, int partition, MessageHandler handler, GroupKeyStore keyStore, KeyExchangeUtil keyExchangeUtil, ResendOption resendOption,
+                                BasicSubscription.GroupKeyRequestFunction groupKeyRequestFunction,
+                                long propagationTimeout, long resendTimeout, boolean skipGapsOnFullQueue) {
+        this(streamId, partition, handler, keyStore, keyExchangeUtil, resendOption, groupKeyRequestFunction,
+                propagationTimeout, resendTimeout, skipGapsOnFullQueue, OrderingOptions.getDefault());
     }
 
     @Override
@@ -60,6 +70,31 @@ public class CombinedSubscription extends Subscription {
         currentSub.setGapHandler(gapHandler);
     }
 
+    @Override
+    public boolean isFailed() {
+        return currentSub.isFailed();
+    }
+
+    @Override
+    public boolean isDuplicate(StreamMessage msg) {
+        return currentSub.isDuplicate(msg);
+    }
+
+    @Override
+    public int retryBlockedGaps() {
+        return currentSub.retryBlockedGaps();
+    }
+
+    @Override
+    public Collection<Checkpoint> getCheckpoints() {
+        return currentSub.getCheckpoints();
+    }
+
+    @Override
+    public long estimateMemoryUsage() {
+        return currentSub.estimateMemoryUsage();
+    }
+
     @Override
     public void onNewKeysAdded(Address publisherId, Collection<GroupKey> groupKeys) {
         currentSub.onNewKeysAdded(publisherId, groupKeys);
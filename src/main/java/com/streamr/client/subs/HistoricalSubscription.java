@@ -3,6 +3,7 @@ package com.streamr.client.subs;
 import com.streamr.client.MessageHandler;
 import com.streamr.client.exceptions.GapDetectedException;
 import com.streamr.client.exceptions.UnsupportedMessageException;
+import com.streamr.client.options.OrderingOptions;
 import com.streamr.client.options.ResendOption;
 import com.streamr.client.protocol.message_layer.StreamMessage;
 import com.streamr.client.utils.Address;
@@ -33,13 +34,29 @@ public class HistoricalSubscription extends BasicSubscription {
                                   long propagationTimeout,
                                   long resendTimeout,
                                   boolean skipGapsOnFullQueue,
+                                  OrderingOptions orderingOptions,
                                   Consumer<StreamMessage> onRealTimeMsg) {
         super(streamId, partition, handler, keyStore, keyExchangeUtil, groupKeyRequestFunction, propagationTimeout, resendTimeout,
-                skipGapsOnFullQueue);
+                skipGapsOnFullQueue, orderingOptions);
         this.resendOption = resendOption;
         this.onRealTimeMsg = onRealTimeMsg;
     }
 
+    public HistoricalSubscription(String streamId,
+                                  int partition,
+                                  MessageHandler handler,
+                                  GroupKeyStore keyStore,
+                                  KeyExchangeUtil keyExchangeUtil,
+                                  ResendOption resendOption,
+                                  GroupKeyRequestFunction groupKeyRequestFunction,
+                                  long propagationTimeout,
+                                  long resendTimeout,
+                                  boolean skipGapsOnFullQueue,
+                                  Consumer<StreamMessage> onRealTimeMsg) {
+        this(streamId, partition, handler, keyStore, keyExchangeUtil, resendOption, groupKeyRequestFunction, propagationTimeout,
+                resendTimeout, skipGapsOnFullQueue, OrderingOptions.getDefault(), onRealTimeMsg);
+    }
+
     public HistoricalSubscription(String streamId,
                                   int partition,
                                   MessageHandler handler,
@@ -0,0 +1,155 @@
+package com.streamr.client.subs;
+
+import com.streamr.client.MessageHandler;
+import com.streamr.client.exceptions.GapFillFailedException;
+import com.streamr.client.exceptions.UnableToDecryptException;
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import com.streamr.client.utils.StripedExecutor;
+import com.streamr.client.utils.TimestampMerger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A single handle for the subscriptions to all partitions of a stream. Each partition has its own Subscription
+ * with its own ordering and gap filling, created with getPartitionHandler() as the handler. The messages are
+ * delivered to the user's handler according to the Ordering.
+ */
+public class MultiPartitionSubscription {
+
+    public enum Ordering {
+        /**
+         * The messages of each partition are in order. Partitions are handled in parallel, on up to one lane
+         * (thread) per available processor.
+         */
+        PARTITION,
+        /**
+         * The messages of all partitions are merged in timestamp order and handled one at a time.
+         * See TimestampMerger for how long messages wait for the other partitions.
+         */
+        TIMESTAMP
+    }
+
+    private final String streamId;
+    private final MessageHandler handler;
+    private final Ordering ordering;
+    private final AtomicReferenceArray<Subscription> subscriptions;
+    // Only for Ordering.PARTITION
+    private final StripedExecutor lanes;
+    // Only for Ordering.TIMESTAMP
+    private final TimestampMerger merger;
+
+    private final MessageHandler partitionHandler = new MessageHandler() {
+        @Override
+        public void onMessage(Subscription sub, StreamMessage message) {
+            if (merger != null) {
+                merger.add(message);
+            } else {
+                lanes.execute(sub.getPartition() % lanes.getLaneCount(), () -> handler.onMessage(sub, message));
+            }
+        }
+
+        @Override
+        public void done(Subscription sub) {
+            if (merger != null) {
+                // After the messages of the partition still buffered in the merger
+                merger.runAfterBuffered(sub.getPartition(), () -> handler.done(sub));
+            } else {
+                // After the messages of the partition still queued in its lane
+                lanes.execute(sub.getPartition() % lanes.getLaneCount(), () -> handler.done(sub));
+            }
+        }
+
+        @Override
+        public void onUnableToDecrypt(UnableToDecryptException e) {
+            handler.onUnableToDecrypt(e);
+        }
+
+        @Override
+        public void onGapFillFailed(Subscription sub, GapFillFailedException e) {
+            handler.onGapFillFailed(sub, e);
+        }
+    };
+
+    /**
+     * @param maxMergeDelayMillis with Ordering.TIMESTAMP, how long a message waits for the other partitions
+     * @param laneCapacity with Ordering.PARTITION, maximum number of messages waiting per lane
+     */
+    public MultiPartitionSubscription(String streamId, int partitionCount, MessageHandler handler, Ordering ordering,
+                                      long maxMergeDelayMillis, int laneCapacity) {
+        this.streamId = streamId;
+        this.handler = handler;
+        this.ordering = ordering;
+        this.subscriptions = new AtomicReferenceArray<>(partitionCount);
+        if (ordering == Ordering.TIMESTAMP) {
+            lanes = null;
+            merger = new TimestampMerger(partitionCount, maxMergeDelayMillis,
+                    msg -> handler.onMessage(subscriptions.get(msg.getStreamPartition()), msg));
+        } else {
+            int laneCount = Math.min(partitionCount, Runtime.getRuntime().availableProcessors());
+            lanes = new StripedExecutor(laneCount, laneCapacity, "streamr-partition-" + streamId);
+            merger = null;
+        }
+    }
+
+    /**
+     * @return the handler to give to the subscription of each partition
+     */
+    public MessageHandler getPartitionHandler() {
+        return partitionHandler;
+    }
+
+    public void setSubscription(int partition, Subscription sub) {
+        subscriptions.set(partition, sub);
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public Ordering getOrdering() {
+        return ordering;
+    }
+
+    public int getPartitionCount() {
+        return subscriptions.length();
+    }
+
+    /**
+     * @return the subscription of each partition, by partition
+     */
+    public List<Subscription> getSubscriptions() {
+        List<Subscription> result = new ArrayList<>(subscriptions.length());
+        for (int i = 0; i < subscriptions.length(); i++) {
+            result.add(subscriptions.get(i));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * @return true if the subscriptions to all partitions are subscribed
+     */
+    public boolean isSubscribed() {
+        for (int i = 0; i < subscriptions.length(); i++) {
+            Subscription sub = subscriptions.get(i);
+            if (sub == null || !sub.isSubscribed()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stops delivering messages: the messages waiting in the merger are delivered, the messages queued
+     * in the lanes are dropped.
+     */
+    public void close() {
+        if (merger != null) {
+            merger.close();
+        } else {
+            lanes.shutdown();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.streamr.client.MessageHandler;
 import com.streamr.client.exceptions.GapDetectedException;
 import com.streamr.client.exceptions.UnableToDecryptException;
 import com.streamr.client.exceptions.UnsupportedMessageException;
+import com.streamr.client.options.OrderingOptions;
 import com.streamr.client.options.ResendOption;
 import com.streamr.client.protocol.message_layer.StreamMessage;
 import com.streamr.client.utils.*;
@@ -12,6 +13,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.crypto.SecretKey;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 
 public class RealTimeSubscription extends BasicSubscription {
@@ -28,9 +30,23 @@ public class RealTimeSubscription extends BasicSubscription {
                                 GroupKeyRequestFunction groupKeyRequestFunction,
                                 long propagationTimeout,
                                 long resendTimeout,
-                                boolean skipGapsOnFullQueue) {
+                                boolean skipGapsOnFullQueue,
+                                OrderingOptions orderingOptions) {
         super(streamId, partition, handler, keyStore, keyExchangeUtil, groupKeyRequestFunction, propagationTimeout, resendTimeout,
-                skipGapsOnFullQueue);
+                skipGapsOnFullQueue, orderingOptions);
+    }
+
+    public RealTimeSubscription(String streamId,
+                                int partition,
+                                MessageHandler handler,
+                                GroupKeyStore keyStore,
+                                KeyExchangeUtil keyExchangeUtil,
+                                GroupKeyRequestFunction groupKeyRequestFunction,
+                                long propagationTimeout,
+                                long resendTimeout,
+                                boolean skipGapsOnFullQueue) {
+        this(streamId, partition, handler, keyStore, keyExchangeUtil, groupKeyRequestFunction, propagationTimeout, resendTimeout,
+                skipGapsOnFullQueue, OrderingOptions.getDefault());
     }
 
     public RealTimeSubscription(String streamId, int partition, MessageHandler handler, GroupKeyStore keyStore, KeyExchangeUtil keyExchangeUtil,
@@ -79,6 +95,13 @@ public class RealTimeSubscription extends BasicSubscription {
         orderingUtil.addChains(chains);
     }
 
+    /**
+     * Resumes the chains from the given checkpoints. Must be called after setGapHandler().
+     */
+    public void setLastCheckpoints(Collection<Checkpoint> checkpoints) {
+        orderingUtil.addCheckpoints(checkpoints);
+    }
+
     @Override
     public Logger getLogger() {
         return log;
@@ -8,6 +8,7 @@ import com.streamr.client.protocol.message_layer.StreamMessage;
 import com.streamr.client.utils.*;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.UUID;
 
 public abstract class Subscription {
@@ -86,6 +87,48 @@ public abstract class Subscription {
 
     public abstract void setGapHandler(OrderedMsgChain.GapHandlerFunction gapHandler);
 
+    /**
+     * @return true if the subscription has stopped delivering messages because of an unfillable gap
+     * (see GapFillPolicy.OnFailure.FAIL_SUBSCRIPTION). False unless overridden.
+     */
+    public boolean isFailed() {
+        return false;
+    }
+
+    /**
+     * @return true if the message is older than the last one received from its message chain, and would be
+     * dropped as a duplicate. Only looks at the header of the message. False unless overridden.
+     */
+    public boolean isDuplicate(StreamMessage msg) {
+        return false;
+    }
+
+    /**
+     * Starts requesting the gaps that couldn't be filled again, if the GapFillPolicy left them blocking the
+     * subscription (GapFillPolicy.OnFailure.BLOCK_AND_ALERT). Does nothing unless overridden.
+     *
+     * @return number of message chains that were blocked
+     */
+    public int retryBlockedGaps() {
+        return 0;
+    }
+
+    /**
+     * @return the last received message of each message chain, to resume from after a reconnect.
+     * Empty unless overridden.
+     */
+    public Collection<Checkpoint> getCheckpoints() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Rough estimate of the heap used by this subscription's ordering state, in bytes. Dominated by the
+     * messages queued while waiting for gaps to be filled. 0 unless overridden.
+     */
+    public long estimateMemoryUsage() {
+        return 0;
+    }
+
     /**
      * Method to be called whenever the client has new encryption keys available in the GroupKeyStore.
      * The Subscriptions should check the messages in its encryption queue and attempt to decrypt them.
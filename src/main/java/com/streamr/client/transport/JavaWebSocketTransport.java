@@ -0,0 +1,69 @@
+package com.streamr.client.transport;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Transport on Java-WebSocket's WebSocketClient, the default. Each connection has its own read thread,
+ * on which the TransportListener is called.
+ */
+public class JavaWebSocketTransport implements Transport {
+
+    private final WebSocketClient websocket;
+
+    public JavaWebSocketTransport(String url, TransportListener listener) {
+        try {
+            websocket = new WebSocketClient(new URI(url)) {
+                @Override
+                public void onOpen(ServerHandshake handshakedata) {
+                    listener.onOpen(JavaWebSocketTransport.this);
+                }
+
+                @Override
+                public void onMessage(String message) {
+                    listener.onMessage(JavaWebSocketTransport.this, message);
+                }
+
+                @Override
+                public void onClose(int code, String reason, boolean remote) {
+                    listener.onClose(JavaWebSocketTransport.this, code, reason, remote);
+                }
+
+                @Override
+                public void onError(Exception ex) {
+                    listener.onError(JavaWebSocketTransport.this, ex);
+                }
+            };
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void connect() {
+        websocket.connect();
+    }
+
+    @Override
+    public void send(String message) {
+        websocket.send(message);
+    }
+
+    @Override
+    public void close() {
+        websocket.closeConnection(0, "");
+    }
+
+    @Override
+    public ReadyState getState() {
+        return websocket.getReadyState();
+    }
+
+    public WebSocketClient getWebSocketClient() {
+        return websocket;
+    }
+}
@@ -0,0 +1,129 @@
+package com.streamr.client.transport;
+
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-memory Transport connected to a Server in the same process, for running the client without a network
+ * (tests, load harnesses, benchmarking the client itself). Messages sent by the client are passed to the
+ * Server on the sending thread. Messages from the Server, and the other TransportListener calls, are made on
+ * a thread of the transport's own, like a websocket read thread.
+ */
+public class LoopbackTransport implements Transport {
+    private static final Logger log = LoggerFactory.getLogger(LoopbackTransport.class);
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    /**
+     * The other end of the loopback transports created by a factory.
+     */
+    public interface Server {
+        default void onConnect(LoopbackTransport connection) {}
+
+        void onMessage(LoopbackTransport connection, String message);
+
+        default void onClose(LoopbackTransport connection) {}
+    }
+
+    private final String url;
+    private final TransportListener listener;
+    private final Server server;
+    private final ExecutorService readThread;
+    private volatile ReadyState state = ReadyState.NOT_YET_CONNECTED;
+
+    public LoopbackTransport(String url, TransportListener listener, Server server) {
+        this.url = url;
+        this.listener = listener;
+        this.server = server;
+        this.readThread = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "streamr-loopback-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public static TransportFactory factory(Server server) {
+        return (url, listener) -> new LoopbackTransport(url, listener, server);
+    }
+
+    @Override
+    public synchronized void connect() {
+        if (state != ReadyState.NOT_YET_CONNECTED) {
+            return;
+        }
+        state = ReadyState.OPEN;
+        server.onConnect(this);
+        dispatch(() -> listener.onOpen(this));
+    }
+
+    @Override
+    public void send(String message) {
+        if (state != ReadyState.OPEN) {
+            throw new WebsocketNotConnectedException();
+        }
+        server.onMessage(this, message);
+    }
+
+    /**
+     * Called by the Server to deliver a message to the client.
+     */
+    public void receive(String message) {
+        if (state == ReadyState.OPEN) {
+            dispatch(() -> listener.onMessage(this, message));
+        }
+    }
+
+    @Override
+    public void close() {
+        close(false);
+    }
+
+    /**
+     * Called by the Server to drop the connection, as if it was lost.
+     */
+    public void closeRemotely() {
+        close(true);
+    }
+
+    private synchronized void close(boolean remote) {
+        if (state == ReadyState.CLOSED) {
+            return;
+        }
+        boolean wasConnected = state != ReadyState.NOT_YET_CONNECTED;
+        state = ReadyState.CLOSED;
+        if (wasConnected) {
+            server.onClose(this);
+        }
+        dispatch(() -> listener.onClose(this, remote ? 1006 : 1000, "", remote));
+        readThread.shutdown();
+    }
+
+    @Override
+    public ReadyState getState() {
+        return state;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    private void dispatch(Runnable task) {
+        try {
+            readThread.execute(() -> {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("Error in TransportListener", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Transport to {} already closed, dropping event", url);
+        }
+    }
+}
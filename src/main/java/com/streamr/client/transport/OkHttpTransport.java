@@ -0,0 +1,155 @@
+package com.streamr.client.transport;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okio.ByteString;
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Transport on OkHttp's websocket. The connections share the OkHttpClient's connection pool and dispatcher
+ * threads, and writes are queued by OkHttp instead of blocking the caller.
+ *
+ * OkHttp delivers the messages on its reader thread, while close() notifies the listener on the caller's
+ * thread. The two are serialized, and no message is passed on after the listener has been told of the close.
+ */
+public class OkHttpTransport implements Transport {
+    private static final int NORMAL_CLOSE = 1000;
+    private static final int ABNORMAL_CLOSE = 1006;
+
+    private static volatile OkHttpClient defaultClient;
+
+    private final OkHttpClient client;
+    private final String url;
+    private final TransportListener listener;
+    private volatile ReadyState state = ReadyState.NOT_YET_CONNECTED;
+    private volatile WebSocket websocket;
+    private final AtomicBoolean closeNotified = new AtomicBoolean(false);
+    // Held while passing messages and the close to the listener
+    private final Object listenerLock = new Object();
+
+    public OkHttpTransport(OkHttpClient client, String url, TransportListener listener) {
+        this.client = client;
+        this.url = url;
+        this.listener = listener;
+    }
+
+    public OkHttpTransport(String url, TransportListener listener) {
+        this(getDefaultClient(), url, listener);
+    }
+
+    public static TransportFactory factory(OkHttpClient client) {
+        return (url, listener) -> new OkHttpTransport(client, url, listener);
+    }
+
+    public static TransportFactory factory() {
+        return OkHttpTransport::new;
+    }
+
+    private static OkHttpClient getDefaultClient() {
+        if (defaultClient == null) {
+            synchronized (OkHttpTransport.class) {
+                if (defaultClient == null) {
+                    defaultClient = new OkHttpClient();
+                }
+            }
+        }
+        return defaultClient;
+    }
+
+    @Override
+    public synchronized void connect() {
+        if (state != ReadyState.NOT_YET_CONNECTED || websocket != null) {
+            return;
+        }
+        // OkHttp takes ws:// and wss:// URLs as they are
+        websocket = client.newWebSocket(new Request.Builder().url(url).build(), new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket ws, Response response) {
+                state = ReadyState.OPEN;
+                listener.onOpen(OkHttpTransport.this);
+            }
+
+            @Override
+            public void onMessage(WebSocket ws, String text) {
+                received(text);
+            }
+
+            @Override
+            public void onMessage(WebSocket ws, ByteString bytes) {
+                received(bytes.utf8());
+            }
+
+            @Override
+            public void onClosing(WebSocket ws, int code, String reason) {
+                state = ReadyState.CLOSING;
+                // Echoing the peer's code fails if it is one of the reserved codes that must not be sent
+                ws.close(NORMAL_CLOSE, null);
+            }
+
+            @Override
+            public void onClosed(WebSocket ws, int code, String reason) {
+                closed(code, reason, true);
+            }
+
+            @Override
+            public void onFailure(WebSocket ws, Throwable t, Response response) {
+                if (closeNotified.get()) {
+                    // Expected after close() cancels the connection
+                    return;
+                }
+                if (t instanceof Exception) {
+                    listener.onError(OkHttpTransport.this, (Exception) t);
+                }
+                closed(ABNORMAL_CLOSE, t.getMessage(), true);
+            }
+        });
+    }
+
+    @Override
+    public void send(String message) {
+        WebSocket ws = websocket;
+        if (state != ReadyState.OPEN || ws == null || !ws.send(message)) {
+            throw new WebsocketNotConnectedException();
+        }
+    }
+
+    @Override
+    public void close() {
+        WebSocket ws;
+        synchronized (this) {
+            ws = websocket;
+        }
+        closed(ABNORMAL_CLOSE, "", false);
+        if (ws != null) {
+            ws.cancel();
+        }
+    }
+
+    @Override
+    public ReadyState getState() {
+        return state;
+    }
+
+    private void received(String message) {
+        synchronized (listenerLock) {
+            if (!closeNotified.get()) {
+                listener.onMessage(this, message);
+            }
+        }
+    }
+
+    private void closed(int code, String reason, boolean remote) {
+        state = ReadyState.CLOSED;
+        synchronized (listenerLock) {
+            if (closeNotified.compareAndSet(false, true)) {
+                listener.onClose(this, code, reason, remote);
+            }
+        }
+    }
+}
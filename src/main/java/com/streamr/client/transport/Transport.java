@@ -0,0 +1,35 @@
+package com.streamr.client.transport;
+
+import org.java_websocket.enums.ReadyState;
+import org.java_websocket.exceptions.WebsocketNotConnectedException;
+
+/**
+ * A connection that carries the text frames of the control layer protocol. StreamrClient creates one Transport
+ * per connect attempt with the TransportFactory of its options, and reports events to the TransportListener.
+ * A Transport is not reused after it's closed.
+ */
+public interface Transport {
+
+    /**
+     * Starts connecting without blocking. TransportListener.onOpen is called once connected, onClose if the
+     * connection fails.
+     */
+    void connect();
+
+    /**
+     * @throws WebsocketNotConnectedException if the connection isn't open
+     */
+    void send(String message) throws WebsocketNotConnectedException;
+
+    /**
+     * Closes the connection right away, without waiting for a closing handshake. TransportListener.onClose is
+     * called, possibly on another thread.
+     */
+    void close();
+
+    ReadyState getState();
+
+    default boolean isOpen() {
+        return getState() == ReadyState.OPEN;
+    }
+}
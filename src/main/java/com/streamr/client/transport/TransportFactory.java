@@ -0,0 +1,10 @@
+package com.streamr.client.transport;
+
+@FunctionalInterface
+public interface TransportFactory {
+
+    /**
+     * @return a new, not yet connected Transport to the given URL
+     */
+    Transport create(String url, TransportListener listener);
+}
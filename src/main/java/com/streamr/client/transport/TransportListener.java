@@ -0,0 +1,20 @@
+package com.streamr.client.transport;
+
+/**
+ * Receives the events of a Transport. The calls for one Transport are made one at a time, in order.
+ */
+public interface TransportListener {
+
+    void onOpen(Transport transport);
+
+    void onMessage(Transport transport, String message);
+
+    /**
+     * Called once when the connection closes or a connect attempt fails.
+     *
+     * @param remote true if the connection was closed by the other end or lost, false if closed with close()
+     */
+    void onClose(Transport transport, int code, String reason, boolean remote);
+
+    void onError(Transport transport, Exception e);
+}
@@ -11,6 +11,8 @@ import org.web3j.utils.Numeric;
  */
 public class Address {
     private final String address;
+    // Computing the checksum hashes the address, so it's done once. Racy but idempotent.
+    private String checksumAddress;
 
     public Address(byte[] bytes) {
         this(Numeric.toHexString(bytes));
@@ -33,12 +35,18 @@ public class Address {
 
     @Override
     public int hashCode() {
-        return Objects.hash(address);
+        // String caches its hash code, so unlike Objects.hash() this doesn't allocate or rehash on every lookup
+        return address.hashCode();
     }
 
     @Override
     public String toString() {
-        return Keys.toChecksumAddress(this.address);
+        String result = checksumAddress;
+        if (result == null) {
+            result = Keys.toChecksumAddress(this.address);
+            checksumAddress = result;
+        }
+        return result;
     }
 
     public String toLowerCaseString() {
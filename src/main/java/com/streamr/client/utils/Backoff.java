@@ -0,0 +1,51 @@
+package com.streamr.client.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter. The first retry is immediate. After that, the delay is picked
+ * uniformly at random between 0 and baseDelay * 2^(attempt - 1), capped at maxDelay. The randomness spreads
+ * out the reconnects of many clients that lost their connection at the same time (eg. on a broker restart).
+ */
+public class Backoff {
+    private final long baseDelay;
+    private final long maxDelay;
+
+    /**
+     * @param baseDelay upper bound of the delay of the first delayed retry
+     * @param maxDelay upper bound of the delay of any retry, must be at least baseDelay
+     */
+    public Backoff(long baseDelay, long maxDelay) {
+        if (baseDelay < 0 || maxDelay < baseDelay) {
+            throw new IllegalArgumentException("baseDelay must not be negative and maxDelay must be at least baseDelay");
+        }
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * @param attempt the number of failed attempts so far
+     * @return the delay in milliseconds before the next attempt
+     */
+    public long getDelay(int attempt) {
+        if (attempt <= 0) {
+            return 0;
+        }
+        return ThreadLocalRandom.current().nextLong(getMaxDelay(attempt) + 1);
+    }
+
+    /**
+     * @return the upper bound of getDelay(attempt)
+     */
+    public long getMaxDelay(int attempt) {
+        if (attempt <= 0) {
+            return 0;
+        }
+        // Shifting by 62 or more would overflow even for a baseDelay of 1
+        int shift = Math.min(attempt - 1, 62);
+        if (baseDelay > (maxDelay >> shift)) {
+            return maxDelay;
+        }
+        return Math.min(maxDelay, baseDelay << shift);
+    }
+}
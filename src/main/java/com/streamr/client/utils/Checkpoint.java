@@ -0,0 +1,48 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.MessageRef;
+
+/**
+ * The reference of the last message processed in a message chain of a stream-partition.
+ */
+public class Checkpoint {
+    private final String streamId;
+    private final int streamPartition;
+    private final Address publisherId;
+    private final String msgChainId;
+    private final MessageRef lastReceived;
+
+    public Checkpoint(String streamId, int streamPartition, Address publisherId, String msgChainId, MessageRef lastReceived) {
+        this.streamId = streamId;
+        this.streamPartition = streamPartition;
+        this.publisherId = publisherId;
+        this.msgChainId = msgChainId;
+        this.lastReceived = lastReceived;
+    }
+
+    public String getStreamId() {
+        return streamId;
+    }
+
+    public int getStreamPartition() {
+        return streamPartition;
+    }
+
+    public Address getPublisherId() {
+        return publisherId;
+    }
+
+    public String getMsgChainId() {
+        return msgChainId;
+    }
+
+    public MessageRef getLastReceived() {
+        return lastReceived;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Checkpoint{streamId=%s, streamPartition=%d, publisherId=%s, msgChainId=%s, lastReceived=%s}",
+                streamId, streamPartition, publisherId, msgChainId, lastReceived);
+    }
+}
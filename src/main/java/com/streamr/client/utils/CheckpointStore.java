@@ -0,0 +1,28 @@
+package com.streamr.client.utils;
+
+import java.util.Collection;
+
+/**
+ * Persists the last received message reference of each message chain, so that after a restart
+ * subscriptions can resume from where they left off instead of replaying too much or losing data.
+ *
+ * Implementations must be thread-safe. update() is called for every message processed in order,
+ * so it should be cheap and defer the actual persisting.
+ */
+public interface CheckpointStore {
+
+    /**
+     * Records that the given message is the latest one processed in order in its chain.
+     */
+    void update(Checkpoint checkpoint);
+
+    /**
+     * Returns the checkpoints of all chains of the given stream-partition, or an empty collection if there are none.
+     */
+    Collection<Checkpoint> get(String streamId, int streamPartition);
+
+    /**
+     * Persists all updates made so far.
+     */
+    void flush();
+}
@@ -0,0 +1,67 @@
+package com.streamr.client.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Assigns keys to nodes by consistent hashing. Each node is placed on the ring at virtualNodes points, and a key
+ * belongs to the first node point at or after the hash of the key. Adding or removing a node only moves the keys
+ * of that node, and the virtual nodes spread the keys evenly even with few nodes.
+ *
+ * Immutable once constructed, so lookups are safe from any thread.
+ */
+public class ConsistentHashRing<T> {
+    public static final int DEFAULT_VIRTUAL_NODES = 100;
+
+    private final TreeMap<Long, T> ring = new TreeMap<>();
+
+    /**
+     * @param nodes the nodes, identified on the ring by their toString()
+     */
+    public ConsistentHashRing(Collection<T> nodes, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("At least one node is required");
+        }
+        if (virtualNodes < 1) {
+            throw new IllegalArgumentException("virtualNodes must be at least 1");
+        }
+        for (T node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node.toString() + "#" + i), node);
+            }
+        }
+    }
+
+    public ConsistentHashRing(Collection<T> nodes) {
+        this(nodes, DEFAULT_VIRTUAL_NODES);
+    }
+
+    public T get(String key) {
+        Map.Entry<Long, T> entry = ring.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+    }
+
+    public T get(String streamId, int partition) {
+        return get(streamId + "-" + partition);
+    }
+
+    /**
+     * 64-bit FNV-1a followed by the MurmurHash3 finalizer, which spreads the similar keys (eg. the partitions
+     * of a stream) over the whole ring.
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
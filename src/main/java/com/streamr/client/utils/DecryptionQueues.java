@@ -85,4 +85,16 @@ public class DecryptionQueues {
     public boolean isEmpty() {
         return msgChainsByPublisher.isEmpty();
     }
+
+    /**
+     * @return true if no messages of the chain are queued
+     */
+    public boolean isEmpty(Address publisherId, String msgChainId) {
+        Map<String, ArrayDeque<StreamMessage>> queuesByMsgChain = msgChainsByPublisher.get(publisherId);
+        if (queuesByMsgChain == null) {
+            return true;
+        }
+        ArrayDeque<StreamMessage> queue = queuesByMsgChain.get(msgChainId);
+        return queue == null || queue.isEmpty();
+    }
 }
@@ -68,6 +68,11 @@ public class EncryptedGroupKey {
         return encryptedGroupKeyHex.equals(that.encryptedGroupKeyHex);
     }
 
+    @Override
+    public int hashCode() {
+        return 31 * groupKeyId.hashCode() + encryptedGroupKeyHex.hashCode();
+    }
+
     @Override
     public String toString() {
         return String.format("EncryptedGroupKey{groupKeyId=%s}", groupKeyId);
@@ -0,0 +1,255 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.MessageRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CheckpointStore that keeps the checkpoints in memory and periodically writes them to a file.
+ *
+ * update() only replaces the in-memory checkpoint of the chain, so any number of updates between two flushes
+ * cost a single write. Flushing happens every flushIntervalMillis on a background thread of its own (not the
+ * SharedTimer, since it does blocking IO). The whole snapshot is written to a temporary file which then replaces
+ * the previous one, so a crash in the middle of a flush leaves the previous snapshot intact.
+ *
+ * The checkpoints are kept by stream-partition, so get() only looks at the chains of one stream-partition.
+ * Chains whose last message is older than retentionMillis are dropped on flush: a publisher that has gone away
+ * would otherwise be resumed from its last message forever.
+ *
+ * Checkpoints updated after the last flush are lost on a crash, in which case the subscription resumes from
+ * an older checkpoint and the duplicates are dropped by the OrderedMsgChains.
+ */
+public class FileCheckpointStore implements CheckpointStore, Closeable {
+    private static final Logger log = LoggerFactory.getLogger(FileCheckpointStore.class);
+    private static final int FORMAT_VERSION = 1;
+    public static final long DEFAULT_RETENTION_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+    private final File file;
+    private final long retentionMillis;
+    // By streamId and partition. The maps of a stream are kept once created, the partitions are dropped when empty.
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, PartitionCheckpoints>> checkpoints = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService executor;
+    private volatile boolean dirty = false;
+
+    /**
+     * @param retentionMillis chains whose last message is older than this are dropped
+     */
+    public FileCheckpointStore(File file, long flushIntervalMillis, long retentionMillis) {
+        this.file = file;
+        this.retentionMillis = retentionMillis;
+        load();
+        executor = SharedTimer.create("streamr-checkpoint-flush");
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("Failed to flush checkpoints to {}", file, e);
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public FileCheckpointStore(File file, long flushIntervalMillis) {
+        this(file, flushIntervalMillis, DEFAULT_RETENTION_MILLIS);
+    }
+
+    public FileCheckpointStore(File file) {
+        this(file, 1000);
+    }
+
+    @Override
+    public void update(Checkpoint checkpoint) {
+        // Retried if the partition was dropped as empty in the meantime
+        while (!getOrCreate(checkpoint.getStreamId(), checkpoint.getStreamPartition()).put(checkpoint)) {
+            log.trace("Checkpoints of stream {} partition {} were dropped concurrently, retrying",
+                    checkpoint.getStreamId(), checkpoint.getStreamPartition());
+        }
+        dirty = true;
+    }
+
+    @Override
+    public Collection<Checkpoint> get(String streamId, int streamPartition) {
+        ConcurrentHashMap<Integer, PartitionCheckpoints> partitions = checkpoints.get(streamId);
+        PartitionCheckpoints partition = partitions != null ? partitions.get(streamPartition) : null;
+        return partition != null ? partition.getAll() : new ArrayList<>();
+    }
+
+    /**
+     * Drops the stale chains and writes the snapshot if anything has changed since the last flush.
+     */
+    @Override
+    public synchronized void flush() {
+        prune(System.currentTimeMillis() - retentionMillis);
+        if (!dirty) {
+            return;
+        }
+        // Cleared before taking the snapshot, so that concurrent updates are picked up by the next flush
+        dirty = false;
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(FORMAT_VERSION);
+                for (ConcurrentHashMap<Integer, PartitionCheckpoints> partitions : checkpoints.values()) {
+                    for (PartitionCheckpoints partition : partitions.values()) {
+                        for (Checkpoint checkpoint : partition.getAll()) {
+                            out.writeBoolean(true);
+                            out.writeUTF(checkpoint.getStreamId());
+                            out.writeInt(checkpoint.getStreamPartition());
+                            out.writeUTF(checkpoint.getPublisherId().toString());
+                            out.writeUTF(checkpoint.getMsgChainId());
+                            out.writeLong(checkpoint.getLastReceived().getTimestamp());
+                            out.writeLong(checkpoint.getLastReceived().getSequenceNumber());
+                        }
+                    }
+                }
+                out.writeBoolean(false);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true;
+            throw new RuntimeException("Failed to write checkpoints to " + file, e);
+        }
+    }
+
+    /**
+     * Flushes the checkpoints and stops the background flushing.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+        flush();
+    }
+
+    private PartitionCheckpoints getOrCreate(String streamId, int streamPartition) {
+        ConcurrentHashMap<Integer, PartitionCheckpoints> partitions = checkpoints.get(streamId);
+        if (partitions == null) {
+            partitions = checkpoints.computeIfAbsent(streamId, s -> new ConcurrentHashMap<>());
+        }
+        PartitionCheckpoints partition = partitions.get(streamPartition);
+        if (partition == null) {
+            partition = partitions.computeIfAbsent(streamPartition, p -> new PartitionCheckpoints());
+        }
+        return partition;
+    }
+
+    private void prune(long staleBefore) {
+        for (ConcurrentHashMap<Integer, PartitionCheckpoints> partitions : checkpoints.values()) {
+            for (Map.Entry<Integer, PartitionCheckpoints> entry : partitions.entrySet()) {
+                PartitionCheckpoints partition = entry.getValue();
+                int removed = partition.removeOlderThan(staleBefore);
+                if (removed > 0) {
+                    dirty = true;
+                    log.debug("Dropped {} stale checkpoints", removed);
+                }
+                if (partition.dropIfEmpty()) {
+                    partitions.remove(entry.getKey(), partition);
+                }
+            }
+        }
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - retentionMillis;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported checkpoint file version: " + version);
+            }
+            while (in.readBoolean()) {
+                String streamId = in.readUTF();
+                int streamPartition = in.readInt();
+                Address publisherId = new Address(in.readUTF());
+                String msgChainId = in.readUTF();
+                MessageRef lastReceived = new MessageRef(in.readLong(), in.readLong());
+                if (lastReceived.getTimestamp() >= staleBefore) {
+                    getOrCreate(streamId, streamPartition).put(
+                            new Checkpoint(streamId, streamPartition, publisherId, msgChainId, lastReceived));
+                    count++;
+                }
+            }
+            log.debug("Loaded {} checkpoints from {}", count, file);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read checkpoints from " + file, e);
+        }
+    }
+
+    /**
+     * The checkpoints of one stream-partition by publisherId and msgChainId. The nested maps avoid building
+     * a composite key on every update. The lock is only contended while flushing, since the messages of a
+     * stream-partition are handled on one thread at a time.
+     */
+    private static class PartitionCheckpoints {
+        // Guarded by this
+        private final Map<Address, Map<String, Checkpoint>> byPublisher = new HashMap<>();
+        private boolean dropped = false;
+
+        /**
+         * @return false if this has been dropped from the store, and the checkpoint must be put in a new one
+         */
+        private synchronized boolean put(Checkpoint checkpoint) {
+            if (dropped) {
+                return false;
+            }
+            Map<String, Checkpoint> byMsgChainId = byPublisher.get(checkpoint.getPublisherId());
+            if (byMsgChainId == null) {
+                byMsgChainId = new HashMap<>();
+                byPublisher.put(checkpoint.getPublisherId(), byMsgChainId);
+            }
+            byMsgChainId.put(checkpoint.getMsgChainId(), checkpoint);
+            return true;
+        }
+
+        private synchronized List<Checkpoint> getAll() {
+            List<Checkpoint> result = new ArrayList<>();
+            for (Map<String, Checkpoint> byMsgChainId : byPublisher.values()) {
+                result.addAll(byMsgChainId.values());
+            }
+            return result;
+        }
+
+        private synchronized int removeOlderThan(long timestamp) {
+            int removed = 0;
+            Iterator<Map<String, Checkpoint>> publisherIt = byPublisher.values().iterator();
+            while (publisherIt.hasNext()) {
+                Map<String, Checkpoint> byMsgChainId = publisherIt.next();
+                Iterator<Checkpoint> it = byMsgChainId.values().iterator();
+                while (it.hasNext()) {
+                    if (it.next().getLastReceived().getTimestamp() < timestamp) {
+                        it.remove();
+                        removed++;
+                    }
+                }
+                if (byMsgChainId.isEmpty()) {
+                    publisherIt.remove();
+                }
+            }
+            return removed;
+        }
+
+        /**
+         * @return true if this was empty and has been marked as dropped, so that it must be removed from the store
+         */
+        private synchronized boolean dropIfEmpty() {
+            if (byPublisher.isEmpty()) {
+                dropped = true;
+            }
+            return dropped;
+        }
+    }
+}
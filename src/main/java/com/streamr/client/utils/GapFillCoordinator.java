@@ -0,0 +1,366 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.MessageRef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sits between the gap handlers of all OrderedMsgChains of a connection and the connection itself.
+ *
+ * At most maxInFlight requests are in flight on the connection, and at most maxInFlightPerPartition per
+ * stream-partition. The rest are queued and sent in arrival order as responses come in. While queued, requests
+ * for the same [streamId, partition, publisherId, msgChainId] are merged when their ranges overlap or are adjacent,
+ * so that repeated requests for the same gap (eg. after a broker restart) result in a single resend.
+ * Requests for a range that is already in flight are not dropped, since the chains only repeat a request
+ * when resendTimeout has passed without the gap being filled.
+ *
+ * An in-flight request is completed by calling onResponse() with its requestId. If no response arrives within
+ * inFlightTimeout, the slot is released anyway, so that a lost response can't stall gap filling.
+ *
+ * The ResendSender is called without holding the lock of the coordinator: the slot of a request is reserved
+ * under the lock, and the request is registered by its requestId once sent. Requests sent because a timeout
+ * released a slot are sent on the given executor rather than on the timer.
+ */
+public class GapFillCoordinator {
+    private static final Logger log = LoggerFactory.getLogger(GapFillCoordinator.class);
+
+    private final int maxInFlight;
+    private final int maxInFlightPerPartition;
+    private final long inFlightTimeout;
+    private final ResendSender sender;
+    private final ScheduledExecutorService timer;
+    private final Executor executor;
+
+    // Queued ranges per chain, kept sorted and merged. LinkedHashMap to send in arrival order.
+    private final LinkedHashMap<ChainKey, List<Range>> queued = new LinkedHashMap<>();
+    private final Map<String, InFlight> inFlightByRequestId = new HashMap<>();
+    // Requests that have a slot but haven't been sent yet
+    private final Set<InFlight> sending = new HashSet<>();
+    // Responses that arrived while requests were being sent, possibly before their requestId was registered
+    private final Set<String> earlyResponses = new HashSet<>();
+    private final Map<StreamPartition, Integer> inFlightPerPartition = new HashMap<>();
+
+    private long requestCount = 0;
+    private long sentCount = 0;
+    private long savedCount = 0;
+
+    /**
+     * @param executor sends the requests for which a timeout released a slot
+     */
+    public GapFillCoordinator(int maxInFlight, int maxInFlightPerPartition, long inFlightTimeout, ResendSender sender,
+                              ScheduledExecutorService timer, Executor executor) {
+        if (maxInFlight < 1 || maxInFlightPerPartition < 1) {
+            throw new IllegalArgumentException("maxInFlight and maxInFlightPerPartition must be at least 1");
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxInFlightPerPartition = maxInFlightPerPartition;
+        this.inFlightTimeout = inFlightTimeout;
+        this.sender = sender;
+        this.timer = timer;
+        this.executor = executor;
+    }
+
+    public GapFillCoordinator(int maxInFlight, int maxInFlightPerPartition, long inFlightTimeout, ResendSender sender,
+                              ScheduledExecutorService timer) {
+        this(maxInFlight, maxInFlightPerPartition, inFlightTimeout, sender, timer, timer);
+    }
+
+    /**
+     * Uses the SharedTimer, so the sender must not block.
+     */
+    public GapFillCoordinator(int maxInFlight, int maxInFlightPerPartition, long inFlightTimeout, ResendSender sender) {
+        this(maxInFlight, maxInFlightPerPartition, inFlightTimeout, sender, SharedTimer.getDefault());
+    }
+
+    /**
+     * Requests the messages between from and to (inclusive) of the given chain. Has the same signature
+     * as OrderedMsgChain.GapHandlerFunction, apart from the stream-partition.
+     */
+    public void request(String streamId, int partition, MessageRef from, MessageRef to,
+                        Address publisherId, String msgChainId) {
+        ChainKey key = new ChainKey(new StreamPartition(streamId, partition), publisherId, msgChainId);
+        Range range = new Range(from, to);
+        List<InFlight> toSend;
+        synchronized (this) {
+            requestCount++;
+            List<Range> ranges = queued.computeIfAbsent(key, k -> new ArrayList<>());
+            if (addAndMerge(ranges, range)) {
+                savedCount++;
+            }
+            toSend = dispatch();
+        }
+        sendAll(toSend);
+    }
+
+    /**
+     * Marks the request as completed. To be called on ResendResponseResent, ResendResponseNoResend
+     * and ErrorResponse. Unknown requestIds are ignored.
+     */
+    public void onResponse(String requestId) {
+        if (requestId == null) {
+            return;
+        }
+        List<InFlight> toSend;
+        synchronized (this) {
+            InFlight inFlight = inFlightByRequestId.get(requestId);
+            if (inFlight == null) {
+                if (!sending.isEmpty()) {
+                    earlyResponses.add(requestId);
+                }
+                return;
+            }
+            inFlight.timeout.cancel(false);
+            release(requestId, inFlight);
+            toSend = dispatch();
+        }
+        sendAll(toSend);
+    }
+
+    /**
+     * Drops all queued and in-flight requests, for example when the connection is closed. The OrderedMsgChains
+     * will request the gaps again after resendTimeout.
+     */
+    public synchronized void clear() {
+        inFlightByRequestId.values().forEach(inFlight -> inFlight.timeout.cancel(false));
+        inFlightByRequestId.clear();
+        sending.clear();
+        earlyResponses.clear();
+        inFlightPerPartition.clear();
+        queued.clear();
+    }
+
+    /**
+     * @return the number of gap fill requests received from the message chains
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    /**
+     * @return the number of resend requests actually sent
+     */
+    public synchronized long getSentCount() {
+        return sentCount;
+    }
+
+    /**
+     * @return the number of gap fill requests that were merged into another queued request
+     */
+    public synchronized long getSavedCount() {
+        return savedCount;
+    }
+
+    public synchronized int getInFlightCount() {
+        return inFlightByRequestId.size() + sending.size();
+    }
+
+    public synchronized int getQueuedCount() {
+        int result = 0;
+        for (List<Range> ranges : queued.values()) {
+            result += ranges.size();
+        }
+        return result;
+    }
+
+    /**
+     * Adds the range to the sorted list of ranges, merging it with the ranges it overlaps or is adjacent to.
+     *
+     * @return true if the range was merged with at least one other range
+     */
+    private static boolean addAndMerge(List<Range> ranges, Range range) {
+        boolean merged = false;
+        Iterator<Range> it = ranges.iterator();
+        while (it.hasNext()) {
+            Range existing = it.next();
+            if (existing.overlapsOrAdjoins(range)) {
+                range = existing.union(range);
+                it.remove();
+                merged = true;
+            }
+        }
+        int i = 0;
+        while (i < ranges.size() && ranges.get(i).from.compareTo(range.from) < 0) {
+            i++;
+        }
+        ranges.add(i, range);
+        return merged;
+    }
+
+    /**
+     * Reserves slots for the queued ranges in arrival order.
+     *
+     * @return the requests to send, after releasing the lock
+     */
+    private List<InFlight> dispatch() {
+        List<InFlight> toSend = new ArrayList<>();
+        Iterator<Map.Entry<ChainKey, List<Range>>> it = queued.entrySet().iterator();
+        while (it.hasNext() && getInFlightCount() < maxInFlight) {
+            Map.Entry<ChainKey, List<Range>> entry = it.next();
+            ChainKey key = entry.getKey();
+            List<Range> ranges = entry.getValue();
+            while (!ranges.isEmpty()
+                    && getInFlightCount() < maxInFlight
+                    && inFlightPerPartition.getOrDefault(key.streamPartition, 0) < maxInFlightPerPartition) {
+                InFlight inFlight = new InFlight(key, ranges.remove(0));
+                sending.add(inFlight);
+                inFlightPerPartition.merge(key.streamPartition, 1, Integer::sum);
+                toSend.add(inFlight);
+            }
+            if (ranges.isEmpty()) {
+                it.remove();
+            }
+        }
+        return toSend;
+    }
+
+    /**
+     * Sends the requests, and the ones that take the slots of failed sends. Must be called without holding the lock.
+     */
+    private void sendAll(List<InFlight> toSend) {
+        while (!toSend.isEmpty()) {
+            List<InFlight> next = new ArrayList<>();
+            for (InFlight inFlight : toSend) {
+                ChainKey key = inFlight.key;
+                String requestId = null;
+                try {
+                    requestId = sender.send(key.streamPartition.getStreamId(), key.streamPartition.getPartition(),
+                            inFlight.range.from, inFlight.range.to, key.publisherId, key.msgChainId);
+                } catch (RuntimeException e) {
+                    // The chain will request the gap again after resendTimeout
+                    log.warn("Failed to send gap fill request {} for {}", inFlight.range, key, e);
+                }
+                next.addAll(onSent(inFlight, requestId));
+            }
+            toSend = next;
+        }
+    }
+
+    /**
+     * @param requestId null if sending failed
+     * @return the requests to send next
+     */
+    private synchronized List<InFlight> onSent(InFlight inFlight, String requestId) {
+        if (!sending.remove(inFlight)) {
+            // Dropped by clear() in the meantime
+            return Collections.emptyList();
+        }
+        if (requestId != null) {
+            sentCount++;
+        }
+        boolean answered = requestId != null && earlyResponses.remove(requestId);
+        if (sending.isEmpty()) {
+            earlyResponses.clear();
+        }
+        if (requestId == null || answered) {
+            inFlightPerPartition.computeIfPresent(inFlight.key.streamPartition, (k, count) -> count > 1 ? count - 1 : null);
+            return dispatch();
+        }
+        inFlightByRequestId.put(requestId, inFlight);
+        inFlight.timeout = timer.schedule(() -> {
+            List<InFlight> toSend;
+            synchronized (GapFillCoordinator.this) {
+                if (inFlightByRequestId.get(requestId) != inFlight) {
+                    return;
+                }
+                log.debug("No response to gap fill request {} within {} ms, releasing it", requestId, inFlightTimeout);
+                release(requestId, inFlight);
+                toSend = dispatch();
+            }
+            if (!toSend.isEmpty()) {
+                executor.execute(() -> sendAll(toSend));
+            }
+        }, inFlightTimeout, TimeUnit.MILLISECONDS);
+        return Collections.emptyList();
+    }
+
+    private void release(String requestId, InFlight inFlight) {
+        inFlightByRequestId.remove(requestId);
+        inFlightPerPartition.computeIfPresent(inFlight.key.streamPartition, (k, count) -> count > 1 ? count - 1 : null);
+    }
+
+    @FunctionalInterface
+    public interface ResendSender {
+        /**
+         * Sends a ResendRangeRequest for the given range and returns its requestId.
+         */
+        String send(String streamId, int partition, MessageRef from, MessageRef to, Address publisherId, String msgChainId);
+    }
+
+    private static class ChainKey {
+        private final StreamPartition streamPartition;
+        private final Address publisherId;
+        private final String msgChainId;
+
+        private ChainKey(StreamPartition streamPartition, Address publisherId, String msgChainId) {
+            this.streamPartition = streamPartition;
+            this.publisherId = publisherId;
+            this.msgChainId = msgChainId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ChainKey)) return false;
+            ChainKey that = (ChainKey) o;
+            return streamPartition.equals(that.streamPartition)
+                    && Objects.equals(publisherId, that.publisherId)
+                    && Objects.equals(msgChainId, that.msgChainId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(streamPartition, publisherId, msgChainId);
+        }
+
+        @Override
+        public String toString() {
+            return streamPartition + ", publisherId: " + publisherId + ", msgChainId: " + msgChainId;
+        }
+    }
+
+    private static class Range {
+        private final MessageRef from;
+        private final MessageRef to;
+
+        private Range(MessageRef from, MessageRef to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        private boolean overlapsOrAdjoins(Range other) {
+            return from.compareTo(next(other.to)) <= 0 && other.from.compareTo(next(to)) <= 0;
+        }
+
+        private Range union(Range other) {
+            return new Range(
+                    from.compareTo(other.from) <= 0 ? from : other.from,
+                    to.compareTo(other.to) >= 0 ? to : other.to);
+        }
+
+        private static MessageRef next(MessageRef ref) {
+            return new MessageRef(ref.getTimestamp(), ref.getSequenceNumber() + 1);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + from + ", " + to + "]";
+        }
+    }
+
+    private static class InFlight {
+        private final ChainKey key;
+        private final Range range;
+        private ScheduledFuture<?> timeout;
+
+        private InFlight(ChainKey key, Range range) {
+            this.key = key;
+            this.range = range;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.MessageRef;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides how OrderedMsgChains try to fill gaps and what they do with a gap that can't be filled.
+ *
+ * A chain first requests the gap up to maxRequests times through the subscription's gap handler, waiting
+ * resendTimeout after the first request and multiplying the wait by backoffMultiplier after each further one
+ * (capped at maxRetryDelay). If a secondary handler is given, the gap is then requested up to maxSecondaryRequests
+ * times through it, doubling the wait each time. If the gap is still not filled, the chain applies onFailure:
+ * <ul>
+ *     <li>SKIP: continue from the first message after the gap (the historical behaviour)</li>
+ *     <li>BLOCK_AND_ALERT: report the gap but keep waiting for it, queueing further messages. Nothing is requested
+ *     after that: the chain waits until the missing messages arrive (eg. from a resend made by the user), its queue
+ *     becomes full, or Subscription.retryBlockedGaps() starts requesting the gap again</li>
+ *     <li>FAIL_SUBSCRIPTION: report the gap and stop delivering messages of the subscription</li>
+ * </ul>
+ * In every case the failure is reported to the gapFillFailedHandler of the chain.
+ *
+ * An instance can be shared by many chains, and counts what happened to their gaps.
+ */
+public class GapFillPolicy {
+    public enum OnFailure {
+        SKIP,
+        BLOCK_AND_ALERT,
+        FAIL_SUBSCRIPTION
+    }
+
+    public static final int DEFAULT_MAX_REQUESTS = 10;
+
+    private final int maxRequests;
+    private final double backoffMultiplier;
+    private final long maxRetryDelay;
+    private final SecondaryGapHandler secondaryHandler;
+    private final int maxSecondaryRequests;
+    private final OnFailure onFailure;
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong secondaryRequestCount = new AtomicLong();
+    private final AtomicLong filledCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    /**
+     * @param maxRequests number of requests made through the subscription's gap handler
+     * @param backoffMultiplier the wait between requests is multiplied by this after each request, 1 for a fixed interval
+     * @param maxRetryDelay upper bound for the wait between requests, in milliseconds
+     * @param secondaryHandler where to request the gap once maxRequests have failed, null for no secondary
+     * @param maxSecondaryRequests number of requests made through the secondary handler
+     * @param onFailure what to do when all requests have failed
+     */
+    public GapFillPolicy(int maxRequests, double backoffMultiplier, long maxRetryDelay,
+                         SecondaryGapHandler secondaryHandler, int maxSecondaryRequests, OnFailure onFailure) {
+        if (maxRequests < 0 || maxSecondaryRequests < 0) {
+            throw new IllegalArgumentException("maxRequests and maxSecondaryRequests must not be negative");
+        }
+        if (backoffMultiplier < 1) {
+            throw new IllegalArgumentException("backoffMultiplier must be at least 1");
+        }
+        if (onFailure == null) {
+            throw new IllegalArgumentException("onFailure must be given");
+        }
+        this.maxRequests = maxRequests;
+        this.backoffMultiplier = backoffMultiplier;
+        this.maxRetryDelay = maxRetryDelay;
+        this.secondaryHandler = secondaryHandler;
+        this.maxSecondaryRequests = secondaryHandler == null ? 0 : maxSecondaryRequests;
+        this.onFailure = onFailure;
+    }
+
+    public GapFillPolicy(int maxRequests, OnFailure onFailure) {
+        this(maxRequests, 1, Long.MAX_VALUE, null, 0, onFailure);
+    }
+
+    public static GapFillPolicy skip() {
+        return new GapFillPolicy(DEFAULT_MAX_REQUESTS, OnFailure.SKIP);
+    }
+
+    public static GapFillPolicy blockAndAlert() {
+        return new GapFillPolicy(DEFAULT_MAX_REQUESTS, OnFailure.BLOCK_AND_ALERT);
+    }
+
+    public static GapFillPolicy failSubscription() {
+        return new GapFillPolicy(DEFAULT_MAX_REQUESTS, OnFailure.FAIL_SUBSCRIPTION);
+    }
+
+    /**
+     * Requests the gap a few times from the primary source, then up to maxSecondaryRequests times from the
+     * secondary with exponential backoff, and finally applies onFailure.
+     */
+    public static GapFillPolicy retryWithSecondary(SecondaryGapHandler secondaryHandler, int maxSecondaryRequests,
+                                                   long maxRetryDelay, OnFailure onFailure) {
+        return new GapFillPolicy(3, 2, maxRetryDelay, secondaryHandler, maxSecondaryRequests, onFailure);
+    }
+
+    public static GapFillPolicy getDefault() {
+        return skip();
+    }
+
+    public int getMaxRequests() {
+        return maxRequests;
+    }
+
+    public int getMaxSecondaryRequests() {
+        return maxSecondaryRequests;
+    }
+
+    public SecondaryGapHandler getSecondaryHandler() {
+        return secondaryHandler;
+    }
+
+    public OnFailure getOnFailure() {
+        return onFailure;
+    }
+
+    /**
+     * @param requestCount number of primary requests made so far for the gap, at least 1
+     * @return how long to wait for the gap to be filled before the next request
+     */
+    public long getRetryDelay(int requestCount, long resendTimeout) {
+        return backoff(resendTimeout, Math.pow(backoffMultiplier, requestCount - 1));
+    }
+
+    /**
+     * @param secondaryRequestCount number of secondary requests made so far for the gap, at least 1
+     * @return how long to wait for the gap to be filled before the next secondary request
+     */
+    public long getSecondaryRetryDelay(int secondaryRequestCount, long resendTimeout) {
+        return backoff(resendTimeout, Math.pow(2, secondaryRequestCount - 1));
+    }
+
+    private long backoff(long resendTimeout, double factor) {
+        double delay = resendTimeout * factor;
+        return delay >= maxRetryDelay ? maxRetryDelay : (long) delay;
+    }
+
+    void onRequest() {
+        requestCount.incrementAndGet();
+    }
+
+    void onSecondaryRequest() {
+        secondaryRequestCount.incrementAndGet();
+    }
+
+    void onFilled() {
+        filledCount.incrementAndGet();
+    }
+
+    void onFailure() {
+        switch (onFailure) {
+            case SKIP:
+                skippedCount.incrementAndGet();
+                break;
+            case BLOCK_AND_ALERT:
+                blockedCount.incrementAndGet();
+                break;
+            case FAIL_SUBSCRIPTION:
+                failedCount.incrementAndGet();
+                break;
+        }
+    }
+
+    /**
+     * @return number of gap fill requests made through the subscriptions' gap handlers
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * @return number of gap fill requests made through the secondary handler
+     */
+    public long getSecondaryRequestCount() {
+        return secondaryRequestCount.get();
+    }
+
+    /**
+     * @return number of gaps filled after at least one request
+     */
+    public long getFilledCount() {
+        return filledCount.get();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    @FunctionalInterface
+    public interface SecondaryGapHandler {
+        /**
+         * Requests the messages between from and to (inclusive) of the given chain from a secondary source,
+         * for example another storage node. The messages must be delivered to the subscription as resent messages.
+         */
+        void apply(String streamId, int partition, MessageRef from, MessageRef to, Address publisherId, String msgChainId);
+    }
+}
@@ -0,0 +1,80 @@
+package com.streamr.client.utils;
+
+import java.util.function.Function;
+
+/**
+ * A bounded cache of canonical instances keyed by string, for the values that repeat in almost every decoded
+ * message (eg. the streamId, the publisherId and the msgChainId). Returning the same instance for equal keys
+ * saves the heap the duplicates would take, and lets equals() return at its identity check.
+ *
+ * The cache is direct-mapped: each key has one slot, chosen by its hash, and a key hashing to an occupied slot
+ * replaces the entry in it. The size is fixed, a lookup takes no locks, and a key that keeps colliding with
+ * another only costs the instance that would have been created anyway. Entries are immutable, so the racy
+ * reads and writes of the slots are safe: a thread sees either an old entry or a new one, both complete.
+ */
+public class InternCache<V> {
+    private final Entry<V>[] slots;
+    private final int mask;
+    private final Function<String, V> factory;
+
+    /**
+     * @param size number of slots, rounded up to a power of two
+     * @param factory creates the value for a key that isn't cached, eg. Address::new
+     */
+    @SuppressWarnings("unchecked")
+    public InternCache(int size, Function<String, V> factory) {
+        if (size < 1 || size > (1 << 30)) {
+            throw new IllegalArgumentException("size must be between 1 and 2^30");
+        }
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.slots = (Entry<V>[]) new Entry[capacity];
+        this.mask = capacity - 1;
+        this.factory = factory;
+    }
+
+    /**
+     * @return a cache of canonical strings
+     */
+    public static InternCache<String> ofStrings(int size) {
+        return new InternCache<>(size, Function.identity());
+    }
+
+    /**
+     * @return the cached value for the key, or a new value from the factory, which is then cached.
+     *         Exceptions thrown by the factory are passed on and nothing is cached. A null key isn't cached.
+     */
+    public V get(String key) {
+        if (key == null) {
+            return factory.apply(null);
+        }
+        int h = key.hashCode();
+        // Spread the high bits down, like HashMap does
+        int index = (h ^ (h >>> 16)) & mask;
+        Entry<V> entry = slots[index];
+        if (entry != null && entry.hash == h && entry.key.equals(key)) {
+            return entry.value;
+        }
+        V value = factory.apply(key);
+        slots[index] = new Entry<>(h, key, value);
+        return value;
+    }
+
+    public int getSize() {
+        return slots.length;
+    }
+
+    private static class Entry<V> {
+        private final int hash;
+        private final String key;
+        private final V value;
+
+        private Entry(int hash, String key, V value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
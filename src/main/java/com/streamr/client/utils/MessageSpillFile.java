@@ -0,0 +1,198 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Append-only file of StreamMessages, used by OrderedMsgChain to hold the messages that don't fit into
+ * its in-memory queue. Messages are read back in the order they were appended. Each record is the length
+ * of the serialized message followed by the UTF-8 bytes of StreamMessage.serialize().
+ *
+ * The file is deleted on close(). Files left behind by a process that crashed can be deleted while no chain
+ * is spilling to the directory.
+ *
+ * Not thread-safe, the owning OrderedMsgChain synchronizes access.
+ */
+class MessageSpillFile implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(MessageSpillFile.class);
+
+    private static final Comparator<StreamMessage> ORDER = Comparator
+            .comparingLong(StreamMessage::getTimestamp)
+            .thenComparingLong(StreamMessage::getSequenceNumber);
+
+    private final File directory;
+    private final File file;
+    private final DataOutputStream out;
+    private DataInputStream in = null;
+    private long written = 0;
+    private long read = 0;
+    private long bytesWritten = 0;
+
+    // Whether the messages were appended in increasing (timestamp, sequenceNumber) order
+    private boolean sorted = true;
+    private long lastTimestamp = Long.MIN_VALUE;
+    private long lastSequenceNumber = Long.MIN_VALUE;
+
+    MessageSpillFile(File directory) throws IOException {
+        this.directory = directory;
+        file = File.createTempFile("streamr-spill-", ".bin", directory);
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        log.debug("Created spill file {}", file);
+    }
+
+    void append(StreamMessage msg) throws IOException {
+        byte[] bytes = msg.toBytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        written++;
+        bytesWritten += 4 + bytes.length;
+
+        if (msg.getTimestamp() < lastTimestamp
+                || (msg.getTimestamp() == lastTimestamp && msg.getSequenceNumber() <= lastSequenceNumber)) {
+            sorted = false;
+        }
+        lastTimestamp = msg.getTimestamp();
+        lastSequenceNumber = msg.getSequenceNumber();
+    }
+
+    /**
+     * Reads the next unread message. Must not be called if isEmpty().
+     */
+    StreamMessage next() throws IOException {
+        if (isEmpty()) {
+            throw new IllegalStateException("No unread messages in " + file);
+        }
+        if (in == null) {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        }
+        out.flush();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        read++;
+        return StreamMessage.fromBytes(bytes);
+    }
+
+    boolean isEmpty() {
+        return read == written;
+    }
+
+    long size() {
+        return written - read;
+    }
+
+    /**
+     * @return true if all messages were appended in increasing (timestamp, sequenceNumber) order
+     */
+    boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Moves the unread messages to a new file in increasing (timestamp, sequenceNumber) order, and closes this file.
+     * Runs of runLength messages are sorted in memory and then merged, so each message is read and written twice
+     * and at most runLength messages are held in memory.
+     */
+    MessageSpillFile sortUnread(int runLength) throws IOException {
+        MessageSpillFile runs = new MessageSpillFile(directory);
+        MessageSpillFile result = null;
+        try {
+            PriorityQueue<Run> merge = new PriorityQueue<>((a, b) -> ORDER.compare(a.head, b.head));
+            List<Run> allRuns = new ArrayList<>();
+            List<StreamMessage> batch = new ArrayList<>(runLength);
+            while (!isEmpty()) {
+                batch.clear();
+                while (!isEmpty() && batch.size() < runLength) {
+                    batch.add(next());
+                }
+                batch.sort(ORDER);
+                allRuns.add(new Run(runs.bytesWritten, batch.size()));
+                for (StreamMessage msg : batch) {
+                    runs.append(msg);
+                }
+            }
+            runs.out.flush();
+
+            result = new MessageSpillFile(directory);
+            try (RandomAccessFile source = new RandomAccessFile(runs.file, "r")) {
+                for (Run run : allRuns) {
+                    run.advance(source);
+                    merge.add(run);
+                }
+                Run run;
+                while ((run = merge.poll()) != null) {
+                    result.append(run.head);
+                    if (run.advance(source)) {
+                        merge.add(run);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            if (result != null) {
+                result.close();
+            }
+            throw e;
+        } finally {
+            runs.close();
+        }
+        close();
+        return result;
+    }
+
+    /**
+     * Closes and deletes the file.
+     */
+    @Override
+    public void close() {
+        try {
+            out.close();
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close spill file {}", file, e);
+        }
+        if (!file.delete()) {
+            log.warn("Failed to delete spill file {}", file);
+        }
+    }
+
+    /**
+     * A sorted run of messages in the temporary file of sortUnread(), read from its position onwards.
+     */
+    private static class Run {
+        private long position;
+        private long remaining;
+        private StreamMessage head = null;
+
+        private Run(long position, long count) {
+            this.position = position;
+            this.remaining = count;
+        }
+
+        /**
+         * Reads the next message of the run into head.
+         *
+         * @return false if the run has no more messages
+         */
+        private boolean advance(RandomAccessFile source) throws IOException {
+            if (remaining == 0) {
+                head = null;
+                return false;
+            }
+            source.seek(position);
+            byte[] bytes = new byte[source.readInt()];
+            source.readFully(bytes);
+            position += 4 + bytes.length;
+            remaining--;
+            head = StreamMessage.fromBytes(bytes);
+            return true;
+        }
+    }
+}
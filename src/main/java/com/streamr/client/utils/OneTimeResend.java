@@ -2,34 +2,49 @@ package com.streamr.client.utils;
 
 import com.streamr.client.protocol.control_layer.ControlMessage;
 import com.streamr.client.subs.Subscription;
-import org.java_websocket.client.WebSocketClient;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.streamr.client.transport.Transport;
 
-public class OneTimeResend extends Thread {
-    private static final Logger log = LoggerFactory.getLogger(OneTimeResend.class);
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
-    private WebSocketClient ws;
-    private ControlMessage controlMessage;
-    private int timeout;
-    private Subscription sub;
+/**
+ * Sends a resend request a second time after a timeout, unless canceled before that (eg. because messages
+ * started arriving). Runs as a task on a shared executor, so no thread is held while waiting.
+ */
+public class OneTimeResend implements Runnable {
 
-    public OneTimeResend(WebSocketClient ws, ControlMessage controlMessage, int timeout, Subscription sub) {
-        this.ws = ws;
+    private final Transport transport;
+    private final ControlMessage controlMessage;
+    private final Subscription sub;
+    private volatile ScheduledFuture<?> future;
+    // Set by cancel(), which may be called before schedule()
+    private volatile boolean canceled = false;
+
+    public OneTimeResend(Transport transport, ControlMessage controlMessage, Subscription sub) {
+        this.transport = transport;
         this.controlMessage = controlMessage;
-        this.timeout = timeout;
         this.sub = sub;
     }
 
+    public void schedule(ScheduledExecutorService executor, long timeoutMillis) {
+        if (!canceled) {
+            future = executor.schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void cancel() {
+        canceled = true;
+        ScheduledFuture<?> f = future;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
     @Override
     public void run() {
-        try {
-            Thread.sleep(timeout);
-            if (!isInterrupted() && ws.isOpen() && sub.isSubscribed()) {
-                ws.send(controlMessage.toJson());
-            }
-        } catch (InterruptedException e) {
-            log.warn("Second resend request was canceled.");
+        if (!canceled && transport.isOpen() && sub.isSubscribed()) {
+            transport.send(controlMessage.toJson());
         }
     }
 }
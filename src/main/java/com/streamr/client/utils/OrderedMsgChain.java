@@ -6,15 +6,29 @@ import com.streamr.client.protocol.message_layer.StreamMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.*;
+import java.io.File;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class OrderedMsgChain {
     private static final Logger log = LoggerFactory.getLogger(OrderedMsgChain.class);
-    private static final int MAX_GAP_REQUESTS = 10;
+    // Used by chains that haven't been given a policy
+    private static final GapFillPolicy DEFAULT_GAP_FILL_POLICY = GapFillPolicy.getDefault();
 
     static final int MAX_QUEUE_SIZE = 10000;
+    // Messages sorted in memory at a time when the spilled messages are sorted
+    private static final int SPILL_SORT_RUN_LENGTH = 1000;
+
+    // Rough heap footprint of an empty chain and of a queued message excluding its content, for memory estimates
+    private static final long CHAIN_OVERHEAD_BYTES = 512;
+    private static final long MESSAGE_OVERHEAD_BYTES = 400;
 
     private final Address publisherId;
     private final String msgChainId;
@@ -23,12 +37,26 @@ public class OrderedMsgChain {
     private final Function<GapFillFailedException, Void> gapFillFailedHandler;
     private final long propagationTimeout;
     private final long resendTimeout;
-    private final PriorityQueue<StreamMessage> queue;
+    private final ReorderBuffer queue;
+    private final ScheduledExecutorService timer;
+    // Runs the gap checks, which may deliver queued messages. Read by the timer thread.
+    private volatile Executor deliveryExecutor = null;
     private MessageRef lastReceived = null;
-    private Timer gap = null;
+    private ScheduledFuture<?> gap = null;
+    // Set when the gap couldn't be filled and GapFillPolicy.OnFailure.BLOCK_AND_ALERT left it in place
+    private boolean blocked = false;
+    // Identifies the current gap, so that a check scheduled for an earlier gap does nothing
+    private long gapGeneration = 0;
     private int gapRequestCount = 0;
+    private int secondaryRequestCount = 0;
+    private GapFillPolicy gapFillPolicy = DEFAULT_GAP_FILL_POLICY;
+    private boolean failed = false;
     private final boolean skipGapsOnFullQueue;
-    private final GapFillFailedException gapException = null;
+    private File spillDirectory = null;
+    private MessageSpillFile spill = null;
+    private Clock clock = Clock.systemUTC();
+    private long lastActivity = clock.millis();
+    private boolean evicted = false;
 
     public OrderedMsgChain(Address publisherId,
                            String msgChainId,
@@ -37,7 +65,8 @@ public class OrderedMsgChain {
                            Function<GapFillFailedException, Void> gapFillFailedHandler,
                            long propagationTimeout,
                            long resendTimeout,
-                           boolean skipGapsOnFullQueue) {
+                           boolean skipGapsOnFullQueue,
+                           ScheduledExecutorService timer) {
         this.publisherId = publisherId;
         this.msgChainId = msgChainId;
         this.inOrderHandler = inOrderHandler;
@@ -46,12 +75,19 @@ public class OrderedMsgChain {
         this.propagationTimeout = propagationTimeout;
         this.resendTimeout = resendTimeout;
         this.skipGapsOnFullQueue = skipGapsOnFullQueue;
-        queue = new PriorityQueue<>(new Comparator<StreamMessage>() {
-            @Override
-            public int compare(StreamMessage o1, StreamMessage o2) {
-                return o1.getMessageRef().compareTo(o2.getMessageRef());
-            }
-        });
+        this.timer = timer;
+        queue = new ReorderBuffer(MAX_QUEUE_SIZE);
+    }
+    public OrderedMsgChain(Address publisherId,
+                           String msgChainId,
+                           Consumer<StreamMessage> inOrderHandler,
+                           GapHandlerFunction gapHandler,
+                           Function<GapFillFailedException, Void> gapFillFailedHandler,
+                           long propagationTimeout,
+                           long resendTimeout,
+                           boolean skipGapsOnFullQueue) {
+        this(publisherId, msgChainId, inOrderHandler, gapHandler, gapFillFailedHandler,
+                propagationTimeout, resendTimeout, skipGapsOnFullQueue, SharedTimer.getDefault());
     }
     public OrderedMsgChain(Address publisherId,
                            String msgChainId,
@@ -66,6 +102,11 @@ public class OrderedMsgChain {
     }
 
     public synchronized void add(StreamMessage unorderedMsg) {
+        lastActivity = clock.millis();
+        if (failed) {
+            log.trace("Chain {}-{} has failed, dropping message {}", publisherId, msgChainId, unorderedMsg.getMessageRef());
+            return;
+        }
         MessageRef ref = unorderedMsg.getMessageRef();
         if (lastReceived != null && ref.compareTo(lastReceived) <= 0) {
             log.debug("Already received message: " + ref + ", lastReceivedMsgRef: " + lastReceived + ". Ignoring message.");
@@ -78,20 +119,16 @@ public class OrderedMsgChain {
             if (gap == null) {
                 scheduleGap();
             }
-            // Prevent memory exhaustion under unusual conditions by limiting the queue size
-            if (queue.size() < MAX_QUEUE_SIZE) {
-                queue.offer(unorderedMsg);
-            } else {
-
-
+            boolean queued = spillDirectory != null && enqueueOrSpill(unorderedMsg);
+            if (!queued && !queue.offer(unorderedMsg)) {
+                // Prevent memory exhaustion under unusual conditions by limiting the queue size
                 // Form diagnosis string
-                List<StreamMessage> queueAsArrayList = new ArrayList<>(queue);
                 String diagnosisString = String.format(
                         "Queue for %s::%d was (%s, ..., %s) and new message is %s",
                         unorderedMsg.getStreamId(),
                         unorderedMsg.getStreamPartition(),
-                        queueAsArrayList.get(0).getMessageRef(),
-                        queueAsArrayList.get(queueAsArrayList.size() - 1).getMessageRef(),
+                        queue.peek().getMessageRef(),
+                        queue.peekLast().getMessageRef(),
                         unorderedMsg.getMessageRef()
                 );
 
@@ -107,17 +144,115 @@ public class OrderedMsgChain {
         }
     }
 
+    /**
+     * Adds the message unless the chain has been evicted by markEvictedIfIdle(), in which case the caller
+     * must add the message to the chain that replaces this one.
+     */
+    synchronized boolean addIfNotEvicted(StreamMessage unorderedMsg) {
+        if (evicted) {
+            return false;
+        }
+        add(unorderedMsg);
+        return true;
+    }
+
+    /**
+     * Marks the chain evicted if nothing has been added to it since the given time and it's not waiting
+     * for a gap to be filled. An evicted chain doesn't accept messages through addIfNotEvicted().
+     *
+     * @return true if the chain was marked evicted
+     */
+    synchronized boolean markEvictedIfIdle(long idleSince) {
+        if (!evicted && !failed && lastActivity <= idleSince && gap == null && queue.isEmpty() && spill == null) {
+            evicted = true;
+        }
+        return evicted;
+    }
+
+    /**
+     * Sets the clock of the activity timestamps that markEvictedIfIdle() compares against.
+     */
+    synchronized void setClock(Clock clock) {
+        this.clock = clock;
+        lastActivity = clock.millis();
+    }
+
+    synchronized long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Rough estimate of the heap used by the chain, dominated by the queued messages.
+     */
+    synchronized long estimateMemoryUsage() {
+        return CHAIN_OVERHEAD_BYTES + queue.estimateMemoryUsage(MESSAGE_OVERHEAD_BYTES);
+    }
+
     synchronized void clearGap() {
+        blocked = false;
         if (gap != null) {
-            gap.cancel();
-            gap.purge();
+            gap.cancel(false);
             gap = null;
-            if (gapException != null) {
-                throw gapException;
-            }
+            gapGeneration++;
         }
     }
 
+    /**
+     * Starts requesting the gap again if the chain is blocked on a gap that couldn't be filled
+     * (GapFillPolicy.OnFailure.BLOCK_AND_ALERT). Otherwise a blocked chain delivers no further messages until
+     * the missing ones arrive, eg. from a resend made by the user, or its queue becomes full.
+     *
+     * @return true if the chain was blocked
+     */
+    public synchronized boolean retryBlockedGap() {
+        if (!blocked || failed) {
+            return false;
+        }
+        log.info("Requesting the blocked gap of {}-{} again", publisherId, msgChainId);
+        blocked = false;
+        scheduleGap();
+        return true;
+    }
+
+    /**
+     * @return true if the chain is waiting for a gap that couldn't be filled, see retryBlockedGap()
+     */
+    public synchronized boolean isBlocked() {
+        return blocked;
+    }
+
+    /**
+     * Sets how gaps are requested and what happens to a gap that can't be filled.
+     */
+    public synchronized void setGapFillPolicy(GapFillPolicy gapFillPolicy) {
+        this.gapFillPolicy = gapFillPolicy != null ? gapFillPolicy : DEFAULT_GAP_FILL_POLICY;
+    }
+
+    /**
+     * @return true if the chain has stopped delivering messages because of an unfillable gap (GapFillPolicy.OnFailure.FAIL_SUBSCRIPTION)
+     */
+    public synchronized boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Enables spilling to disk: messages that don't fit into the queue are written to a file in the given
+     * directory instead of emptying the queue (skipGapsOnFullQueue) or throwing. They are read back in order
+     * as the queue drains. Null disables spilling.
+     */
+    public synchronized void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * Sets the executor that runs the gap checks. A check may deliver the queued messages (eg. when the gap is
+     * skipped) and report the gap fill failure, which call the handlers, so it must not run on the timer that
+     * schedules it. Null for a process-wide default thread.
+     */
+    public void setDeliveryExecutor(Executor deliveryExecutor) {
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
     public synchronized boolean hasGap() {
         return gap != null;
     }
@@ -138,6 +273,14 @@ public class OrderedMsgChain {
         return lastReceived;
     }
 
+    /**
+     * @return true if a message with this reference would be dropped by add() as already received
+     */
+    public synchronized boolean isDuplicate(long timestamp, long sequenceNumber) {
+        return lastReceived != null && (timestamp < lastReceived.getTimestamp()
+                || (timestamp == lastReceived.getTimestamp() && sequenceNumber <= lastReceived.getSequenceNumber()));
+    }
+
     private boolean isNextMessage(StreamMessage msg) {
         boolean isFirstMessage = lastReceived == null;
         return isFirstMessage
@@ -147,22 +290,106 @@ public class OrderedMsgChain {
             || (msg.getPreviousMessageRef() == null && msg.getMessageRef().compareTo(lastReceived) > 0);
     }
 
+    /**
+     * Keeps the invariant that every spilled message is newer than every message in the queue, so that
+     * the queue always holds the oldest messages and the next message, if received, is at its head.
+     *
+     * @return false if spilling failed, in which case spilling has been disabled and the message must be
+     *         handled as if the chain wasn't spilling
+     */
+    private boolean enqueueOrSpill(StreamMessage msg) {
+        boolean spilling = spill != null && !spill.isEmpty();
+        if (!spilling && queue.offer(msg)) {
+            return true;
+        }
+        try {
+            if (queue.isEmpty() || queue.compareTailTo(msg.getTimestamp(), msg.getSequenceNumber()) < 0) {
+                getSpill().append(msg);
+            } else {
+                if (queue.isFull()) {
+                    // Removed only once written, so that a failed write doesn't lose it
+                    getSpill().append(queue.peekLast());
+                    queue.pollLast();
+                }
+                queue.offer(msg);
+            }
+            return true;
+        } catch (IOException e) {
+            log.error("Failed to spill messages of {}-{} to {}, no longer spilling. The spilled messages will be requested as a gap.",
+                    publisherId, msgChainId, spillDirectory, e);
+            disableSpilling();
+            return false;
+        }
+    }
+
+    private void disableSpilling() {
+        spillDirectory = null;
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
+    }
+
+    private MessageSpillFile getSpill() throws IOException {
+        if (spill == null) {
+            spill = new MessageSpillFile(spillDirectory);
+            log.info("Queue for {}-{} is full, spilling further messages to disk", publisherId, msgChainId);
+        }
+        return spill;
+    }
+
+    /**
+     * Moves spilled messages back into the (empty) queue.
+     */
+    private void refillFromSpill() {
+        try {
+            if (!spill.isSorted()) {
+                // Sorted once rather than on every refill, so that the oldest messages are read first
+                // and the unread rest stays newer than the queue
+                spill = spill.sortUnread(SPILL_SORT_RUN_LENGTH);
+            }
+            while (!spill.isEmpty() && !queue.isFull()) {
+                queue.offer(spill.next());
+            }
+        } catch (IOException e) {
+            // The chain continues from the queue, and the messages after it are requested as a gap
+            log.error("Failed to read spilled messages of {}-{}, no longer spilling. They will be requested as a gap.",
+                    publisherId, msgChainId, e);
+            disableSpilling();
+            return;
+        }
+        if (spill.isEmpty()) {
+            spill.close();
+            spill = null;
+        }
+    }
+
     private void checkQueue() {
+        if (queue.isEmpty() && spill != null) {
+            refillFromSpill();
+        }
         while (!queue.isEmpty()) {
             StreamMessage msg = queue.peek();
             if (msg != null && isNextMessage(msg)) {
                 queue.poll();
 
                 // If the next message is found in the queue, any gap must have been filled, so clear the timer
+                if (gap != null && (gapRequestCount > 0 || secondaryRequestCount > 0)) {
+                    gapFillPolicy.onFilled();
+                }
                 clearGap();
                 process(msg);
-            } else if (msg != null && lastReceived != null && msg.getMessageRef().compareTo(lastReceived) <= 0) {
+            } else if (msg != null && lastReceived != null
+                    && queue.compareHeadTo(lastReceived.getTimestamp(), lastReceived.getSequenceNumber()) <= 0) {
                 // If there are old (already received) messages in the queue for any reason, remove them
                 queue.poll();
             } else {
                 // Nothing further can be processed from the queue
                 break;
             }
+            if (queue.isEmpty() && spill != null) {
+                refillFromSpill();
+            }
         }
     }
 
@@ -173,64 +400,159 @@ public class OrderedMsgChain {
 
     private void scheduleGap() {
         gapRequestCount = 0;
-        gap = new Timer(true);
-        TimerTask task = new TimerTask() {
-            @Override
-            public void run() {
-                synchronized (OrderedMsgChain.this) {
-                    // Make sure nothing further can be processed from the queue
-                    checkQueue();
+        secondaryRequestCount = 0;
+        gapGeneration++;
+        // First check after propagationTimeout, then as the GapFillPolicy says
+        scheduleGapCheck(propagationTimeout);
+    }
 
-                    // Make sure a gapfill is still scheduled and there is a queued message
-                    if (gap == null || queue.isEmpty()) {
-                        return;
-                    }
-
-                    MessageRef from = new MessageRef(lastReceived.getTimestamp(), lastReceived.getSequenceNumber() + 1);
-                    MessageRef to = queue.peek().getPreviousMessageRef();
-
-                    // Sanity check
-                    if (from.compareTo(to) > 0) {
-                        throw new IllegalStateException(String.format("From (%s) is after to (%s)!", from.toString(), to.toString()));
-                    }
-
-                    // Request gapfill or fail if max requests reached
-                    if (gapRequestCount < MAX_GAP_REQUESTS) {
-                        gapRequestCount++;
-                        if (gapHandler != null) {
-                            gapHandler.apply(from, to, publisherId, msgChainId);
-                        } else {
-                            log.error(String.format("Failed to request gapfill because the gapHandler is null. streamId %s, streamPartition %d, publisherId %s, msgChainId %s.",
-                                    queue.peek().getStreamId(), queue.peek().getStreamPartition(), publisherId, msgChainId));
-                        }
-                    } else {
-                        try {
-                            if (gapFillFailedHandler != null) {
-                                gapFillFailedHandler.apply(new GapFillFailedException(from, to, publisherId, msgChainId, MAX_GAP_REQUESTS));
-                            } else {
-                                log.error(String.format("Failed to report failed gapfill because gapFillFailedHandler is null. streamId %s, streamPartition %d, publisherId %s, msgChainId %s.",
-                                        queue.peek().getStreamId(), queue.peek().getStreamPartition(), publisherId, msgChainId));
-                            }
-                        } finally {
-                            clearGap();
-
-                            // TODO: make it configurable how to handle this error situation.
-                            // Currently unrecoverable gaps are just ignored, and processing continues from the next
-                            // message after the gap.
-                            log.warn("Unable to fill gap: Max retries reached! Ignoring the error and continuing from the first processable message: " + queue.peek().getMessageRef());
-                            lastReceived = queue.peek().getPreviousMessageRef();
-                            checkQueue();
-                        }
-                    }
-                }
+    private void scheduleGapCheck(long delay) {
+        long generation = gapGeneration;
+        // The timer only hands the check over, so that handlers never run on it
+        gap = timer.schedule(() -> handOverGapCheck(generation), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void handOverGapCheck(long generation) {
+        Executor executor = deliveryExecutor;
+        try {
+            (executor != null ? executor : getDefaultDeliveryExecutor()).execute(() -> checkGap(generation));
+        } catch (RejectedExecutionException e) {
+            log.debug("Not checking the gap of {}-{}, the delivery executor has been shut down", publisherId, msgChainId);
+        }
+    }
+
+    // Runs on the delivery executor
+    private void checkGap(long generation) {
+        // Sent outside the lock, so that add() doesn't wait for the resend request to be sent
+        Runnable request = nextGapRequest(generation);
+        if (request != null) {
+            request.run();
+        }
+    }
+
+    /**
+     * Checks the gap and schedules the next check.
+     *
+     * @return the request to send for the gap, or null if there's none
+     */
+    private synchronized Runnable nextGapRequest(long generation) {
+        if (generation != gapGeneration) {
+            return null;
+        }
+
+        // Make sure nothing further can be processed from the queue
+        checkQueue();
+
+        // Make sure a gapfill is still scheduled and there is a queued message
+        if (gap == null || queue.isEmpty()) {
+            return null;
+        }
+
+        MessageRef from = new MessageRef(lastReceived.getTimestamp(), lastReceived.getSequenceNumber() + 1);
+        MessageRef to = queue.peek().getPreviousMessageRef();
+
+        // Sanity check
+        if (from.compareTo(to) > 0) {
+            throw new IllegalStateException(String.format("From (%s) is after to (%s)!", from.toString(), to.toString()));
+        }
+
+        // Request gapfill from the primary and then the secondary source, or give up if max requests reached
+        if (gapRequestCount < gapFillPolicy.getMaxRequests()) {
+            gapRequestCount++;
+            gapFillPolicy.onRequest();
+            scheduleGapCheck(gapFillPolicy.getRetryDelay(gapRequestCount, resendTimeout));
+            if (gapHandler != null) {
+                return () -> gapHandler.apply(from, to, publisherId, msgChainId);
+            } else {
+                log.error(String.format("Failed to request gapfill because the gapHandler is null. streamId %s, streamPartition %d, publisherId %s, msgChainId %s.",
+                        queue.peek().getStreamId(), queue.peek().getStreamPartition(), publisherId, msgChainId));
+                return null;
             }
-        };
-        gap.schedule(task, propagationTimeout, resendTimeout);
+        } else if (secondaryRequestCount < gapFillPolicy.getMaxSecondaryRequests()) {
+            secondaryRequestCount++;
+            gapFillPolicy.onSecondaryRequest();
+            log.info("Requesting gap {} - {} of {}-{} from the secondary source (attempt {})",
+                    from, to, publisherId, msgChainId, secondaryRequestCount);
+            scheduleGapCheck(gapFillPolicy.getSecondaryRetryDelay(secondaryRequestCount, resendTimeout));
+            String streamId = queue.peek().getStreamId();
+            int streamPartition = queue.peek().getStreamPartition();
+            GapFillPolicy.SecondaryGapHandler secondaryHandler = gapFillPolicy.getSecondaryHandler();
+            return () -> secondaryHandler.apply(streamId, streamPartition, from, to, publisherId, msgChainId);
+        } else {
+            onUnfillableGap(from, to);
+            return null;
+        }
+    }
+
+    private void onUnfillableGap(MessageRef from, MessageRef to) {
+        GapFillPolicy.OnFailure onFailure = gapFillPolicy.getOnFailure();
+        gapFillPolicy.onFailure();
+        try {
+            if (gapFillFailedHandler != null) {
+                gapFillFailedHandler.apply(new GapFillFailedException(from, to, publisherId, msgChainId,
+                        gapRequestCount + secondaryRequestCount, onFailure == GapFillPolicy.OnFailure.FAIL_SUBSCRIPTION));
+            } else {
+                log.error(String.format("Failed to report failed gapfill because gapFillFailedHandler is null. streamId %s, streamPartition %d, publisherId %s, msgChainId %s.",
+                        queue.peek().getStreamId(), queue.peek().getStreamPartition(), publisherId, msgChainId));
+            }
+        } finally {
+            switch (onFailure) {
+                case SKIP:
+                    clearGap();
+                    log.warn("Unable to fill gap: Max retries reached! Ignoring the error and continuing from the first processable message: " + queue.peek().getMessageRef());
+                    lastReceived = queue.peek().getPreviousMessageRef();
+                    checkQueue();
+                    break;
+                case BLOCK_AND_ALERT:
+                    // Leave the (completed) gap in place: the chain keeps queueing messages until the gap
+                    // is filled, for example by a manual resend, the queue becomes full, or retryBlockedGap()
+                    blocked = true;
+                    log.error("Unable to fill gap {} - {} of {}-{}: Max retries reached! Waiting for the gap to be filled.",
+                            from, to, publisherId, msgChainId);
+                    break;
+                case FAIL_SUBSCRIPTION:
+                    clearGap();
+                    fail();
+                    log.error("Unable to fill gap {} - {} of {}-{}: Max retries reached! No further messages will be delivered.",
+                            from, to, publisherId, msgChainId);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Stops delivering messages and drops the queued ones.
+     */
+    synchronized void fail() {
+        failed = true;
+        clearGap();
+        queue.clear();
+        if (spill != null) {
+            spill.close();
+            spill = null;
+        }
     }
 
     // Used in unit test only
     boolean isQueueFull() {
-        return this.queue.size() == MAX_QUEUE_SIZE;
+        return this.queue.isFull();
+    }
+
+    // Used in unit test only
+    synchronized long getSpilledCount() {
+        return spill == null ? 0 : spill.size();
+    }
+
+    /**
+     * @return the process-wide thread that runs the gap checks of the chains that haven't been given a delivery executor
+     */
+    static Executor getDefaultDeliveryExecutor() {
+        return DefaultDeliveryExecutor.INSTANCE;
+    }
+
+    // Holds the default delivery executor, so that its thread is only started when a chain first needs it
+    private static class DefaultDeliveryExecutor {
+        private static final Executor INSTANCE = SharedTimer.create("streamr-gap-check");
     }
 
     @FunctionalInterface
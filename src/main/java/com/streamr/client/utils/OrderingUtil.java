@@ -1,15 +1,34 @@
 package com.streamr.client.utils;
 
 import com.streamr.client.exceptions.GapFillFailedException;
+import com.streamr.client.options.ChainEvictionOptions;
+import com.streamr.client.options.OrderingOptions;
 import com.streamr.client.protocol.message_layer.MessageRef;
 import com.streamr.client.protocol.message_layer.StreamMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.time.Clock;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 public class OrderingUtil {
+    private static final Logger log = LoggerFactory.getLogger(OrderingUtil.class);
+    // Rough heap footprint of a remembered evicted chain
+    private static final long EVICTED_CHAIN_BYTES = 200;
+
     private String streamId;
     private int streamPartition;
     private Consumer<StreamMessage> inOrderHandler;
@@ -18,7 +37,23 @@ public class OrderingUtil {
     private long propagationTimeout;
     private long resendTimeout;
     private boolean skipGapsOnFullQueue = false;
-    private HashMap<String, OrderedMsgChain> chains = new HashMap<>();
+    private final ScheduledExecutorService timer;
+    // Runs the tasks that take the locks of the chains, which may be held while delivering to a slow handler
+    private volatile Executor deliveryExecutor = null;
+    private File spillDirectory = null;
+    private GapFillPolicy gapFillPolicy = null;
+    // Set when a chain fails with GapFillPolicy.OnFailure.FAIL_SUBSCRIPTION
+    private volatile boolean failed = false;
+    // Chains by [publisherId, msgChainId]. Nested maps avoid building a composite key for every message.
+    private final ConcurrentHashMap<Address, ConcurrentHashMap<String, OrderedMsgChain>> chainsByPublisher = new ConcurrentHashMap<>();
+
+    // Eviction state below is guarded by this
+    private ChainEvictionOptions evictionOptions = null;
+    private final Map<Address, Map<String, EvictedChain>> evictedByPublisher = new HashMap<>();
+    private int chainCount = 0;
+    private volatile long nextEvictionCheck = Long.MAX_VALUE;
+    private final AtomicBoolean evictionCheckScheduled = new AtomicBoolean(false);
+    private Clock clock = Clock.systemUTC();
 
     public OrderingUtil(
             String streamId,
@@ -28,7 +63,8 @@ public class OrderingUtil {
             Function<GapFillFailedException, Void> gapFillFailedHandler,
             long propagationTimeout,
             long resendTimeout,
-            boolean skipGapsOnFullQueue) {
+            boolean skipGapsOnFullQueue,
+            ScheduledExecutorService timer) {
         this.streamId = streamId;
         this.streamPartition = streamPartition;
         this.inOrderHandler = inOrderHandler;
@@ -37,6 +73,36 @@ public class OrderingUtil {
         this.propagationTimeout = propagationTimeout;
         this.resendTimeout = resendTimeout;
         this.skipGapsOnFullQueue = skipGapsOnFullQueue;
+        this.timer = timer;
+    }
+    public OrderingUtil(
+            String streamId,
+            int streamPartition,
+            Consumer<StreamMessage> inOrderHandler,
+            OrderedMsgChain.GapHandlerFunction gapHandler,
+            Function<GapFillFailedException, Void> gapFillFailedHandler,
+            long propagationTimeout,
+            long resendTimeout,
+            boolean skipGapsOnFullQueue) {
+        this(streamId, streamPartition, inOrderHandler, gapHandler, gapFillFailedHandler,
+                propagationTimeout, resendTimeout, skipGapsOnFullQueue, SharedTimer.getDefault());
+    }
+    public OrderingUtil(
+            String streamId,
+            int streamPartition,
+            Consumer<StreamMessage> inOrderHandler,
+            OrderedMsgChain.GapHandlerFunction gapHandler,
+            Function<GapFillFailedException, Void> gapFillFailedHandler,
+            long propagationTimeout,
+            long resendTimeout,
+            boolean skipGapsOnFullQueue,
+            OrderingOptions orderingOptions) {
+        this(streamId, streamPartition, inOrderHandler, gapHandler, gapFillFailedHandler,
+                propagationTimeout, resendTimeout, skipGapsOnFullQueue);
+        setSpillDirectory(orderingOptions.getSpillDirectory());
+        setGapFillPolicy(orderingOptions.getGapFillPolicy());
+        setChainEvictionOptions(orderingOptions.getChainEvictionOptions());
+        setDeliveryExecutor(orderingOptions.getDeliveryExecutor());
     }
     public OrderingUtil(
             String streamId,
@@ -52,28 +118,192 @@ public class OrderingUtil {
     }
 
     public void add(StreamMessage unorderedMsg) {
-        OrderedMsgChain chain = getChain(unorderedMsg.getPublisherId(), unorderedMsg.getMsgChainId());
-        chain.add(unorderedMsg);
+        if (failed) {
+            return;
+        }
+        // Retry if the chain got evicted between the lookup and the add
+        while (!getChain(unorderedMsg.getPublisherId(), unorderedMsg.getMsgChainId()).addIfNotEvicted(unorderedMsg)) {
+            log.trace("Chain {}-{} was evicted concurrently, retrying", unorderedMsg.getPublisherId(), unorderedMsg.getMsgChainId());
+        }
+        if (clock.millis() >= nextEvictionCheck && evictionCheckScheduled.compareAndSet(false, true)) {
+            // The check takes the lock of every chain, so it runs on the delivery executor rather than on
+            // the message path
+            boolean scheduled = executeOffMessagePath(() -> {
+                try {
+                    evictIdleChains();
+                } finally {
+                    evictionCheckScheduled.set(false);
+                }
+            });
+            if (!scheduled) {
+                evictionCheckScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * @return true if the chain of the message has already received it or a later message. Chains that
+     * haven't been created, or have been evicted, don't know the message and return false.
+     */
+    public boolean isDuplicate(StreamMessage msg) {
+        ConcurrentHashMap<String, OrderedMsgChain> chainsByMsgChainId = chainsByPublisher.get(msg.getPublisherId());
+        OrderedMsgChain chain = chainsByMsgChainId != null ? chainsByMsgChainId.get(msg.getMsgChainId()) : null;
+        return chain != null && chain.isDuplicate(msg.getTimestamp(), msg.getSequenceNumber());
     }
 
     public void clearGaps() {
-        for (OrderedMsgChain chain: chains.values()) {
-            chain.clearGap();
+        for (ConcurrentHashMap<String, OrderedMsgChain> chainsByMsgChainId : chainsByPublisher.values()) {
+            for (OrderedMsgChain chain : chainsByMsgChainId.values()) {
+                chain.clearGap();
+            }
+        }
+    }
+
+    private OrderedMsgChain getChain(Address publisherId, String msgChainId) {
+        // Fast path: two lock-free lookups without allocation, using the hash codes cached in the keys
+        ConcurrentHashMap<String, OrderedMsgChain> chainsByMsgChainId = chainsByPublisher.get(publisherId);
+        if (chainsByMsgChainId != null) {
+            OrderedMsgChain chain = chainsByMsgChainId.get(msgChainId);
+            if (chain != null) {
+                return chain;
+            }
+        }
+        return getOrCreateChain(publisherId, msgChainId);
+    }
+
+    private synchronized OrderedMsgChain getOrCreateChain(Address publisherId, String msgChainId) {
+        ConcurrentHashMap<String, OrderedMsgChain> chainsByMsgChainId = chainsByPublisher.computeIfAbsent(publisherId, p -> new ConcurrentHashMap<>());
+        OrderedMsgChain chain = chainsByMsgChainId.get(msgChainId);
+        if (chain == null) {
+            if (evictionOptions != null && evictionOptions.getMaxChains() > 0 && chainCount >= evictionOptions.getMaxChains()) {
+                evictLeastRecentlyActiveChain();
+            }
+            chain = createChain(publisherId, msgChainId);
+            EvictedChain evicted = removeEvicted(publisherId, msgChainId);
+            if (evicted != null) {
+                chain.setLastReceived(evicted.lastReceived);
+            }
+            chainsByMsgChainId.put(msgChainId, chain);
+            chainCount++;
+        }
+        return chain;
+    }
+
+    private OrderedMsgChain createChain(Address publisherId, String msgChainId) {
+        OrderedMsgChain chain = new OrderedMsgChain(publisherId, msgChainId, inOrderHandler,
+                gapHandler, this::handleGapFillFailed, propagationTimeout, resendTimeout,
+                skipGapsOnFullQueue, timer);
+        chain.setSpillDirectory(spillDirectory);
+        chain.setGapFillPolicy(gapFillPolicy);
+        chain.setDeliveryExecutor(deliveryExecutor);
+        chain.setClock(clock);
+        return chain;
+    }
+
+    /**
+     * @return false if the executor has been shut down
+     */
+    private boolean executeOffMessagePath(Runnable task) {
+        Executor executor = deliveryExecutor;
+        try {
+            (executor != null ? executor : OrderedMsgChain.getDefaultDeliveryExecutor()).execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            log.debug("Delivery executor of stream {} partition {} has been shut down", streamId, streamPartition);
+            return false;
         }
     }
 
-    private synchronized OrderedMsgChain getChain(Address publisherId, String msgChainId) {
-        String key = publisherId + msgChainId;
-        if (!chains.containsKey(key)) {
-            chains.put(key, new OrderedMsgChain(publisherId, msgChainId, inOrderHandler,
-                    gapHandler, gapFillFailedHandler, propagationTimeout, resendTimeout,
-                    skipGapsOnFullQueue));
+    private Void handleGapFillFailed(GapFillFailedException e) {
+        if (e.isSubscriptionFailed() && !failed) {
+            failed = true;
+            // Stop the other chains outside of the failing chain's lock
+            executeOffMessagePath(() -> {
+                for (OrderedMsgChain chain : getChains()) {
+                    chain.fail();
+                }
+            });
+        }
+        if (gapFillFailedHandler != null) {
+            return gapFillFailedHandler.apply(e);
         }
-        return chains.get(key);
+        log.error("Unhandled gap fill failure on stream {} partition {}", streamId, streamPartition, e);
+        return null;
     }
 
     public ArrayList<OrderedMsgChain> getChains() {
-        return new ArrayList<>(chains.values());
+        ArrayList<OrderedMsgChain> result = new ArrayList<>();
+        for (ConcurrentHashMap<String, OrderedMsgChain> chainsByMsgChainId : chainsByPublisher.values()) {
+            result.addAll(chainsByMsgChainId.values());
+        }
+        return result;
+    }
+
+    /**
+     * @return a checkpoint of the last received message of each chain that has received messages
+     */
+    public List<Checkpoint> getCheckpoints() {
+        List<Checkpoint> result = new ArrayList<>();
+        for (OrderedMsgChain chain : getChains()) {
+            MessageRef lastReceived = chain.getLastReceived();
+            if (lastReceived != null) {
+                result.add(new Checkpoint(streamId, streamPartition, chain.getPublisherId(), chain.getMsgChainId(), lastReceived));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see OrderedMsgChain#setSpillDirectory(File)
+     */
+    public void setSpillDirectory(File spillDirectory) {
+        this.spillDirectory = spillDirectory;
+        for (OrderedMsgChain chain : getChains()) {
+            chain.setSpillDirectory(spillDirectory);
+        }
+    }
+
+    /**
+     * @see OrderedMsgChain#setGapFillPolicy(GapFillPolicy)
+     */
+    public void setGapFillPolicy(GapFillPolicy gapFillPolicy) {
+        this.gapFillPolicy = gapFillPolicy;
+        for (OrderedMsgChain chain : getChains()) {
+            chain.setGapFillPolicy(gapFillPolicy);
+        }
+    }
+
+    /**
+     * @see OrderedMsgChain#setDeliveryExecutor(Executor)
+     */
+    public void setDeliveryExecutor(Executor deliveryExecutor) {
+        this.deliveryExecutor = deliveryExecutor;
+        for (OrderedMsgChain chain : getChains()) {
+            chain.setDeliveryExecutor(deliveryExecutor);
+        }
+    }
+
+    /**
+     * @return true if the subscription has stopped delivering messages because of an unfillable gap
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Starts requesting the gaps of the chains blocked by GapFillPolicy.OnFailure.BLOCK_AND_ALERT again.
+     *
+     * @return number of chains that were blocked
+     * @see OrderedMsgChain#retryBlockedGap()
+     */
+    public int retryBlockedGaps() {
+        int count = 0;
+        for (OrderedMsgChain chain : getChains()) {
+            if (chain.retryBlockedGap()) {
+                count++;
+            }
+        }
+        return count;
     }
 
     public OrderedMsgChain.GapHandlerFunction getGapHandler() {
@@ -82,13 +312,151 @@ public class OrderingUtil {
 
     public synchronized void addChains(ArrayList<OrderedMsgChain> previousChains) {
         for (OrderedMsgChain chain: previousChains) {
-            String key = chain.getPublisherId() + chain.getMsgChainId();
-            OrderedMsgChain newChain = new OrderedMsgChain(chain.getPublisherId(), chain.getMsgChainId(),
-                    inOrderHandler, gapHandler, gapFillFailedHandler, propagationTimeout, resendTimeout,
-                    skipGapsOnFullQueue);
-            newChain.setLastReceived(chain.getLastReceived());
-            chains.put(key, newChain);
+            putChain(chain.getPublisherId(), chain.getMsgChainId(), chain.getLastReceived());
+        }
+    }
+
+    /**
+     * Seeds the chains with the persisted checkpoints, so that messages up to and including each
+     * checkpoint are dropped as duplicates and older gaps are detected.
+     */
+    public synchronized void addCheckpoints(Collection<Checkpoint> checkpoints) {
+        for (Checkpoint checkpoint : checkpoints) {
+            putChain(checkpoint.getPublisherId(), checkpoint.getMsgChainId(), checkpoint.getLastReceived());
+        }
+    }
+
+    private void putChain(Address publisherId, String msgChainId, MessageRef lastReceived) {
+        OrderedMsgChain newChain = createChain(publisherId, msgChainId);
+        newChain.setLastReceived(lastReceived);
+        OrderedMsgChain replaced = chainsByPublisher
+                .computeIfAbsent(publisherId, p -> new ConcurrentHashMap<>())
+                .put(msgChainId, newChain);
+        if (replaced == null) {
+            chainCount++;
+        }
+    }
+
+    /**
+     * Enables evicting idle chains. Null disables eviction.
+     */
+    public synchronized void setChainEvictionOptions(ChainEvictionOptions evictionOptions) {
+        this.evictionOptions = evictionOptions;
+        nextEvictionCheck = evictionOptions == null ? Long.MAX_VALUE : clock.millis() + getEvictionCheckInterval();
+    }
+
+    // Used in unit tests only, before adding messages
+    synchronized void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    public synchronized int getChainCount() {
+        return chainCount;
+    }
+
+    /**
+     * Rough estimate of the heap used by the chains of this OrderingUtil, mostly by the messages queued
+     * while waiting for gaps to be filled.
+     */
+    public long estimateMemoryUsage() {
+        long result = 0;
+        for (OrderedMsgChain chain : getChains()) {
+            result += chain.estimateMemoryUsage();
+        }
+        synchronized (this) {
+            for (Map<String, EvictedChain> evictedByMsgChainId : evictedByPublisher.values()) {
+                result += evictedByMsgChainId.size() * EVICTED_CHAIN_BYTES;
+            }
+        }
+        return result;
+    }
+
+    synchronized void evictIdleChains() {
+        long now = clock.millis();
+        if (evictionOptions == null || now < nextEvictionCheck) {
+            return;
+        }
+        nextEvictionCheck = now + getEvictionCheckInterval();
+
+        long idleSince = now - evictionOptions.getIdleTimeoutMillis();
+        Iterator<Map.Entry<Address, ConcurrentHashMap<String, OrderedMsgChain>>> publisherIt = chainsByPublisher.entrySet().iterator();
+        while (publisherIt.hasNext()) {
+            ConcurrentHashMap<String, OrderedMsgChain> chainsByMsgChainId = publisherIt.next().getValue();
+            Iterator<OrderedMsgChain> chainIt = chainsByMsgChainId.values().iterator();
+            while (chainIt.hasNext()) {
+                OrderedMsgChain chain = chainIt.next();
+                if (chain.markEvictedIfIdle(idleSince)) {
+                    chainIt.remove();
+                    rememberEvicted(chain, now);
+                }
+            }
+            // Safe because chains are only added under this lock
+            if (chainsByMsgChainId.isEmpty()) {
+                publisherIt.remove();
+            }
+        }
+
+        // Forget evicted chains after the grace period
+        long evictedBefore = now - evictionOptions.getGracePeriodMillis();
+        Iterator<Map<String, EvictedChain>> evictedIt = evictedByPublisher.values().iterator();
+        while (evictedIt.hasNext()) {
+            Map<String, EvictedChain> evictedByMsgChainId = evictedIt.next();
+            evictedByMsgChainId.values().removeIf(evicted -> evicted.evictedAt < evictedBefore);
+            if (evictedByMsgChainId.isEmpty()) {
+                evictedIt.remove();
+            }
+        }
+    }
+
+    private void evictLeastRecentlyActiveChain() {
+        OrderedMsgChain candidate = null;
+        for (OrderedMsgChain chain : getChains()) {
+            if (candidate == null || chain.getLastActivity() < candidate.getLastActivity()) {
+                candidate = chain;
+            }
+        }
+        long now = clock.millis();
+        if (candidate != null && candidate.markEvictedIfIdle(now)) {
+            chainsByPublisher.get(candidate.getPublisherId()).remove(candidate.getMsgChainId());
+            rememberEvicted(candidate, now);
+        } else {
+            log.warn("Stream {} partition {} has reached maxChains ({}) but the least recently active chain is waiting for a gap fill. Not evicting.",
+                    streamId, streamPartition, evictionOptions.getMaxChains());
+        }
+    }
+
+    private void rememberEvicted(OrderedMsgChain chain, long now) {
+        chainCount--;
+        if (chain.getLastReceived() != null && evictionOptions.getGracePeriodMillis() > 0) {
+            evictedByPublisher.computeIfAbsent(chain.getPublisherId(), p -> new HashMap<>())
+                    .put(chain.getMsgChainId(), new EvictedChain(chain.getLastReceived(), now));
+        }
+        log.debug("Evicted idle chain {}-{} of stream {} partition {}", chain.getPublisherId(), chain.getMsgChainId(), streamId, streamPartition);
+    }
+
+    private EvictedChain removeEvicted(Address publisherId, String msgChainId) {
+        Map<String, EvictedChain> evictedByMsgChainId = evictedByPublisher.get(publisherId);
+        if (evictedByMsgChainId == null) {
+            return null;
+        }
+        EvictedChain result = evictedByMsgChainId.remove(msgChainId);
+        if (evictedByMsgChainId.isEmpty()) {
+            evictedByPublisher.remove(publisherId);
+        }
+        return result;
+    }
+
+    private long getEvictionCheckInterval() {
+        return Math.max(1000, evictionOptions.getIdleTimeoutMillis() / 2);
+    }
+
+    private static class EvictedChain {
+        private final MessageRef lastReceived;
+        private final long evictedAt;
 
+        private EvictedChain(MessageRef lastReceived, long evictedAt) {
+            this.lastReceived = lastReceived;
+            this.evictedAt = evictedAt;
         }
     }
 
@@ -0,0 +1,78 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.exceptions.RequestTimeoutException;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correlates requests with their responses by requestId. A registered request's future is completed by
+ * complete() or fail() when the response arrives, or completed exceptionally with a RequestTimeoutException
+ * if no response arrives within the timeout. Thread-safe.
+ */
+public class PendingRequests {
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final long timeoutMillis;
+    private final ScheduledExecutorService timer;
+
+    public PendingRequests(long timeoutMillis, ScheduledExecutorService timer) {
+        this.timeoutMillis = timeoutMillis;
+        this.timer = timer;
+    }
+
+    public PendingRequests(long timeoutMillis) {
+        this(timeoutMillis, SharedTimer.getDefault());
+    }
+
+    /**
+     * Registers the future to be completed by the response to the request. Must be called before the request
+     * is sent, so that the response can't arrive before the registration.
+     */
+    public void register(String requestId, CompletableFuture<Void> future) {
+        pending.put(requestId, future);
+        ScheduledFuture<?> timeout = timer.schedule(() -> {
+            if (pending.remove(requestId, future)) {
+                future.completeExceptionally(new RequestTimeoutException(requestId, timeoutMillis));
+            }
+        }, timeoutMillis, TimeUnit.MILLISECONDS);
+        future.whenComplete((result, e) -> {
+            timeout.cancel(false);
+            pending.remove(requestId, future);
+        });
+    }
+
+    /**
+     * @return false if there is no pending request with the requestId
+     */
+    public boolean complete(String requestId) {
+        CompletableFuture<Void> future = requestId == null ? null : pending.remove(requestId);
+        return future != null && future.complete(null);
+    }
+
+    /**
+     * @return false if there is no pending request with the requestId
+     */
+    public boolean fail(String requestId, Throwable e) {
+        CompletableFuture<Void> future = requestId == null ? null : pending.remove(requestId);
+        return future != null && future.completeExceptionally(e);
+    }
+
+    /**
+     * Completes all pending requests exceptionally, for example when the client disconnects.
+     */
+    public void failAll(Throwable e) {
+        for (Map.Entry<String, CompletableFuture<Void>> entry : pending.entrySet()) {
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().completeExceptionally(e);
+            }
+        }
+    }
+
+    public int size() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,305 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of published StreamMessages that could not be sent because the connection was down.
+ * The messages are stored as created, ie. with their MessageIDs, prevMsgRefs and signatures, and are replayed
+ * in the same order once the connection is back, so the publisher's message chains stay unbroken.
+ *
+ * The journal is a sequence of memory-mapped segment files in a directory. Each record is the length of the
+ * message followed by the bytes of StreamMessage.toBytes(); a zero length marks the end of the written data.
+ * A new segment is started when the current one is full, and a segment is deleted once all of its messages
+ * have been replayed. Segments left behind by a previous process are picked up on startup. Since the replay
+ * position isn't persisted, a crash during a replay causes the already replayed messages of the oldest segment
+ * to be sent again; subscribers drop them as duplicates. A record that can't be parsed is moved to a file of
+ * its own in the directory (named corrupted-*) and skipped, so that it doesn't block the messages after it.
+ *
+ * close() releases the segment files, and the next append() or replay() opens them again, so the journal can
+ * be closed when the client disconnects and used again after a reconnect. The replay positions are kept in
+ * memory across close(), so a replay interrupted by a disconnect doesn't send the replayed messages again.
+ *
+ * Writes go to the page cache, so the journal survives a crash of the process but not necessarily of the OS.
+ */
+public class PublishJournal implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(PublishJournal.class);
+    private static final String PREFIX = "journal-";
+    private static final String SUFFIX = ".seg";
+    private static final String CORRUPTED_PREFIX = "corrupted-";
+
+    private final File directory;
+    private final int segmentSize;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentIndex = 0;
+    private long pendingCount = 0;
+    private boolean closed = false;
+    // Replay positions of the segments by index, from close() until the segments are opened again
+    private final Map<Long, Integer> readPositions = new HashMap<>();
+
+    public PublishJournal(File directory, int segmentSize) throws IOException {
+        if (segmentSize < 1024) {
+            throw new IllegalArgumentException("segmentSize must be at least 1024 bytes");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create journal directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        openSegments();
+    }
+
+    private void openSegments() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                Segment segment = Segment.open(file, parseIndex(file), 0);
+                Integer readPosition = readPositions.get(segment.index);
+                if (readPosition != null) {
+                    segment.skipTo(readPosition);
+                }
+                segments.add(segment);
+                pendingCount += segment.unread;
+                nextSegmentIndex = segment.index + 1;
+            }
+        }
+        readPositions.clear();
+        if (pendingCount > 0) {
+            log.info("Found {} unsent messages in publish journal {}", pendingCount, directory);
+        }
+    }
+
+    public synchronized void append(StreamMessage msg) {
+        byte[] bytes = msg.toBytes();
+        try {
+            reopenIfClosed();
+            Segment segment = segments.peekLast();
+            if (segment == null || !segment.hasRoomFor(bytes.length)) {
+                if (segment != null) {
+                    segment.buffer.force();
+                }
+                // An oversized message gets a segment of its own
+                segment = Segment.open(segmentFile(nextSegmentIndex), nextSegmentIndex,
+                        Math.max(segmentSize, bytes.length + 8));
+                nextSegmentIndex++;
+                segments.add(segment);
+            }
+            segment.append(bytes);
+            pendingCount++;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write message " + msg.getMessageRef() + " to publish journal " + directory, e);
+        }
+    }
+
+    /**
+     * Passes the journaled messages to the sender in the order they were appended. If the sender throws,
+     * the replay stops and the message that failed is the first one passed on the next replay.
+     * Records that can't be parsed are quarantined and skipped.
+     */
+    public synchronized void replay(Consumer<StreamMessage> sender) {
+        try {
+            reopenIfClosed();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open publish journal " + directory, e);
+        }
+        Segment segment;
+        while ((segment = segments.peekFirst()) != null) {
+            while (segment.unread > 0) {
+                byte[] bytes = segment.peek();
+                StreamMessage msg;
+                try {
+                    msg = StreamMessage.fromBytes(bytes);
+                } catch (IOException | RuntimeException e) {
+                    quarantine(segment, bytes, e);
+                    segment.skip();
+                    pendingCount--;
+                    continue;
+                }
+                sender.accept(msg);
+                segment.skip();
+                pendingCount--;
+            }
+            segments.removeFirst();
+            segment.delete();
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return pendingCount == 0;
+    }
+
+    /**
+     * @return number of messages waiting to be replayed
+     */
+    public synchronized long size() {
+        return pendingCount;
+    }
+
+    /**
+     * Forces the written data to the storage device.
+     */
+    public synchronized void flush() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /**
+     * Releases the segment files. The unsent messages stay in them and are picked up when the journal is used
+     * again, from where the last replay stopped.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        for (Segment segment : segments) {
+            if (segment.readPosition > 0) {
+                readPositions.put(segment.index, segment.readPosition);
+            }
+            segment.close();
+        }
+        segments.clear();
+        pendingCount = 0;
+        closed = true;
+    }
+
+    private void reopenIfClosed() throws IOException {
+        if (closed) {
+            closed = false;
+            openSegments();
+        }
+    }
+
+    private void quarantine(Segment segment, byte[] bytes, Exception cause) {
+        File target = new File(directory, String.format("%s%020d-%d", CORRUPTED_PREFIX, segment.index, segment.readPosition));
+        try {
+            Files.write(target.toPath(), bytes);
+            log.error("Corrupted record in publish journal segment {}, moved it to {}", segment.file, target, cause);
+        } catch (IOException e) {
+            log.error("Corrupted record in publish journal segment {}, dropped it", segment.file, cause);
+        }
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, String.format("%s%020d%s", PREFIX, index, SUFFIX));
+    }
+
+    private static long parseIndex(File file) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static class Segment {
+        private final File file;
+        private final long index;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private int readPosition = 0;
+        private int writePosition = 0;
+        private long unread = 0;
+
+        private Segment(File file, long index, FileChannel channel, MappedByteBuffer buffer) {
+            this.file = file;
+            this.index = index;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Maps the file, creating it with the given size if it doesn't exist, and finds the end of the written data.
+         */
+        private static Segment open(File file, long index, int size) throws IOException {
+            FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+            MappedByteBuffer buffer;
+            try {
+                long length = file.length() > 0 ? file.length() : size;
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            Segment segment = new Segment(file, index, channel, buffer);
+            while (segment.writePosition + 4 <= buffer.limit()) {
+                int recordLength = buffer.getInt(segment.writePosition);
+                if (recordLength <= 0 || segment.writePosition + 4 + recordLength > buffer.limit()) {
+                    break;
+                }
+                segment.writePosition += 4 + recordLength;
+                segment.unread++;
+            }
+            return segment;
+        }
+
+        private boolean hasRoomFor(int recordLength) {
+            // Leave room for the terminating zero length
+            return writePosition + 4 + recordLength + 4 <= buffer.limit();
+        }
+
+        private void append(byte[] bytes) {
+            // Write the data before the length, so that a torn write is never read as a record
+            int dataPosition = writePosition + 4;
+            ByteBuffer data = buffer.duplicate();
+            data.position(dataPosition);
+            data.put(bytes);
+            buffer.putInt(writePosition, bytes.length);
+            writePosition = dataPosition + bytes.length;
+            unread++;
+        }
+
+        private byte[] peek() {
+            int recordLength = buffer.getInt(readPosition);
+            byte[] bytes = new byte[recordLength];
+            ByteBuffer data = buffer.duplicate();
+            data.position(readPosition + 4);
+            data.get(bytes);
+            return bytes;
+        }
+
+        private void skip() {
+            readPosition += 4 + buffer.getInt(readPosition);
+            unread--;
+        }
+
+        /**
+         * Skips the records before the given read position, eg. the ones replayed before the segment was closed.
+         */
+        private void skipTo(int position) {
+            while (unread > 0 && readPosition < position) {
+                skip();
+            }
+        }
+
+        private void close() {
+            try {
+                buffer.force();
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close publish journal segment {}", file, e);
+            }
+        }
+
+        private void delete() {
+            close();
+            if (!file.delete()) {
+                log.warn("Failed to delete publish journal segment {}", file);
+            }
+        }
+    }
+}
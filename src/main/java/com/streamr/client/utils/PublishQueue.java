@@ -0,0 +1,200 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.exceptions.PublishQueueFullException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded queue of publish tasks drained by a single dedicated sender thread, so that producers don't wait
+ * for message creation, encryption, signing and websocket writes. Tasks are run in submission order, which keeps
+ * the message chains of the publisher in order.
+ *
+ * When the queue is full, submit() blocks (BLOCK), returns an exceptionally completed future (DROP) or throws
+ * PublishQueueFullException (FAIL).
+ *
+ * close() stops the sender thread. The tasks that haven't run by then, and the ones submitted afterwards,
+ * are completed exceptionally.
+ */
+public class PublishQueue {
+    private static final Logger log = LoggerFactory.getLogger(PublishQueue.class);
+
+    public enum FullPolicy {
+        BLOCK,
+        DROP,
+        FAIL
+    }
+
+    private final int capacity;
+    private final FullPolicy fullPolicy;
+    private final BlockingQueue<Task<?>> queue;
+    private final Thread senderThread;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private volatile long lastLatencyNanos = 0;
+    private volatile boolean closed = false;
+
+    public PublishQueue(int capacity, FullPolicy fullPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+        this.fullPolicy = fullPolicy;
+        queue = new ArrayBlockingQueue<>(capacity);
+        senderThread = new Thread(this::drain, "streamr-publish-sender");
+        senderThread.setDaemon(true);
+        senderThread.start();
+    }
+
+    /**
+     * Queues the task to be run on the sender thread.
+     *
+     * @return a future completed with the result of the task once it has run
+     * @throws PublishQueueFullException if the queue is full and the policy is FAIL
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> supplier) {
+        Task<T> task = new Task<>(supplier);
+        if (closed) {
+            task.future.completeExceptionally(new IllegalStateException("Publish queue is closed"));
+            return task.future;
+        }
+        switch (fullPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(task);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    task.future.completeExceptionally(e);
+                }
+                break;
+            case DROP:
+                if (!queue.offer(task)) {
+                    droppedCount.incrementAndGet();
+                    task.future.completeExceptionally(new PublishQueueFullException(capacity));
+                }
+                break;
+            case FAIL:
+                if (!queue.offer(task)) {
+                    rejectedCount.incrementAndGet();
+                    throw new PublishQueueFullException(capacity);
+                }
+                break;
+        }
+        // close() may have emptied the queue before the task was added
+        if (closed && queue.remove(task)) {
+            task.future.completeExceptionally(new IllegalStateException("Publish queue is closed"));
+        }
+        return task.future;
+    }
+
+    /**
+     * Stops the sender thread and completes the queued tasks exceptionally. A task that is running is let finish.
+     */
+    public void close() {
+        closed = true;
+        senderThread.interrupt();
+        Task<?> task;
+        while ((task = queue.poll()) != null) {
+            task.future.completeExceptionally(new IllegalStateException("Publish queue is closed"));
+        }
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return number of tasks waiting to be run
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return number of tasks dropped because the queue was full (FullPolicy.DROP)
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return number of submit() calls that threw because the queue was full (FullPolicy.FAIL)
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return average time from submit() to the completion of a task, in milliseconds
+     */
+    public double getAverageLatencyMillis() {
+        long count = sentCount.get() + failedCount.get();
+        return count == 0 ? 0 : totalLatencyNanos.get() / (count * 1e6);
+    }
+
+    /**
+     * @return time from submit() to the completion of the most recently completed task, in milliseconds
+     */
+    public double getLastLatencyMillis() {
+        return lastLatencyNanos / 1e6;
+    }
+
+    private void drain() {
+        while (!closed) {
+            Task<?> task;
+            try {
+                task = queue.take();
+            } catch (InterruptedException e) {
+                log.debug("Publish sender thread interrupted, exiting");
+                return;
+            }
+            task.run();
+            long latency = System.nanoTime() - task.enqueuedAt;
+            lastLatencyNanos = latency;
+            totalLatencyNanos.addAndGet(latency);
+        }
+    }
+
+    private class Task<T> {
+        private final Supplier<T> supplier;
+        private final CompletableFuture<T> future = new CompletableFuture<>();
+        private final long enqueuedAt = System.nanoTime();
+
+        private Task(Supplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        private void run() {
+            try {
+                T result = supplier.get();
+                sentCount.incrementAndGet();
+                future.complete(result);
+            } catch (Throwable e) {
+                failedCount.incrementAndGet();
+                log.warn("Failed to publish", e);
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
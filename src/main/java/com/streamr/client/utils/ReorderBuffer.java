@@ -0,0 +1,223 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.StreamMessage;
+
+import java.util.Arrays;
+
+/**
+ * Bounded queue of out-of-order StreamMessages of a single message chain, ordered by (timestamp, sequenceNumber).
+ *
+ * The messages are kept sorted in a ring buffer whose head is the message closest to the last received one.
+ * The ordering keys are stored in primitive arrays next to the messages, so comparisons don't allocate
+ * (unlike comparing the MessageRefs created by StreamMessage.getMessageRef()). Messages usually arrive
+ * roughly in order even when there is a gap, so most inserts are appends at the tail and most removals
+ * are at the head, both O(1). The backing arrays grow on demand up to the given capacity.
+ *
+ * Not thread-safe, the owning OrderedMsgChain synchronizes access.
+ */
+class ReorderBuffer {
+    private static final int INITIAL_SIZE = 16;
+
+    private final int capacity;
+    private long[] timestamps;
+    private long[] sequenceNumbers;
+    private StreamMessage[] messages;
+    private int head = 0;
+    private int size = 0;
+
+    ReorderBuffer(int capacity) {
+        this.capacity = capacity;
+        int initialSize = Math.min(INITIAL_SIZE, capacity);
+        timestamps = new long[initialSize];
+        sequenceNumbers = new long[initialSize];
+        messages = new StreamMessage[initialSize];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * Inserts the message at its sorted position. A message with the same (timestamp, sequenceNumber) as a
+     * message already in the buffer is a duplicate and is ignored.
+     *
+     * @return false if the buffer is full and the message was not added
+     */
+    boolean offer(StreamMessage msg) {
+        long timestamp = msg.getTimestamp();
+        long sequenceNumber = msg.getSequenceNumber();
+
+        // Find the insertion point: the common case of a newest message is checked first
+        int pos;
+        if (size == 0 || compare(timestamp, sequenceNumber, size - 1) > 0) {
+            pos = size;
+        } else {
+            pos = search(timestamp, sequenceNumber);
+            if (pos < 0) {
+                return true; // duplicate
+            }
+        }
+
+        if (size == capacity) {
+            return false;
+        }
+        if (size == messages.length) {
+            grow();
+        }
+
+        // Shift the newer messages one slot towards the tail
+        for (int i = size; i > pos; i--) {
+            int to = index(i);
+            int from = index(i - 1);
+            timestamps[to] = timestamps[from];
+            sequenceNumbers[to] = sequenceNumbers[from];
+            messages[to] = messages[from];
+        }
+        int idx = index(pos);
+        timestamps[idx] = timestamp;
+        sequenceNumbers[idx] = sequenceNumber;
+        messages[idx] = msg;
+        size++;
+        return true;
+    }
+
+    /**
+     * Returns the oldest message without removing it, or null if the buffer is empty.
+     */
+    StreamMessage peek() {
+        return size == 0 ? null : messages[head];
+    }
+
+    /**
+     * Returns the newest message without removing it, or null if the buffer is empty.
+     */
+    StreamMessage peekLast() {
+        return size == 0 ? null : messages[index(size - 1)];
+    }
+
+    /**
+     * Removes and returns the oldest message, or null if the buffer is empty.
+     */
+    StreamMessage poll() {
+        if (size == 0) {
+            return null;
+        }
+        StreamMessage msg = messages[head];
+        messages[head] = null;
+        head = index(1);
+        size--;
+        return msg;
+    }
+
+    /**
+     * Removes and returns the newest message, or null if the buffer is empty.
+     */
+    StreamMessage pollLast() {
+        if (size == 0) {
+            return null;
+        }
+        int idx = index(size - 1);
+        StreamMessage msg = messages[idx];
+        messages[idx] = null;
+        size--;
+        return msg;
+    }
+
+    /**
+     * Compares the oldest message to the given (timestamp, sequenceNumber) without allocating.
+     * Must not be called on an empty buffer.
+     */
+    int compareHeadTo(long timestamp, long sequenceNumber) {
+        return compare(timestamps[head], sequenceNumbers[head], timestamp, sequenceNumber);
+    }
+
+    /**
+     * Compares the newest message to the given (timestamp, sequenceNumber) without allocating.
+     * Must not be called on an empty buffer.
+     */
+    int compareTailTo(long timestamp, long sequenceNumber) {
+        int idx = index(size - 1);
+        return compare(timestamps[idx], sequenceNumbers[idx], timestamp, sequenceNumber);
+    }
+
+    /**
+     * Rough estimate of the heap used by the buffer: the backing arrays plus, per message,
+     * the given overhead and the content and signature strings. Doesn't decode lazily decoded messages.
+     */
+    long estimateMemoryUsage(long messageOverheadBytes) {
+        long result = (long) messages.length * (8 + 8 + 8);
+        for (int i = 0; i < size; i++) {
+            StreamMessage msg = messages[index(i)];
+            result += messageOverheadBytes + msg.estimateContentSizeInBytes();
+        }
+        return result;
+    }
+
+    void clear() {
+        Arrays.fill(messages, null);
+        head = 0;
+        size = 0;
+    }
+
+    /**
+     * Binary search over the logical positions [0, size).
+     *
+     * @return the position at which the key should be inserted, or -1 if the key is already in the buffer
+     */
+    private int search(long timestamp, long sequenceNumber) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(timestamp, sequenceNumber, mid);
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return -1;
+            }
+        }
+        return low;
+    }
+
+    private int compare(long timestamp, long sequenceNumber, int pos) {
+        int idx = index(pos);
+        return compare(timestamp, sequenceNumber, timestamps[idx], sequenceNumbers[idx]);
+    }
+
+    private static int compare(long timestamp1, long sequenceNumber1, long timestamp2, long sequenceNumber2) {
+        int result = Long.compare(timestamp1, timestamp2);
+        return result != 0 ? result : Long.compare(sequenceNumber1, sequenceNumber2);
+    }
+
+    private int index(int pos) {
+        int idx = head + pos;
+        return idx < messages.length ? idx : idx - messages.length;
+    }
+
+    private void grow() {
+        int newLength = Math.min(capacity, messages.length * 2);
+        long[] newTimestamps = new long[newLength];
+        long[] newSequenceNumbers = new long[newLength];
+        StreamMessage[] newMessages = new StreamMessage[newLength];
+        for (int i = 0; i < size; i++) {
+            int idx = index(i);
+            newTimestamps[i] = timestamps[idx];
+            newSequenceNumbers[i] = sequenceNumbers[idx];
+            newMessages[i] = messages[idx];
+        }
+        timestamps = newTimestamps;
+        sequenceNumbers = newSequenceNumbers;
+        messages = newMessages;
+        head = 0;
+    }
+}
@@ -0,0 +1,43 @@
+package com.streamr.client.utils;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single daemon thread on which OrderedMsgChains (and other per-message-chain timeouts) schedule
+ * their tasks. Previously each gap started a new java.util.Timer, ie. a new thread, which under a
+ * network hiccup meant thousands of threads being started at once.
+ *
+ * Tasks run on the shared thread must be short and must not block.
+ */
+public final class SharedTimer {
+    private static final ScheduledExecutorService DEFAULT = create("streamr-shared-timer");
+
+    private SharedTimer() {}
+
+    /**
+     * Returns the process-wide default timer.
+     */
+    public static ScheduledExecutorService getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Creates a new single-threaded timer whose cancelled tasks are removed from the work queue
+     * immediately, so that frequently scheduled and cancelled gap checks don't pile up.
+     */
+    public static ScheduledExecutorService create(String threadName) {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, threadName + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, threadFactory);
+        executor.setRemoveOnCancelPolicy(true);
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        return executor;
+    }
+}
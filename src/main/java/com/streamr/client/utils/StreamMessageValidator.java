@@ -196,6 +196,13 @@ public class StreamMessageValidator {
         return s;
     }
 
+    /**
+     * Fetches and caches the stream unless it's cached already, so that validating its messages doesn't have to.
+     */
+    public void warmUp(String streamId) {
+        getStream(streamId);
+    }
+
     public void clearAndClose() {
         safeGetStreamCache().clearAndClose();
         addressValidityUtil.clearAndClose();
@@ -0,0 +1,173 @@
+package com.streamr.client.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs tasks on a fixed number of single-threaded lanes. Tasks of a stream-partition always go to the same lane,
+ * so they run in submission order, while different stream-partitions are processed in parallel.
+ *
+ * Lane queues are bounded: execute() blocks while the lane is full, which pushes back on the submitter
+ * (the websocket read thread) instead of buffering without limit. getLagMillis() tells how long the
+ * oldest task of a lane has been waiting or running, ie. how far behind the lane is.
+ *
+ * A task that waits for the submitter deadlocks once its lane is full: for example a MessageHandler that
+ * waits for a response read by the websocket thread, while that thread waits for room in the lane. With
+ * maxWaitMillis, execute() gives up after waiting that long and throws RejectedExecutionException.
+ */
+public class StripedExecutor {
+    private static final Logger log = LoggerFactory.getLogger(StripedExecutor.class);
+
+    private final Lane[] lanes;
+    private final long maxWaitMillis;
+
+    /**
+     * @param maxWaitMillis how long execute() waits for room in a full lane, 0 for no limit
+     */
+    public StripedExecutor(int laneCount, int laneCapacity, String threadNamePrefix, long maxWaitMillis) {
+        if (laneCount < 1 || laneCapacity < 1) {
+            throw new IllegalArgumentException("laneCount and laneCapacity must be at least 1");
+        }
+        if (maxWaitMillis < 0) {
+            throw new IllegalArgumentException("maxWaitMillis must not be negative");
+        }
+        this.maxWaitMillis = maxWaitMillis;
+        lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane(laneCapacity, threadNamePrefix + "-" + i);
+        }
+    }
+
+    public StripedExecutor(int laneCount, int laneCapacity, String threadNamePrefix) {
+        this(laneCount, laneCapacity, threadNamePrefix, 0);
+    }
+
+    /**
+     * Queues the task on the lane of the stream-partition, blocking while the lane is full.
+     *
+     * @throws RejectedExecutionException if the lane stayed full for maxWaitMillis
+     */
+    public void execute(String streamId, int partition, Runnable task) {
+        execute(getLaneIndex(streamId, partition), task);
+    }
+
+    /**
+     * Queues the task on the given lane, blocking while the lane is full.
+     *
+     * @throws RejectedExecutionException if the lane stayed full for maxWaitMillis
+     */
+    public void execute(int laneIndex, Runnable task) {
+        Lane lane = lanes[laneIndex];
+        try {
+            if (maxWaitMillis == 0) {
+                lane.queue.put(new LaneTask(task));
+            } else if (!lane.queue.offer(new LaneTask(task), maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException("Lane " + lane.thread.getName() + " has been full for " + maxWaitMillis + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for room in lane " + lane.thread.getName(), e);
+        }
+    }
+
+    public int getLaneIndex(String streamId, int partition) {
+        int hash = streamId.hashCode() * 31 + partition;
+        // Spread the bits, since stream ids of a user often share a long prefix
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * @return number of tasks waiting in the lane, not including the running task
+     */
+    public int getQueueDepth(int lane) {
+        return lanes[lane].queue.size();
+    }
+
+    /**
+     * @return how long the oldest unfinished task of the lane has been queued or running, 0 if the lane is idle
+     */
+    public long getLagMillis(int lane) {
+        Lane l = lanes[lane];
+        long oldest = l.runningTaskEnqueuedAt;
+        if (oldest == 0) {
+            LaneTask head = l.queue.peek();
+            if (head == null) {
+                return 0;
+            }
+            oldest = head.enqueuedAt;
+        }
+        return Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * @return the largest lag over all lanes
+     */
+    public long getMaxLagMillis() {
+        long result = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            result = Math.max(result, getLagMillis(i));
+        }
+        return result;
+    }
+
+    /**
+     * Stops the lanes. Queued tasks are not run.
+     */
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+
+    private static class LaneTask {
+        private final Runnable task;
+        private final long enqueuedAt = System.currentTimeMillis();
+
+        private LaneTask(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private static class Lane implements Runnable {
+        private final BlockingQueue<LaneTask> queue;
+        private final Thread thread;
+        private volatile long runningTaskEnqueuedAt = 0;
+
+        private Lane(int capacity, String threadName) {
+            queue = new ArrayBlockingQueue<>(capacity);
+            thread = new Thread(this, threadName);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                LaneTask task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                runningTaskEnqueuedAt = task.enqueuedAt;
+                try {
+                    task.task.run();
+                } catch (RuntimeException e) {
+                    log.error("Error in dispatch lane {}", thread.getName(), e);
+                } finally {
+                    runningTaskEnqueuedAt = 0;
+                }
+            }
+        }
+    }
+}
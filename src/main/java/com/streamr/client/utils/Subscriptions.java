@@ -4,63 +4,115 @@ import com.streamr.client.exceptions.AlreadySubscribedException;
 import com.streamr.client.exceptions.SubscriptionNotFoundException;
 import com.streamr.client.subs.Subscription;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
+/**
+ * Subscriptions by stream-partition. Safe to use from any thread: subscribe and unsubscribe write from
+ * user threads while every incoming message is looked up on the websocket thread.
+ *
+ * The subscriptions of a stream are kept in an array indexed by partition. Writes replace the array under
+ * a lock (copy-on-write), so reads never lock: a lookup is one ConcurrentHashMap get on the streamId, whose
+ * hash the String caches, and an array index. No key object is built per lookup.
+ */
 public class Subscriptions {
 
-    private final Map<String, Map<Integer, Subscription>> subsByStreamIdAndPartition = new HashMap<>();
+    private static final Subscription[] EMPTY = new Subscription[0];
+
+    private final ConcurrentHashMap<String, Subscription[]> subsByStreamId = new ConcurrentHashMap<>();
 
     /**
      *
      * @throws AlreadySubscribedException if there is already a subscription for the stream-partition
      */
-    public void add(Subscription sub) throws AlreadySubscribedException {
-        Map<Integer, Subscription> subsByStreamId = subsByStreamIdAndPartition.get(sub.getStreamId());
-        if (subsByStreamId == null) {
-            subsByStreamId = new HashMap<>();
-            subsByStreamIdAndPartition.put(sub.getStreamId(), subsByStreamId);
-        }
-        if (subsByStreamId.containsKey(sub.getPartition())) {
+    public synchronized void add(Subscription sub) throws AlreadySubscribedException {
+        Subscription[] current = subsByStreamId.getOrDefault(sub.getStreamId(), EMPTY);
+        int partition = sub.getPartition();
+        if (partition < current.length && current[partition] != null) {
             throw new AlreadySubscribedException(sub);
-        } else {
-            subsByStreamId.put(sub.getPartition(), sub);
         }
+        Subscription[] updated = Arrays.copyOf(current, Math.max(current.length, partition + 1));
+        updated[partition] = sub;
+        subsByStreamId.put(sub.getStreamId(), updated);
     }
 
     public Subscription get(String streamId, int partition) throws SubscriptionNotFoundException {
-        Map<Integer, Subscription> subsByStreamId = subsByStreamIdAndPartition.get(streamId);
-        if (subsByStreamId == null) {
+        Subscription[] byPartition = subsByStreamId.get(streamId);
+        if (byPartition == null || partition < 0 || partition >= byPartition.length || byPartition[partition] == null) {
             throw new SubscriptionNotFoundException(streamId, partition);
         }
-        Subscription result = subsByStreamId.get(partition);
-        if (result == null) {
-            throw new SubscriptionNotFoundException(streamId, partition);
+        return byPartition[partition];
+    }
+
+    /**
+     * @return the subscriptions to the partitions of the stream, in partition order
+     */
+    public Collection<Subscription> getAllForStreamId(String streamId) {
+        Subscription[] byPartition = subsByStreamId.get(streamId);
+        List<Subscription> result = new ArrayList<>();
+        if (byPartition != null) {
+            for (Subscription sub : byPartition) {
+                if (sub != null) {
+                    result.add(sub);
+                }
+            }
         }
         return result;
     }
 
-    public Collection<Subscription> getAllForStreamId(String streamId) {
-        Map<Integer, Subscription> subsByStreamId = subsByStreamIdAndPartition.get(streamId);
-        return subsByStreamId == null ? new HashSet<>() : subsByStreamId.values();
+    /**
+     * Removes the subscription unless another one has replaced it for its stream-partition.
+     *
+     * @return true if the subscription was removed
+     */
+    public synchronized boolean removeIfPresent(Subscription sub) {
+        Subscription[] current = subsByStreamId.get(sub.getStreamId());
+        if (current == null || sub.getPartition() >= current.length || current[sub.getPartition()] != sub) {
+            return false;
+        }
+        removeAt(sub.getStreamId(), current, sub.getPartition());
+        return true;
     }
 
-    public void remove(Subscription sub) throws SubscriptionNotFoundException {
-        Map<Integer, Subscription> subsByStreamId = subsByStreamIdAndPartition.get(sub.getStreamId());
-        if (subsByStreamId == null) {
+    public synchronized void remove(Subscription sub) throws SubscriptionNotFoundException {
+        Subscription[] current = subsByStreamId.get(sub.getStreamId());
+        int partition = sub.getPartition();
+        if (current == null || partition >= current.length || current[partition] == null) {
             throw new SubscriptionNotFoundException(sub.getStreamId(), sub.getPartition());
         }
-        if (subsByStreamId.containsKey(sub.getPartition())) {
-            subsByStreamId.remove(sub.getPartition());
+        removeAt(sub.getStreamId(), current, partition);
+    }
+
+    private void removeAt(String streamId, Subscription[] current, int partition) {
+        // Trim the trailing empty slots, and drop the stream when none are left
+        int length = current.length;
+        Subscription[] updated = Arrays.copyOf(current, length);
+        updated[partition] = null;
+        while (length > 0 && updated[length - 1] == null) {
+            length--;
+        }
+        if (length == 0) {
+            subsByStreamId.remove(streamId);
         } else {
-            throw new SubscriptionNotFoundException(sub.getStreamId(), sub.getPartition());
+            subsByStreamId.put(streamId, Arrays.copyOf(updated, length));
         }
     }
 
+    /**
+     * Iterates over a weakly consistent view: subscriptions added or removed during the iteration may or
+     * may not be included.
+     */
     public void forEach(Consumer<Subscription> f) {
-        subsByStreamIdAndPartition.values().forEach(map -> map.values().forEach(f));
+        subsByStreamId.values().forEach(byPartition -> {
+            for (Subscription sub : byPartition) {
+                if (sub != null) {
+                    f.accept(sub);
+                }
+            }
+        });
     }
 }
@@ -0,0 +1,197 @@
+package com.streamr.client.utils;
+
+import com.streamr.client.protocol.message_layer.StreamMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Merges the messages of the partitions of a stream into a single sequence ordered by (timestamp,
+ * sequenceNumber, partition), assuming the messages of each partition arrive in order.
+ *
+ * This is a k-way merge: each partition has a FIFO buffer, and a heap holds the head of each non-empty buffer.
+ * The smallest head can be released once every partition has a buffered message, since no partition can then
+ * deliver anything older. A quiet partition would stall the merge, so messages are also released once the
+ * oldest buffered message has waited maxDelayMillis. Messages released that way may be out of order with
+ * messages that arrive later on the quiet partition.
+ *
+ * Thread-safe. The output is called while holding the merger's lock, one message at a time, either on the
+ * thread calling add() or on the thread of the periodic release. The output runs user code, so by default the
+ * periodic release has a thread of its own: a slow handler holds up this merger, not the SharedTimer.
+ */
+public class TimestampMerger {
+    private static final Logger log = LoggerFactory.getLogger(TimestampMerger.class);
+
+    private static final Comparator<Entry> ORDER = Comparator
+            .comparingLong((Entry e) -> e.msg.getTimestamp())
+            .thenComparingLong(e -> e.msg.getSequenceNumber())
+            .thenComparingInt(e -> e.partition);
+
+    private final ArrayDeque<Entry>[] buffers;
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>(ORDER);
+    private final long maxDelayMillis;
+    private final Consumer<StreamMessage> output;
+    private final ScheduledFuture<?> releaseTask;
+    // Shut down on close() if the merger created it
+    private final ScheduledExecutorService ownTimer;
+    private int nonEmptyBuffers = 0;
+
+    /**
+     * @param timer runs the periodic release, and with it the output. Must not be a timer whose tasks must not
+     *              block, eg. SharedTimer.getDefault().
+     */
+    public TimestampMerger(int partitionCount, long maxDelayMillis, Consumer<StreamMessage> output,
+                           ScheduledExecutorService timer) {
+        this(partitionCount, maxDelayMillis, output, timer, false);
+    }
+
+    /**
+     * Runs the periodic release on a new thread, stopped on close().
+     */
+    public TimestampMerger(int partitionCount, long maxDelayMillis, Consumer<StreamMessage> output) {
+        this(partitionCount, maxDelayMillis, output, SharedTimer.create("streamr-timestamp-merger"), true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private TimestampMerger(int partitionCount, long maxDelayMillis, Consumer<StreamMessage> output,
+                            ScheduledExecutorService timer, boolean ownsTimer) {
+        if (partitionCount < 1) {
+            throw new IllegalArgumentException("partitionCount must be at least 1");
+        }
+        buffers = new ArrayDeque[partitionCount];
+        for (int i = 0; i < partitionCount; i++) {
+            buffers[i] = new ArrayDeque<>();
+        }
+        this.maxDelayMillis = maxDelayMillis;
+        this.output = output;
+        long checkInterval = Math.max(10, maxDelayMillis / 2);
+        releaseTask = timer.scheduleWithFixedDelay(() -> release(System.currentTimeMillis()),
+                checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+        ownTimer = ownsTimer ? timer : null;
+    }
+
+    public synchronized void add(StreamMessage msg) {
+        int partition = msg.getStreamPartition();
+        if (partition < 0 || partition >= buffers.length) {
+            throw new IllegalArgumentException("Partition " + partition + " out of range [0, " + buffers.length + ")");
+        }
+        Entry entry = new Entry(msg, partition, System.currentTimeMillis());
+        ArrayDeque<Entry> buffer = buffers[partition];
+        if (buffer.isEmpty()) {
+            heap.add(entry);
+            nonEmptyBuffers++;
+        }
+        buffer.addLast(entry);
+        release(entry.arrivedAt);
+    }
+
+    /**
+     * Runs the action after the messages of the partition buffered so far have been released, or right away
+     * if none are buffered. Like the output, it's called while holding the merger's lock.
+     */
+    public synchronized void runAfterBuffered(int partition, Runnable action) {
+        if (partition < 0 || partition >= buffers.length) {
+            throw new IllegalArgumentException("Partition " + partition + " out of range [0, " + buffers.length + ")");
+        }
+        Entry last = buffers[partition].peekLast();
+        if (last == null) {
+            run(action);
+        } else {
+            if (last.afterRelease == null) {
+                last.afterRelease = new ArrayList<>(1);
+            }
+            last.afterRelease.add(action);
+        }
+    }
+
+    /**
+     * @return the number of buffered messages
+     */
+    public synchronized int size() {
+        int result = 0;
+        for (ArrayDeque<Entry> buffer : buffers) {
+            result += buffer.size();
+        }
+        return result;
+    }
+
+    /**
+     * Releases all buffered messages in order and stops the periodic release.
+     */
+    public synchronized void close() {
+        releaseTask.cancel(false);
+        if (ownTimer != null) {
+            ownTimer.shutdown();
+        }
+        while (!heap.isEmpty()) {
+            releaseHead();
+        }
+    }
+
+    synchronized void release(long now) {
+        while (!heap.isEmpty() && (nonEmptyBuffers == buffers.length || now - oldestArrival() >= maxDelayMillis)) {
+            releaseHead();
+        }
+    }
+
+    private void releaseHead() {
+        Entry head = heap.poll();
+        ArrayDeque<Entry> buffer = buffers[head.partition];
+        buffer.pollFirst();
+        if (buffer.isEmpty()) {
+            nonEmptyBuffers--;
+        } else {
+            heap.add(buffer.peekFirst());
+        }
+        try {
+            output.accept(head.msg);
+        } catch (RuntimeException e) {
+            log.error("Error handling merged message {}", head.msg.getMessageRef(), e);
+        }
+        if (head.afterRelease != null) {
+            head.afterRelease.forEach(TimestampMerger::run);
+        }
+    }
+
+    private static void run(Runnable action) {
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            log.error("Error running an action after the merged messages", e);
+        }
+    }
+
+    /**
+     * The buffers are FIFO, so the oldest arrival is among the heads. Linear in the number of partitions.
+     */
+    private long oldestArrival() {
+        long result = Long.MAX_VALUE;
+        for (Entry entry : heap) {
+            result = Math.min(result, entry.arrivedAt);
+        }
+        return result;
+    }
+
+    private static class Entry {
+        private final StreamMessage msg;
+        private final int partition;
+        private final long arrivedAt;
+        // Actions of runAfterBuffered(), run after this message is released
+        private List<Runnable> afterRelease;
+
+        private Entry(StreamMessage msg, int partition, long arrivedAt) {
+            this.msg = msg;
+            this.partition = partition;
+            this.arrivedAt = arrivedAt;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.streamr.client
 
 import com.streamr.client.exceptions.GapDetectedException
 import com.streamr.client.exceptions.UnableToDecryptException
+import com.streamr.client.options.OrderingOptions
 import com.streamr.client.protocol.StreamrSpecification
 import com.streamr.client.protocol.message_layer.MessageRef
 import com.streamr.client.protocol.message_layer.StreamMessage
@@ -57,8 +58,9 @@ class BasicSubscriptionSpec extends StreamrSpecification {
         }
     }
 
-    private RealTimeSubscription createSub(MessageHandler handler = defaultHandler, String streamId = msg.getStreamId(), GroupKeyRequestFunction groupKeyRequestFunction = defaultGroupKeyRequestFunction) {
-        return new RealTimeSubscription(streamId, 0, handler, keyStore, keyExchangeUtil, groupKeyRequestFunction, propagationTimeout, resendTimeout, false)
+    private RealTimeSubscription createSub(MessageHandler handler = defaultHandler, String streamId = msg.getStreamId(), GroupKeyRequestFunction groupKeyRequestFunction = defaultGroupKeyRequestFunction,
+                                           OrderingOptions orderingOptions = OrderingOptions.getDefault()) {
+        return new RealTimeSubscription(streamId, 0, handler, keyStore, keyExchangeUtil, groupKeyRequestFunction, propagationTimeout, resendTimeout, false, orderingOptions)
     }
 
     void "calls the message handler when realtime messages are received"() {
@@ -556,4 +558,62 @@ class BasicSubscriptionSpec extends StreamrSpecification {
         //thrown(UnableToDecryptException)
     }
 
+    void "records a checkpoint once the handler has been called with the message"() {
+        List<String> events = []
+        List<Checkpoint> recorded = []
+        CheckpointStore store = new CheckpointStore() {
+            @Override
+            void update(Checkpoint checkpoint) {
+                events.add("checkpoint")
+                recorded.add(checkpoint)
+            }
+
+            @Override
+            Collection<Checkpoint> get(String streamId, int streamPartition) {
+                return recorded
+            }
+
+            @Override
+            void flush() {}
+        }
+        sub = createSub(new MessageHandler() {
+            @Override
+            void onMessage(Subscription s, StreamMessage message) {
+                events.add("handled")
+            }
+        }, msg.getStreamId(), defaultGroupKeyRequestFunction, new OrderingOptions(null, null, null, store))
+
+        when:
+        sub.handleRealTimeMessage(msg)
+
+        then:
+        events == ["handled", "checkpoint"]
+        recorded[0].streamId == msg.streamId
+        recorded[0].publisherId == msg.publisherId
+        recorded[0].msgChainId == msg.msgChainId
+        recorded[0].lastReceived.compareTo(msg.messageRef) == 0
+    }
+
+    void "doesn't record a checkpoint of a message waiting for its decryption key"() {
+        CheckpointStore store = Mock(CheckpointStore)
+        sub = createSub(defaultHandler, msg.getStreamId(), defaultGroupKeyRequestFunction, new OrderingOptions(null, null, null, store))
+        GroupKey groupKey = GroupKey.generate()
+        StreamMessage encrypted = createMessage(1, [foo: 'bar'])
+        EncryptionUtil.encryptStreamMessage(encrypted, groupKey)
+
+        when:
+        sub.handleRealTimeMessage(encrypted)
+
+        then:
+        1 * keyStore.get(encrypted.getStreamId(), groupKey.getGroupKeyId()) >> null
+        0 * store.update(_)
+
+        when:
+        sub.onNewKeysAdded(encrypted.getPublisherId(), [groupKey])
+
+        then:
+        1 * keyStore.get(encrypted.getStreamId(), groupKey.getGroupKeyId()) >> groupKey
+        received == [encrypted]
+        1 * store.update({ Checkpoint c -> c.lastReceived.timestamp == 1L })
+    }
 }
@@ -0,0 +1,85 @@
+package com.streamr.client
+
+import com.streamr.client.protocol.StreamrSpecification
+import com.streamr.client.protocol.message_layer.MessageID
+import com.streamr.client.protocol.message_layer.StreamMessage
+import com.streamr.client.subs.MultiPartitionSubscription
+import com.streamr.client.subs.Subscription
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CountDownLatch
+
+class MultiPartitionSubscriptionSpec extends StreamrSpecification {
+
+    void "with Ordering.PARTITION, done() is called after the queued messages of the partition"() {
+        List<String> events = Collections.synchronizedList([])
+        CountDownLatch releaseHandler = new CountDownLatch(1)
+        MultiPartitionSubscription multiSub = new MultiPartitionSubscription("streamId", 2, new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {
+                releaseHandler.await()
+                events.add("message " + message.getTimestamp())
+            }
+
+            @Override
+            void done(Subscription sub) {
+                events.add("done")
+            }
+        }, MultiPartitionSubscription.Ordering.PARTITION, 100, 10)
+        Subscription sub = Mock(Subscription)
+        sub.getPartition() >> 1
+        MessageHandler partitionHandler = multiSub.getPartitionHandler()
+
+        when:
+        partitionHandler.onMessage(sub, new StreamMessage(new MessageID("streamId", 1, 1, 0, publisherId, "msgChainId"), null, [:]))
+        partitionHandler.onMessage(sub, new StreamMessage(new MessageID("streamId", 1, 2, 0, publisherId, "msgChainId"), null, [:]))
+        partitionHandler.done(sub)
+
+        then:
+        events.isEmpty()
+
+        when:
+        releaseHandler.countDown()
+
+        then:
+        new PollingConditions().eventually {
+            events == ["message 1", "message 2", "done"]
+        }
+
+        cleanup:
+        multiSub.close()
+    }
+
+    void "with Ordering.TIMESTAMP, done() is called after the buffered messages of the partition"() {
+        List<String> events = Collections.synchronizedList([])
+        MultiPartitionSubscription multiSub = new MultiPartitionSubscription("streamId", 2, new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {
+                events.add("message " + message.getTimestamp())
+            }
+
+            @Override
+            void done(Subscription sub) {
+                events.add("done")
+            }
+        }, MultiPartitionSubscription.Ordering.TIMESTAMP, 60000, 10)
+        Subscription sub = Mock(Subscription)
+        sub.getPartition() >> 1
+        MessageHandler partitionHandler = multiSub.getPartitionHandler()
+
+        when:
+        // Buffered until partition 0 has a message
+        partitionHandler.onMessage(sub, new StreamMessage(new MessageID("streamId", 1, 1, 0, publisherId, "msgChainId"), null, [:]))
+        partitionHandler.onMessage(sub, new StreamMessage(new MessageID("streamId", 1, 2, 0, publisherId, "msgChainId"), null, [:]))
+        partitionHandler.done(sub)
+
+        then:
+        events.isEmpty()
+
+        when:
+        multiSub.close()
+
+        then:
+        events == ["message 1", "message 2", "done"]
+    }
+}
@@ -3,6 +3,8 @@ package com.streamr.client
 
 import com.streamr.client.authentication.AuthenticationMethod
 import com.streamr.client.authentication.EthereumAuthenticationMethod
+import com.streamr.client.exceptions.ErrorResponseException
+import com.streamr.client.exceptions.RequestTimeoutException
 import com.streamr.client.options.*
 import com.streamr.client.protocol.StreamrSpecification
 import com.streamr.client.protocol.control_layer.*
@@ -10,13 +12,29 @@ import com.streamr.client.protocol.message_layer.MessageID
 import com.streamr.client.protocol.message_layer.MessageRef
 import com.streamr.client.protocol.message_layer.StreamMessage
 import com.streamr.client.rest.Stream
+import com.streamr.client.subs.MultiPartitionSubscription
+import com.streamr.client.subs.RealTimeSubscription
 import com.streamr.client.subs.Subscription
+import com.streamr.client.transport.LoopbackTransport
+import com.streamr.client.transport.Transport
+import com.streamr.client.transport.TransportFactory
+import com.streamr.client.transport.TransportListener
 import com.streamr.client.utils.EncryptionUtil
+import com.streamr.client.utils.GapFillPolicy
 import com.streamr.client.utils.GroupKey
 import com.streamr.client.utils.InMemoryGroupKeyStore
 import com.streamr.client.utils.KeyExchangeUtil
+import org.java_websocket.enums.ReadyState
+import org.java_websocket.exceptions.WebsocketNotConnectedException
 import spock.util.concurrent.PollingConditions
 
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
 class StreamrClientSpec extends StreamrSpecification {
 
     private static TestWebSocketServer server = new TestWebSocketServer("localhost", 6000)
@@ -128,6 +146,25 @@ class StreamrClientSpec extends StreamrSpecification {
         server.expect(new ResendLastRequest(server.receivedControlMessages[2].message.requestId, stream.id, 0, 10, client.sessionToken))
     }
 
+    void "unsubscribe() cancels the second ResendLastRequest"() {
+        when:
+        subscribeClient(new ResendLastOption(10))
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 2
+        }
+        Subscription sub = client.subs.get(stream.id, 0)
+        client.unsubscribe(sub)
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 3
+        }
+        client.receiveMessage(new UnsubscribeResponse(server.receivedControlMessages[2].message.requestId, stream.id, 0))
+        Thread.sleep(retryResendAfter + 200)
+
+        then:
+        server.receivedControlMessages[2].message instanceof UnsubscribeRequest
+        server.receivedControlMessages.size() == 3
+    }
+
     void "requests a single resend if gap is detected and then filled"() {
         when:
         subscribeClient()
@@ -165,6 +202,102 @@ class StreamrClientSpec extends StreamrSpecification {
         server.expect(new ResendRangeRequest(server.receivedControlMessages[2].message.requestId, stream.id, 0, new MessageRef(0, 1), new MessageRef(1, 0), publisherId, "msgChainId", client.sessionToken))
     }
 
+    void "unsubscribes a subscription that fails because of an unfillable gap"() {
+        client.options.gapFillPolicy = new GapFillPolicy(0, GapFillPolicy.OnFailure.FAIL_SUBSCRIPTION)
+
+        when:
+        subscribeClient()
+        client.receiveMessage(new BroadcastMessage("", createMsg("test-stream", 0, 0, null, null)))
+        client.receiveMessage(new BroadcastMessage("", createMsg("test-stream", 2, 0, 1, 0)))
+
+        then:
+        new PollingConditions(timeout: 5).eventually {
+            server.receivedControlMessages.size() == 2
+        }
+        server.receivedControlMessages[1].message instanceof UnsubscribeRequest
+        client.subs.get(stream.id, 0).isFailed()
+    }
+
+    void "delivers every message while other stream-partitions are subscribed and unsubscribed"() {
+        // 2 readers × 50000 messages through handleControlMessage, while 4 writers add and remove
+        // 20000 subscriptions each to the Subscriptions that the message path looks up
+        int messagesPerReader = 50000
+        int iterations = 20000
+        List<Throwable> errors = Collections.synchronizedList([])
+        List<AtomicInteger> received = (0..<2).collect { new AtomicInteger() }
+        List<Subscription> stable = (0..<2).collect { int reader ->
+            Subscription sub = new RealTimeSubscription("stress-" + reader, 0, new MessageHandler() {
+                @Override
+                void onMessage(Subscription s, StreamMessage message) {
+                    received[reader].incrementAndGet()
+                }
+            }, client.getKeyStore(), null, null)
+            sub.setState(Subscription.State.SUBSCRIBED)
+            client.subs.add(sub)
+            return sub
+        }
+
+        List<Thread> writers = (0..<4).collect { int writer ->
+            Thread.start {
+                try {
+                    for (int i = 0; i < iterations; i++) {
+                        Subscription sub = new RealTimeSubscription("stress-" + (writer % 2), writer + 1, null, client.getKeyStore(), null, null)
+                        client.subs.add(sub)
+                        client.subs.remove(sub)
+                    }
+                } catch (Throwable e) {
+                    errors.add(e)
+                }
+            }
+        }
+        List<Thread> readers = (0..<2).collect { int reader ->
+            Thread.start {
+                try {
+                    for (int i = 0; i < messagesPerReader; i++) {
+                        MessageID msgId = new MessageID("stress-" + reader, 0, i + 1, 0, publisherId, "msgChainId")
+                        MessageRef prev = i == 0 ? null : new MessageRef(i, 0)
+                        client.handleControlMessage(new BroadcastMessage("", new StreamMessage(msgId, prev, [i: i])))
+                    }
+                } catch (Throwable e) {
+                    errors.add(e)
+                }
+            }
+        }
+
+        when:
+        (writers + readers)*.join()
+
+        then:
+        errors.isEmpty()
+        new PollingConditions().eventually {
+            received*.get() == [messagesPerReader, messagesPerReader]
+        }
+        client.subs.getAllForStreamId("stress-0").toList() == [stable[0]]
+        client.subs.getAllForStreamId("stress-1").toList() == [stable[1]]
+    }
+
+    void "a duplicate message is dropped without decoding it"() {
+        String json = new BroadcastMessage("", createMsg("test-stream", 0, 0, null, null)).toJson()
+
+        when:
+        subscribeClient()
+        client.receiveMessage(new BroadcastMessage("", createMsg("test-stream", 0, 0, null, null)))
+
+        then:
+        new PollingConditions().eventually {
+            client.receivedStreamMessages.size() == 1
+        }
+
+        when:
+        BroadcastMessage duplicate = (BroadcastMessage) ControlMessage.fromJson(json)
+        client.handleControlMessage(duplicate)
+
+        then:
+        duplicate.getStreamMessage().isLazy()
+        duplicate.getStreamMessage().toString().contains("content=<not decoded>")
+        client.receivedStreamMessages.size() == 1
+    }
+
     void "publish() publishes with the latest key added to keyStore"() {
         GroupKey groupKey = GroupKey.generate()
         client.getKeyStore().add(stream.getId(), groupKey)
@@ -384,4 +517,348 @@ class StreamrClientSpec extends StreamrSpecification {
         then:
         errorIsHandled
     }
+
+    void "connectAsync() and disconnectAsync() complete on the connection events and notify state listeners"() {
+        List<ReadyState> states = Collections.synchronizedList([])
+        client.addConnectionStateListener({ ReadyState state -> states.add(state) } as ConnectionStateListener)
+
+        when:
+        client.disconnectAsync().get(5, TimeUnit.SECONDS)
+
+        then:
+        client.getState() == ReadyState.CLOSED
+        states == [ReadyState.CLOSING, ReadyState.CLOSED]
+
+        when:
+        states.clear()
+        client.connectAsync().get(5, TimeUnit.SECONDS)
+
+        then:
+        client.getState() == ReadyState.OPEN
+        states.contains(ReadyState.NOT_YET_CONNECTED)
+        states.last() == ReadyState.OPEN
+    }
+
+    void "disconnect() leaves no threads that keep the JVM running"() {
+        when:
+        client.disconnect()
+
+        then:
+        Thread.getAllStackTraces().keySet().findAll { it.name.startsWith("streamr-client") }.every { it.isDaemon() }
+    }
+
+    void "subscribeAsync() completes when the SubscribeResponse arrives"() {
+        when:
+        CompletableFuture<Subscription> future = client.subscribeAsync(stream, 0, new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {}
+        }, null)
+
+        then:
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 1
+        }
+        !future.isDone()
+
+        when:
+        client.receiveMessage(new SubscribeResponse(server.receivedControlMessages[0].message.requestId, stream.id, 0))
+
+        then:
+        future.get(1, TimeUnit.SECONDS).isSubscribed()
+    }
+
+    void "subscribeAsync() removes the subscription if it fails"() {
+        when:
+        CompletableFuture<Subscription> future = client.subscribeAsync(stream, 0, new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {}
+        }, null)
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 1
+        }
+        client.receiveMessage(new ErrorResponse(server.receivedControlMessages[0].message.requestId, "error occurred", "TEST_ERROR"))
+        future.get(1, TimeUnit.SECONDS)
+
+        then:
+        thrown(ExecutionException)
+        client.subs.getAllForStreamId(stream.id).isEmpty()
+    }
+
+    void "unsubscribeAsync() fails on an ErrorResponse to the request"() {
+        subscribeClient()
+        Subscription sub = client.subs.get(stream.id, 0)
+
+        when:
+        CompletableFuture<Void> future = client.unsubscribeAsync(sub)
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 2
+        }
+        client.receiveMessage(new ErrorResponse(server.receivedControlMessages[1].message.requestId, "error occurred", "TEST_ERROR"))
+        future.get(1, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown(ExecutionException)
+        e.cause instanceof ErrorResponseException
+        ((ErrorResponseException) e.cause).errorCode == "TEST_ERROR"
+    }
+
+    void "resendAsync() completes after the resent messages are handled"() {
+        List<StreamMessage> received = []
+
+        when:
+        CompletableFuture<Void> future = client.resendAsync(stream, 0, new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {
+                received.add(message)
+            }
+        }, new ResendLastOption(1))
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 1
+        }
+        client.receiveMessage(new SubscribeResponse(server.receivedControlMessages[0].message.requestId, stream.id, 0))
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 2
+        }
+        String resendRequestId = server.receivedControlMessages[1].message.requestId
+
+        then:
+        !future.isDone()
+
+        when:
+        client.receiveMessage(new UnicastMessage(resendRequestId, createMsg("test-stream", 0, 0, null, null)))
+        client.receiveMessage(new ResendResponseResent(resendRequestId, stream.id, 0))
+
+        then:
+        future.get(1, TimeUnit.SECONDS) == null
+        received.size() == 1
+    }
+
+    void "requests time out without a response"() {
+        StreamrClientOptions options = client.getOptions()
+        options.requestTimeoutMillis = 200
+        TestingStreamrClient impatient = new TestingStreamrClient(options)
+
+        when:
+        impatient.subscribeAsync(stream, 0, new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {}
+        }, null).get(5, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown(ExecutionException)
+        e.cause instanceof RequestTimeoutException
+
+        cleanup:
+        impatient.disconnect()
+    }
+
+    void "subscribeAll() keeps a window of SubscribeRequests in flight"() {
+        client.getOptions().subscribeWindow = 2
+        Stream partitioned = new Stream("", "")
+        partitioned.setId("partitioned-stream")
+        partitioned.setPartitions(5)
+
+        when:
+        CompletableFuture<List<Subscription>> future = client.subscribeAll(partitioned.toStreamParts(), new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {}
+        }, null)
+
+        then:
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 2
+        }
+        Thread.sleep(200)
+        server.receivedControlMessages.size() == 2
+
+        when:
+        // Respond to each request as it arrives
+        for (int i = 0; i < 5; i++) {
+            new PollingConditions().eventually {
+                server.receivedControlMessages.size() > i
+            }
+            SubscribeRequest request = (SubscribeRequest) server.receivedControlMessages[i].message
+            client.receiveMessage(new SubscribeResponse(request.requestId, request.streamId, request.streamPartition))
+        }
+
+        then:
+        List<Subscription> subs = future.get(1, TimeUnit.SECONDS)
+        subs*.partition == [0, 1, 2, 3, 4]
+        subs.every { it.isSubscribed() }
+        server.receivedControlMessages.size() == 5
+    }
+
+    void "subscribeAllPartitions() subscribes to every partition behind one handle"() {
+        Stream partitioned = new Stream("", "")
+        partitioned.setId("partitioned-stream")
+        partitioned.setPartitions(3)
+        List<StreamMessage> received = Collections.synchronizedList([])
+
+        when:
+        MultiPartitionSubscription multiSub = client.subscribeAllPartitions(partitioned, new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {
+                received.add(message)
+            }
+        })
+        new PollingConditions().eventually {
+            server.receivedControlMessages.size() == 3
+        }
+        server.receivedControlMessages.each {
+            SubscribeRequest request = (SubscribeRequest) it.message
+            client.receiveMessage(new SubscribeResponse(request.requestId, request.streamId, request.streamPartition))
+        }
+
+        then:
+        multiSub.getSubscriptions()*.partition == [0, 1, 2]
+        new PollingConditions().eventually {
+            multiSub.isSubscribed()
+        }
+
+        when:
+        for (int partition = 0; partition < 3; partition++) {
+            client.receiveMessage(new BroadcastMessage("", new StreamMessage(
+                    new MessageID("partitioned-stream", partition, 1, 0, publisherId, "msgChainId"), null, [hello: "world"])))
+        }
+
+        then:
+        new PollingConditions().eventually {
+            received*.streamPartition.sort() == [0, 1, 2]
+        }
+
+        cleanup:
+        multiSub?.close()
+    }
+
+    void "pooled connections assign each stream-partition to one connection"() {
+        StreamrClientOptions options = client.getOptions()
+        options.connectionPoolSize = 3
+        TestingStreamrClient pooled = new TestingStreamrClient(options)
+        Stream partitioned = new Stream("", "")
+        partitioned.setId("partitioned-stream")
+        partitioned.setPartitions(30)
+
+        when:
+        pooled.connect()
+        for (int partition = 0; partition < 30; partition++) {
+            pooled.subscribe(partitioned, partition, new MessageHandler() {
+                @Override
+                void onMessage(Subscription sub, StreamMessage message) {}
+            }, null)
+        }
+
+        then:
+        pooled.getState() == ReadyState.OPEN
+        new PollingConditions().eventually {
+            server.receivedControlMessages.findAll {
+                it.message instanceof SubscribeRequest && it.message.streamId == "partitioned-stream"
+            }.size() == 30
+        }
+        server.receivedControlMessages.findAll {
+            it.message instanceof SubscribeRequest && it.message.streamId == "partitioned-stream"
+        }*.connection.unique().size() > 1
+
+        cleanup:
+        pooled.disconnect()
+    }
+
+    void "a pooled connection that is down doesn't block the stream-partitions of the other connections"() {
+        Set<String> downUrls = ConcurrentHashMap.newKeySet()
+        List<LoopbackTransport> serverConnections = new CopyOnWriteArrayList<>()
+        LoopbackTransport.Server loopbackServer = new LoopbackTransport.Server() {
+            @Override
+            void onConnect(LoopbackTransport connection) {
+                serverConnections.add(connection)
+            }
+
+            @Override
+            void onMessage(LoopbackTransport connection, String json) {
+                ControlMessage message = ControlMessage.fromJson(json)
+                if (message instanceof SubscribeRequest) {
+                    connection.receive(new SubscribeResponse(message.requestId, message.streamId, message.streamPartition).toJson())
+                }
+            }
+
+            @Override
+            void onClose(LoopbackTransport connection) {
+                serverConnections.remove(connection)
+            }
+        }
+        TransportFactory loopback = LoopbackTransport.factory(loopbackServer)
+        StreamrClientOptions options = new StreamrClientOptions(client.getOptions().getAuthenticationMethod(),
+                SigningOptions.getDefault(), client.getOptions().getEncryptionOptions(), "ws://loopback-a",
+                "dont-call-this-rest-api-url", gapFillTimeout, retryResendAfter, false)
+        options.websocketApiUrls = ["ws://loopback-a", "ws://loopback-b"]
+        options.connectionPoolSize = 2
+        options.reconnectRetryInterval = 100
+        options.connectionTimeoutMillis = 200
+        options.transportFactory = { String url, TransportListener listener ->
+            downUrls.any { url.startsWith(it) } ? new UnreachableTransport(listener) : loopback.create(url, listener)
+        } as TransportFactory
+        TestingStreamrClient pooled = new TestingStreamrClient(options)
+        Stream partitioned = new Stream("", "")
+        partitioned.setId("partitioned-stream")
+        partitioned.setPartitions(10)
+        MessageHandler handler = new MessageHandler() {
+            @Override
+            void onMessage(Subscription sub, StreamMessage message) {}
+        }
+
+        when:
+        pooled.connect()
+        downUrls.add("ws://loopback-b")
+        serverConnections.find { it.url.startsWith("ws://loopback-b") }.closeRemotely()
+        List<CompletableFuture<Subscription>> futures = (0..<10).collect { pooled.subscribeAsync(partitioned, it, handler, null) }
+
+        then:
+        pooled.getState() != ReadyState.OPEN
+        new PollingConditions(timeout: 5).eventually {
+            futures.every { it.isDone() }
+        }
+
+        when:
+        List<Subscription> subscribed = futures.findAll { !it.isCompletedExceptionally() }*.get()
+
+        then:
+        // The stream-partitions of the connection that's up are subscribed, the others time out
+        !subscribed.isEmpty()
+        subscribed.size() < 10
+        subscribed.every { it.isSubscribed() }
+
+        cleanup:
+        pooled.disconnect()
+    }
+
+    /**
+     * A transport to a server that is down: connect attempts never complete.
+     */
+    static class UnreachableTransport implements Transport {
+        private final TransportListener listener
+        private volatile ReadyState state = ReadyState.NOT_YET_CONNECTED
+
+        UnreachableTransport(TransportListener listener) {
+            this.listener = listener
+        }
+
+        @Override
+        void connect() {}
+
+        @Override
+        void send(String message) {
+            throw new WebsocketNotConnectedException()
+        }
+
+        @Override
+        synchronized void close() {
+            if (state != ReadyState.CLOSED) {
+                state = ReadyState.CLOSED
+                listener.onClose(this, 1006, "", false)
+            }
+        }
+
+        @Override
+        ReadyState getState() {
+            return state
+        }
+    }
 }
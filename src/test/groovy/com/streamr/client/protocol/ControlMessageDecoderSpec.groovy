@@ -0,0 +1,220 @@
+package com.streamr.client.protocol
+
+import com.squareup.moshi.JsonReader
+import com.streamr.client.exceptions.MalformedMessageException
+import com.streamr.client.protocol.control_layer.BroadcastMessage
+import com.streamr.client.protocol.control_layer.ControlMessage
+import com.streamr.client.protocol.control_layer.ControlMessageAdapter
+import com.streamr.client.protocol.control_layer.ControlMessageDecoder
+import com.streamr.client.protocol.control_layer.SubscribeResponse
+import com.streamr.client.protocol.control_layer.UnicastMessage
+import com.streamr.client.protocol.message_layer.JsonCursor
+import com.streamr.client.protocol.message_layer.MessageID
+import com.streamr.client.protocol.message_layer.MessageRef
+import com.streamr.client.protocol.message_layer.StreamMessage
+import com.streamr.client.utils.EncryptedGroupKey
+import okio.Buffer
+
+class ControlMessageDecoderSpec extends StreamrSpecification {
+
+	private static ControlMessage parseWithAdapter(String json) {
+		return new ControlMessageAdapter().fromJson(JsonReader.of(new Buffer().writeUtf8(json)))
+	}
+
+	private StreamMessage minimalMessage() {
+		return new StreamMessage(new MessageID("streamId", 3, 123L, 1, publisherId, "msgChainId"), null, [:])
+	}
+
+	private StreamMessage maximalMessage() {
+		StreamMessage msg = new StreamMessage(new MessageID("streamId", 3, 123L, 1, publisherId, "msgChainId"), new MessageRef(122L, 0),
+				[text: "quotes \" backslashes \\ newlines \n unicode ä☃ and control \u0001"])
+		msg.setEncryptionType(StreamMessage.EncryptionType.AES)
+		msg.setGroupKeyId("groupKeyId")
+		msg.setNewGroupKey(new EncryptedGroupKey("newGroupKeyId", "encryptedGroupKeyHex", "[\"newGroupKeyId\",\"encryptedGroupKeyHex\"]"))
+		msg.setSignatureFields("signature", StreamMessage.SignatureType.ETH)
+		return msg
+	}
+
+	void "decodes BroadcastMessages and UnicastMessages like the adapters"(ControlMessage message) {
+		String json = message.toJson()
+
+		when:
+		ControlMessage decoded = ControlMessageDecoder.decode(json)
+
+		then:
+		decoded != null
+		decoded.getClass() == message.getClass()
+		decoded == parseWithAdapter(json)
+		decoded.toJson() == json
+
+		where:
+		message << [
+				new BroadcastMessage("requestId", minimalMessage()),
+				new BroadcastMessage("", maximalMessage()),
+				new UnicastMessage("requestId", maximalMessage()),
+		]
+	}
+
+	void "tolerates whitespace between the values"() {
+		String json = ' [ 2 , 0 , "requestId" , [ 32 , [ "streamId" , 0 , 123 , 0 , "' + publisherId + '" , "msgChainId" ] , null , 27 , 0 , 0 , null , "{}" , null , 0 , null ] ] '
+
+		expect:
+		ControlMessageDecoder.decode(json) == parseWithAdapter(json.trim())
+	}
+
+	void "leaves other messages to the adapters"(String json) {
+		expect:
+		ControlMessageDecoder.decode(json) == null
+		ControlMessage.fromJson(json) != null
+
+		where:
+		json << [
+				new SubscribeResponse("requestId", "streamId", 0).toJson(),
+				'[2,0,"requestId",[31,["streamId",0,123,0,"0x1111111111111111111111111111111111111111","msgChainId"],null,27,0,"{}",0,null]]',
+		]
+	}
+
+	void "returns null for malformed frames"(String json) {
+		expect:
+		ControlMessageDecoder.decode(json) == null
+
+		where:
+		json << [
+				'',
+				'[2,0,"requestId"',
+				'[2,0,"requestId",[32,["streamId",0,123,0,"0x1111111111111111111111111111111111111111","msgChainId"],null,27,0,0,null,"{}",null,0,null]',
+				'[2 0,"requestId",[32]]',
+		]
+	}
+
+	void "decoded messages share the streamId, publisherId and msgChainId instances"() {
+		String json = new BroadcastMessage("requestId", maximalMessage()).toJson()
+
+		when:
+		MessageID first = ((BroadcastMessage) ControlMessageDecoder.decode(json)).getStreamMessage().getMessageID()
+		MessageID second = ((BroadcastMessage) ControlMessageDecoder.decode(json)).getStreamMessage().getMessageID()
+		MessageID third = ((BroadcastMessage) parseWithAdapter(json)).getStreamMessage().getMessageID()
+
+		then:
+		second.getStreamId().is(first.getStreamId())
+		second.getPublisherId().is(first.getPublisherId())
+		second.getMsgChainId().is(first.getMsgChainId())
+		third.getStreamId().is(first.getStreamId())
+		third.getPublisherId().is(first.getPublisherId())
+		third.getMsgChainId().is(first.getMsgChainId())
+	}
+
+	void "decodes only the header until the other fields are accessed"() {
+		StreamMessage original = maximalMessage()
+		String json = new BroadcastMessage("requestId", original).toJson()
+
+		when:
+		StreamMessage msg = ((BroadcastMessage) ControlMessageDecoder.decode(json)).getStreamMessage()
+
+		then:
+		msg.isLazy()
+		msg.getStreamId() == "streamId"
+		msg.getStreamPartition() == 3
+		msg.getMessageRef().compareTo(new MessageRef(123L, 1)) == 0
+		msg.getPreviousMessageRef().compareTo(new MessageRef(122L, 0)) == 0
+		msg.getGroupKeyId() == "groupKeyId"
+		msg.isLazy()
+
+		when:
+		String signature = msg.getSignature()
+
+		then:
+		signature == "signature"
+		msg.isLazy()
+
+		when:
+		String content = msg.getSerializedContent()
+
+		then:
+		content == original.getSerializedContent()
+		msg.isLazy()
+
+		when:
+		EncryptedGroupKey newGroupKey = msg.getNewGroupKey()
+
+		then:
+		newGroupKey.getGroupKeyId() == "newGroupKeyId"
+		!msg.isLazy()
+		msg == original
+	}
+
+	void "setters replace the fields that haven't been decoded"() {
+		String json = new BroadcastMessage("requestId", maximalMessage()).toJson()
+		StreamMessage msg = ((BroadcastMessage) ControlMessageDecoder.decode(json)).getStreamMessage()
+
+		when:
+		msg.setSerializedContent("decrypted")
+		msg.setSignatureFields(null, StreamMessage.SignatureType.NONE)
+
+		then:
+		msg.getSerializedContent() == "decrypted"
+		msg.getSignature() == null
+		msg.isLazy() // newGroupKey is still undecoded
+	}
+
+	void "toString() doesn't decode the fields"() {
+		String json = new BroadcastMessage("requestId", maximalMessage()).toJson()
+		StreamMessage msg = ((BroadcastMessage) ControlMessageDecoder.decode(json)).getStreamMessage()
+
+		when:
+		String string = msg.toString()
+
+		then:
+		string.contains("content=<not decoded>")
+		msg.isLazy()
+		msg.getSignature() == "signature"
+	}
+
+	void "estimating the size doesn't decode the fields"() {
+		String json = new BroadcastMessage("requestId", maximalMessage()).toJson()
+		StreamMessage msg = ((BroadcastMessage) ControlMessageDecoder.decode(json)).getStreamMessage()
+
+		when:
+		long size = msg.estimateContentSizeInBytes()
+
+		then:
+		msg.toString().contains("content=<not decoded>")
+		size == 2L * json.length()
+
+		when:
+		msg.decode()
+
+		then:
+		!msg.isLazy()
+		msg.estimateContentSizeInBytes() == 2L * (msg.getSerializedContent().length() + msg.getSignature().length())
+	}
+
+	void "a malformed content fails when the content is accessed"() {
+		String json = '[2,0,"requestId",[32,["streamId",0,123,0,"' + publisherId + '","msgChainId"],null,27,0,0,null,"bad \\x escape",null,0,null]]'
+
+		when:
+		StreamMessage msg = ((BroadcastMessage) ControlMessageDecoder.decode(json)).getStreamMessage()
+
+		then:
+		msg.getStreamId() == "streamId"
+
+		when:
+		msg.getSerializedContent()
+
+		then:
+		thrown(MalformedMessageException)
+	}
+
+	void "JsonCursor reads integral numbers written as doubles, and large longs"() {
+		JsonCursor cursor = new JsonCursor('[1.0,1e3,-42,9223372036854775807]')
+
+		when:
+		cursor.beginArray()
+
+		then:
+		cursor.nextLong() == 1L
+		cursor.nextLong() == 1000L
+		cursor.nextInt() == -42
+		cursor.nextLong() == Long.MAX_VALUE
+	}
+}
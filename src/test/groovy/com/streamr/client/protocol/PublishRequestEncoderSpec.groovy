@@ -0,0 +1,75 @@
+package com.streamr.client.protocol
+
+import com.squareup.moshi.JsonWriter
+import com.streamr.client.protocol.control_layer.ControlMessage
+import com.streamr.client.protocol.control_layer.ControlMessageAdapter
+import com.streamr.client.protocol.control_layer.PublishRequest
+import com.streamr.client.protocol.control_layer.PublishRequestEncoder
+import com.streamr.client.protocol.message_layer.MessageID
+import com.streamr.client.protocol.message_layer.MessageRef
+import com.streamr.client.protocol.message_layer.StreamMessage
+import com.streamr.client.utils.EncryptedGroupKey
+import okio.Buffer
+
+class PublishRequestEncoderSpec extends StreamrSpecification {
+
+	private static String serializeWithAdapter(ControlMessage message) {
+		Buffer buffer = new Buffer()
+		new ControlMessageAdapter().toJson(JsonWriter.of(buffer), message)
+		return buffer.readUtf8()
+	}
+
+	void "writes the same JSON as the adapters"(StreamMessage msg, String sessionToken) {
+		PublishRequest request = new PublishRequest("requestId", msg, sessionToken)
+
+		expect:
+		PublishRequestEncoder.encode(request) == serializeWithAdapter(request)
+		ControlMessage.fromJson(PublishRequestEncoder.encode(request)) == request
+
+		where:
+		msg                 | sessionToken
+		minimalMessage()    | "sessionToken"
+		minimalMessage()    | null
+		maximalMessage()    | "session\"Token"
+	}
+
+	void "escapes every character like Moshi"() {
+		StringBuilder allChars = new StringBuilder()
+		for (int c = 0; c < 0x3000; c++) {
+			if (!Character.isSurrogate((char) c)) {
+				allChars.append((char) c)
+			}
+		}
+		StreamMessage msg = minimalMessage()
+		msg.setSerializedContent(allChars.toString())
+		PublishRequest request = new PublishRequest("requestId", msg, "sessionToken")
+
+		expect:
+		PublishRequestEncoder.encode(request) == serializeWithAdapter(request)
+	}
+
+	void "reuses the thread's builder between messages of different sizes"() {
+		StreamMessage big = minimalMessage()
+		big.setSerializedContent("x" * 100000)
+		PublishRequest bigRequest = new PublishRequest("big", big, null)
+		PublishRequest smallRequest = new PublishRequest("small", minimalMessage(), null)
+
+		expect:
+		PublishRequestEncoder.encode(bigRequest) == serializeWithAdapter(bigRequest)
+		PublishRequestEncoder.encode(smallRequest) == serializeWithAdapter(smallRequest)
+	}
+
+	private StreamMessage minimalMessage() {
+		return new StreamMessage(new MessageID("streamId", 0, 123L, 0, publisherId, "msgChainId"), null, [:])
+	}
+
+	private StreamMessage maximalMessage() {
+		StreamMessage msg = new StreamMessage(new MessageID("streamId", 7, 123L, 2, publisherId, "msgChainId"), new MessageRef(122L, 1),
+				[text: "quotes \" backslashes \\ tabs \t unicode ä☃ separators \u2028 \u2029 control \u0001"])
+		msg.setEncryptionType(StreamMessage.EncryptionType.AES)
+		msg.setGroupKeyId("groupKeyId")
+		msg.setNewGroupKey(new EncryptedGroupKey("newGroupKeyId", "encryptedGroupKeyHex", "[\"newGroupKeyId\",\"encryptedGroupKeyHex\"]"))
+		msg.setSignatureFields("signature", StreamMessage.SignatureType.ETH)
+		return msg
+	}
+}
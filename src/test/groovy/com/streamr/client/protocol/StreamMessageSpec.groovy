@@ -2,6 +2,8 @@ package com.streamr.client.protocol
 
 
 import com.streamr.client.exceptions.EncryptedContentNotParsableException
+import com.streamr.client.protocol.control_layer.BroadcastMessage
+import com.streamr.client.protocol.control_layer.SubscribeRequest
 import com.streamr.client.protocol.message_layer.MessageID
 import com.streamr.client.protocol.message_layer.MessageRef
 import com.streamr.client.protocol.message_layer.StreamMessage
@@ -40,4 +42,85 @@ class StreamMessageSpec extends Specification {
 		then:
 		thrown EncryptedContentNotParsableException
 	}
+
+	void "equal messages are equal and have the same hashCode"() {
+		StreamMessage other = StreamMessage.deserialize(StreamMessageExamples.InvalidSignature.helloWorldSerialized32)
+
+		expect:
+		msg == other
+		msg.hashCode() == other.hashCode()
+	}
+
+	void "messages differing in any field are not equal"() {
+		StreamMessage other = StreamMessage.deserialize(StreamMessageExamples.InvalidSignature.helloWorldSerialized32)
+		int hashCode = other.hashCode()
+
+		when:
+		other.setSerializedContent("{\"hello\":\"other world\"}")
+		then:
+		msg != other
+		// The hashCode doesn't depend on the mutable fields
+		other.hashCode() == hashCode
+
+		when:
+		other = StreamMessage.deserialize(StreamMessageExamples.InvalidSignature.helloWorldSerialized32)
+		other.setSignatureFields("other", msg.getSignatureType())
+		then:
+		msg != other
+
+		when:
+		other = StreamMessage.deserialize(StreamMessageExamples.InvalidSignature.helloWorldSerialized32)
+		other.setPreviousMessageRef(new MessageRef(1L, 1L))
+		then:
+		msg != other
+	}
+
+	void "serialized form is cached until a setter changes the message"() {
+		String serialized = msg.serialize()
+		byte[] bytes = msg.toBytes()
+
+		expect:
+		msg.serialize().is(serialized)
+		msg.toBytes().is(bytes)
+		msg.sizeInBytes() == bytes.length
+
+		when:
+		msg.setGroupKeyId("groupKeyId")
+		then:
+		!msg.serialize().is(serialized)
+		msg.serialize() == StreamMessageAdapter.serialize(msg)
+		StreamMessage.deserialize(msg.serialize()).getGroupKeyId() == "groupKeyId"
+		msg.sizeInBytes() == msg.serialize().getBytes("UTF-8").length
+	}
+
+	void "the cached serialized form is never older than the last setter call"() {
+		Thread serializer = Thread.start {
+			for (int i = 0; i < 10000; i++) {
+				msg.serialize()
+				msg.toBytes()
+			}
+		}
+
+		when:
+		for (int i = 0; i < 10000; i++) {
+			msg.setGroupKeyId("groupKeyId-" + i)
+			msg.setPreviousMessageRef(new MessageRef(i, 0))
+		}
+		serializer.join()
+
+		then:
+		msg.serialize() == StreamMessageAdapter.serialize(msg)
+		new String(msg.toBytes(), "UTF-8") == msg.serialize()
+	}
+
+	void "control messages are compared by their fields"() {
+		StreamMessage other = StreamMessage.deserialize(StreamMessageExamples.InvalidSignature.helloWorldSerialized32)
+
+		expect:
+		new BroadcastMessage("requestId", msg) == new BroadcastMessage("requestId", other)
+		new BroadcastMessage("requestId", msg).hashCode() == new BroadcastMessage("requestId", other).hashCode()
+		new BroadcastMessage("requestId", msg) != new BroadcastMessage("otherRequestId", other)
+		new SubscribeRequest("requestId", "streamId", 0, "token") == new SubscribeRequest("requestId", "streamId", 0, "token")
+		new SubscribeRequest("requestId", "streamId", 0, "token") != new SubscribeRequest("requestId", "streamId", 1, "token")
+	}
 }
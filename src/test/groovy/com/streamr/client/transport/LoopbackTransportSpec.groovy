@@ -0,0 +1,136 @@
+package com.streamr.client.transport
+
+import com.streamr.client.MessageHandler
+import com.streamr.client.TestingStreamrClient
+import com.streamr.client.options.StreamrClientOptions
+import com.streamr.client.protocol.control_layer.ControlMessage
+import com.streamr.client.protocol.control_layer.SubscribeRequest
+import com.streamr.client.protocol.control_layer.SubscribeResponse
+import com.streamr.client.protocol.message_layer.StreamMessage
+import com.streamr.client.rest.Stream
+import com.streamr.client.subs.Subscription
+import org.java_websocket.enums.ReadyState
+import org.java_websocket.exceptions.WebsocketNotConnectedException
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+class LoopbackTransportSpec extends Specification {
+
+    List<String> events = new CopyOnWriteArrayList<>()
+    List<String> serverReceived = new CopyOnWriteArrayList<>()
+    List<LoopbackTransport> serverConnections = new CopyOnWriteArrayList<>()
+
+    LoopbackTransport.Server server = new LoopbackTransport.Server() {
+        @Override
+        void onConnect(LoopbackTransport connection) {
+            serverConnections.add(connection)
+        }
+
+        @Override
+        void onMessage(LoopbackTransport connection, String message) {
+            serverReceived.add(message)
+        }
+
+        @Override
+        void onClose(LoopbackTransport connection) {
+            serverConnections.remove(connection)
+        }
+    }
+
+    TransportListener listener = new TransportListener() {
+        @Override
+        void onOpen(Transport transport) {
+            events.add("open")
+        }
+
+        @Override
+        void onMessage(Transport transport, String message) {
+            events.add("message " + message)
+        }
+
+        @Override
+        void onClose(Transport transport, int code, String reason, boolean remote) {
+            events.add("close remote=" + remote)
+        }
+
+        @Override
+        void onError(Transport transport, Exception e) {
+            events.add("error")
+        }
+    }
+
+    void "passes messages both ways and reports the events in order"() {
+        LoopbackTransport transport = (LoopbackTransport) LoopbackTransport.factory(server).create("loopback://test", listener)
+
+        expect:
+        transport.getState() == ReadyState.NOT_YET_CONNECTED
+
+        when:
+        transport.connect()
+        transport.send("hello server")
+        transport.receive("hello client")
+        transport.closeRemotely()
+
+        then:
+        new PollingConditions().eventually {
+            events == ["open", "message hello client", "close remote=true"]
+        }
+        serverReceived == ["hello server"]
+        serverConnections.isEmpty()
+        transport.getState() == ReadyState.CLOSED
+    }
+
+    void "send() throws when not open"() {
+        LoopbackTransport transport = new LoopbackTransport("loopback://test", listener, server)
+        transport.connect()
+        transport.close()
+
+        when:
+        transport.send("too late")
+
+        then:
+        thrown(WebsocketNotConnectedException)
+        serverReceived.isEmpty()
+    }
+
+    void "runs a StreamrClient in-process"() {
+        StreamrClientOptions options = new StreamrClientOptions()
+        options.setWebsocketApiUrl("ws://loopback")
+        options.setTransportFactory(LoopbackTransport.factory(server))
+        TestingStreamrClient client = new TestingStreamrClient(options)
+        Stream stream = new Stream("", "")
+        stream.setId("loopback-stream")
+        stream.setPartitions(1)
+
+        when:
+        client.connect()
+        Subscription sub = client.subscribe(stream, new MessageHandler() {
+            @Override
+            void onMessage(Subscription s, StreamMessage message) {}
+        })
+
+        then:
+        new PollingConditions().eventually {
+            serverReceived.size() == 1
+        }
+
+        when:
+        SubscribeRequest request = (SubscribeRequest) ControlMessage.fromJson(serverReceived[0])
+        serverConnections[0].receive(new SubscribeResponse(request.requestId, request.streamId, request.streamPartition).toJson())
+
+        then:
+        client.getTransport() instanceof LoopbackTransport
+        new PollingConditions().eventually {
+            sub.isSubscribed()
+        }
+
+        when:
+        client.disconnect()
+
+        then:
+        client.getState() == ReadyState.CLOSED
+        serverConnections.isEmpty()
+    }
+}
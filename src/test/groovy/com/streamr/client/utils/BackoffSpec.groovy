@@ -0,0 +1,52 @@
+package com.streamr.client.utils
+
+import spock.lang.Specification
+
+class BackoffSpec extends Specification {
+
+    void "first retry is immediate"() {
+        Backoff backoff = new Backoff(1000, 60000)
+
+        expect:
+        backoff.getDelay(0) == 0
+        backoff.getMaxDelay(0) == 0
+    }
+
+    void "upper bound doubles after each failed attempt until capped"() {
+        Backoff backoff = new Backoff(1000, 10000)
+
+        expect:
+        backoff.getMaxDelay(1) == 1000
+        backoff.getMaxDelay(2) == 2000
+        backoff.getMaxDelay(3) == 4000
+        backoff.getMaxDelay(4) == 8000
+        backoff.getMaxDelay(5) == 10000
+        backoff.getMaxDelay(1000) == 10000
+    }
+
+    void "delays are jittered between 0 and the upper bound"() {
+        Backoff backoff = new Backoff(1000, 10000)
+
+        when:
+        List<Long> delays = (1..200).collect { backoff.getDelay(3) }
+
+        then:
+        delays.every { it >= 0 && it <= 4000 }
+        delays.toSet().size() > 1
+    }
+
+    void "equal base and max delay gives a constant upper bound"() {
+        Backoff backoff = new Backoff(1000, 1000)
+
+        expect:
+        (1..10).every { backoff.getMaxDelay(it) == 1000 }
+    }
+
+    void "rejects a max delay below the base delay"() {
+        when:
+        new Backoff(1000, 500)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,45 @@
+package com.streamr.client.utils
+
+import spock.lang.Specification
+
+class ConsistentHashRingSpec extends Specification {
+
+    void "assigns a key to the same node every time"() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(["a", "b", "c"])
+
+        expect:
+        (0..<100).every { ring.get("stream", it) == ring.get("stream", it) }
+        ring.get("stream", 5) == new ConsistentHashRing<>(["a", "b", "c"]).get("stream", 5)
+    }
+
+    void "spreads the partitions of a stream over the nodes"() {
+        ConsistentHashRing<String> ring = new ConsistentHashRing<>(["a", "b", "c", "d"])
+
+        when:
+        Map<String, Integer> counts = (0..<10000).countBy { ring.get("stream", it) }
+
+        then:
+        counts.keySet() == ["a", "b", "c", "d"] as Set
+        counts.values().every { it > 1500 && it < 3500 }
+    }
+
+    void "adding a node only moves keys to the new node"() {
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(["a", "b", "c"])
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(["a", "b", "c", "d"])
+
+        when:
+        List<Integer> moved = (0..<1000).findAll { before.get("stream", it) != after.get("stream", it) }
+
+        then:
+        moved.every { after.get("stream", it) == "d" }
+        moved.size() < 400
+    }
+
+    void "requires at least one node"() {
+        when:
+        new ConsistentHashRing<>([])
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
@@ -0,0 +1,94 @@
+package com.streamr.client.utils
+
+import com.streamr.client.protocol.StreamrSpecification
+import com.streamr.client.protocol.message_layer.MessageRef
+
+import java.nio.file.Files
+
+class FileCheckpointStoreSpec extends StreamrSpecification {
+
+    File dir = Files.createTempDirectory("checkpoints").toFile()
+    File file = new File(dir, "checkpoints.bin")
+
+    void cleanup() {
+        dir.deleteDir()
+    }
+
+    void "keeps the latest checkpoint per chain and returns them by stream-partition"() {
+        FileCheckpointStore store = new FileCheckpointStore(file, 60000L)
+
+        when:
+        store.update(new Checkpoint("stream", 0, publisherId, "chain1", new MessageRef(1, 0)))
+        store.update(new Checkpoint("stream", 0, publisherId, "chain1", new MessageRef(2, 0)))
+        store.update(new Checkpoint("stream", 0, publisherId, "chain2", new MessageRef(5, 0)))
+        store.update(new Checkpoint("stream", 1, publisherId, "chain1", new MessageRef(7, 0)))
+
+        then:
+        store.get("stream", 0).collectEntries { [(it.msgChainId): it.lastReceived.timestamp] } == [chain1: 2L, chain2: 5L]
+        store.get("stream", 1).size() == 1
+        store.get("other", 0).isEmpty()
+
+        cleanup:
+        store.close()
+    }
+
+    void "checkpoints survive a restart once flushed"() {
+        FileCheckpointStore store = new FileCheckpointStore(file, 60000L)
+        store.update(new Checkpoint("stream", 0, publisherId, "chain1", new MessageRef(3, 4)))
+
+        when:
+        store.close()
+        FileCheckpointStore restored = new FileCheckpointStore(file, 60000L)
+        Collection<Checkpoint> checkpoints = restored.get("stream", 0)
+
+        then:
+        checkpoints.size() == 1
+        checkpoints[0].publisherId == publisherId
+        checkpoints[0].msgChainId == "chain1"
+        checkpoints[0].lastReceived.timestamp == 3L
+        checkpoints[0].lastReceived.sequenceNumber == 4L
+
+        cleanup:
+        restored.close()
+    }
+
+    void "does not write the file until there is something to flush"() {
+        FileCheckpointStore store = new FileCheckpointStore(file, 60000L)
+
+        when:
+        store.flush()
+
+        then:
+        !file.exists()
+
+        cleanup:
+        store.close()
+    }
+
+    void "drops the chains whose last message is older than the retention"() {
+        long now = System.currentTimeMillis()
+        FileCheckpointStore store = new FileCheckpointStore(file, 60000L, 60000L)
+        store.update(new Checkpoint("stream", 0, publisherId, "stale", new MessageRef(now - 120000, 0)))
+        store.update(new Checkpoint("stream", 0, publisherId, "fresh", new MessageRef(now, 0)))
+        store.update(new Checkpoint("stream", 1, publisherId, "stale", new MessageRef(now - 120000, 0)))
+
+        when:
+        store.flush()
+
+        then:
+        store.get("stream", 0)*.msgChainId == ["fresh"]
+        store.get("stream", 1).isEmpty()
+
+        when:
+        store.update(new Checkpoint("stream", 1, publisherId, "fresh", new MessageRef(now, 0)))
+        store.close()
+        FileCheckpointStore restored = new FileCheckpointStore(file, 60000L, 60000L)
+
+        then:
+        restored.get("stream", 0)*.msgChainId == ["fresh"]
+        restored.get("stream", 1)*.msgChainId == ["fresh"]
+
+        cleanup:
+        restored?.close()
+    }
+}
@@ -0,0 +1,169 @@
+package com.streamr.client.utils
+
+import com.streamr.client.protocol.StreamrSpecification
+import com.streamr.client.protocol.message_layer.MessageRef
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class GapFillCoordinatorSpec extends StreamrSpecification {
+
+    List<Map> sent = []
+    int requestCounter = 0
+
+    GapFillCoordinator.ResendSender sender = new GapFillCoordinator.ResendSender() {
+        @Override
+        String send(String streamId, int partition, MessageRef from, MessageRef to, Address publisherId, String msgChainId) {
+            String requestId = "req" + requestCounter++
+            sent.add([requestId: requestId, streamId: streamId, partition: partition, from: from, to: to, msgChainId: msgChainId])
+            return requestId
+        }
+    }
+
+    void "sends requests right away when below the limits"() {
+        GapFillCoordinator coordinator = new GapFillCoordinator(10, 10, 5000L, sender)
+
+        when:
+        coordinator.request("stream", 0, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+        coordinator.request("stream", 1, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+
+        then:
+        sent.size() == 2
+        coordinator.getInFlightCount() == 2
+        coordinator.getSavedCount() == 0
+    }
+
+    void "queues requests above the per-partition limit and merges overlapping and adjacent ranges"() {
+        GapFillCoordinator coordinator = new GapFillCoordinator(10, 1, 5000L, sender)
+
+        when:
+        coordinator.request("stream", 0, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+        // queued, since partition 0 has a request in flight
+        coordinator.request("stream", 0, new MessageRef(5, 0), new MessageRef(7, 0), publisherId, "chain1")
+        // overlaps with the above
+        coordinator.request("stream", 0, new MessageRef(6, 0), new MessageRef(9, 0), publisherId, "chain1")
+        // adjacent to the above
+        coordinator.request("stream", 0, new MessageRef(9, 1), new MessageRef(10, 0), publisherId, "chain1")
+        // different chain, not merged
+        coordinator.request("stream", 0, new MessageRef(5, 0), new MessageRef(7, 0), publisherId, "chain2")
+        // another partition isn't affected by the limit
+        coordinator.request("stream", 1, new MessageRef(5, 0), new MessageRef(7, 0), publisherId, "chain1")
+
+        then:
+        sent*.requestId == ["req0", "req1"]
+        coordinator.getQueuedCount() == 2
+        coordinator.getSavedCount() == 2
+        coordinator.getRequestCount() == 6
+
+        when:
+        coordinator.onResponse("req0")
+
+        then:
+        sent.size() == 3
+        sent[2].from.timestamp == 5L
+        sent[2].to.timestamp == 10L
+        sent[2].msgChainId == "chain1"
+
+        when:
+        coordinator.onResponse("req2")
+
+        then:
+        sent.size() == 4
+        sent[3].msgChainId == "chain2"
+        coordinator.getQueuedCount() == 0
+        coordinator.getSentCount() == 4
+    }
+
+    void "respects the limit per connection"() {
+        GapFillCoordinator coordinator = new GapFillCoordinator(2, 10, 5000L, sender)
+
+        when:
+        for (int i = 0; i < 5; i++) {
+            coordinator.request("stream", i, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+        }
+
+        then:
+        sent.size() == 2
+        coordinator.getQueuedCount() == 3
+    }
+
+    void "releases the in-flight slot if no response arrives in time"() {
+        GapFillCoordinator coordinator = new GapFillCoordinator(1, 1, 100L, sender)
+
+        when:
+        coordinator.request("stream", 0, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+        coordinator.request("stream", 0, new MessageRef(5, 0), new MessageRef(7, 0), publisherId, "chain1")
+
+        then:
+        sent.size() == 1
+        new PollingConditions(timeout: 2).eventually {
+            sent.size() == 2
+        }
+    }
+
+    void "clear() drops queued and in-flight requests"() {
+        GapFillCoordinator coordinator = new GapFillCoordinator(1, 1, 5000L, sender)
+        coordinator.request("stream", 0, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+        coordinator.request("stream", 0, new MessageRef(5, 0), new MessageRef(7, 0), publisherId, "chain1")
+
+        when:
+        coordinator.clear()
+
+        then:
+        coordinator.getInFlightCount() == 0
+        coordinator.getQueuedCount() == 0
+    }
+
+    void "calls the sender without holding the coordinator's lock"() {
+        CountDownLatch sending = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        GapFillCoordinator coordinator = new GapFillCoordinator(10, 10, 5000L, new GapFillCoordinator.ResendSender() {
+            @Override
+            String send(String streamId, int partition, MessageRef from, MessageRef to, Address publisherId, String msgChainId) {
+                // Simulates a slow send
+                sending.countDown()
+                release.await(10, TimeUnit.SECONDS)
+                return "req0"
+            }
+        })
+        Thread thread = Thread.start {
+            coordinator.request("stream", 0, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+        }
+        sending.await(10, TimeUnit.SECONDS)
+
+        when:
+        long start = System.currentTimeMillis()
+        int inFlight = coordinator.getInFlightCount()
+
+        then:
+        System.currentTimeMillis() - start < 5000
+        inFlight == 1
+
+        cleanup:
+        release.countDown()
+        thread.join()
+    }
+
+    void "a response that arrives before the sender returns releases the slot"() {
+        GapFillCoordinator coordinator
+        coordinator = new GapFillCoordinator(1, 1, 5000L, new GapFillCoordinator.ResendSender() {
+            @Override
+            String send(String streamId, int partition, MessageRef from, MessageRef to, Address publisherId, String msgChainId) {
+                String requestId = sender.send(streamId, partition, from, to, publisherId, msgChainId)
+                if (requestId == "req0") {
+                    coordinator.onResponse(requestId)
+                }
+                return requestId
+            }
+        })
+
+        when:
+        coordinator.request("stream", 0, new MessageRef(1, 0), new MessageRef(2, 0), publisherId, "chain1")
+        coordinator.request("stream", 0, new MessageRef(5, 0), new MessageRef(7, 0), publisherId, "chain1")
+
+        then:
+        sent*.requestId == ["req0", "req1"]
+        coordinator.getInFlightCount() == 1
+    }
+}
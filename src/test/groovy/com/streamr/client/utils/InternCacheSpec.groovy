@@ -0,0 +1,93 @@
+package com.streamr.client.utils
+
+import spock.lang.Specification
+
+class InternCacheSpec extends Specification {
+
+    void "returns the same instance for equal keys"() {
+        InternCache<String> cache = InternCache.ofStrings(16)
+        String first = new String("streamId")
+        String second = new String("streamId")
+
+        expect:
+        cache.get(first).is(first)
+        cache.get(second).is(first)
+    }
+
+    void "creates values with the factory once per cached key"() {
+        int created = 0
+        InternCache<Address> cache = new InternCache<>(16, { created++; new Address(it) })
+        String address = "0x6807295093ac5da6fb2a10f7dedc5edd620804fb"
+
+        when:
+        Address first = cache.get(address)
+        Address second = cache.get(new String(address))
+
+        then:
+        first.is(second)
+        created == 1
+    }
+
+    void "a colliding key replaces the cached entry"() {
+        InternCache<String> cache = InternCache.ofStrings(1)
+        String a = new String("a")
+        String b = new String("b")
+
+        when:
+        cache.get(a)
+        cache.get(b)
+
+        then:
+        cache.get(new String("b")).is(b)
+        !cache.get(new String("a")).is(a)
+    }
+
+    void "size is rounded up to a power of two"() {
+        expect:
+        InternCache.ofStrings(1).getSize() == 1
+        InternCache.ofStrings(1000).getSize() == 1024
+        InternCache.ofStrings(1024).getSize() == 1024
+    }
+
+    void "factory exceptions are passed on and nothing is cached"() {
+        InternCache<Address> cache = new InternCache<>(16, { new Address(it) })
+
+        when:
+        cache.get("not an address")
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        cache.get(null)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    void "is safe to use from many threads"() {
+        InternCache<String> cache = InternCache.ofStrings(64)
+        List<String> keys = (0..<256).collect { "key-" + it }
+        List<Throwable> errors = Collections.synchronizedList([])
+
+        when:
+        List<Thread> threads = (1..8).collect {
+            Thread.start {
+                try {
+                    Random random = new Random()
+                    for (int i = 0; i < 100000; i++) {
+                        String key = keys[random.nextInt(keys.size())]
+                        String value = cache.get(new String(key))
+                        assert value == key
+                    }
+                } catch (Throwable e) {
+                    errors.add(e)
+                }
+            }
+        }
+        threads*.join()
+
+        then:
+        errors.isEmpty()
+    }
+}
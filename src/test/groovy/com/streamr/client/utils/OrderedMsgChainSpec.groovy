@@ -6,6 +6,9 @@ import com.streamr.client.protocol.message_layer.MessageRef
 import com.streamr.client.protocol.message_layer.StreamMessage
 import spock.util.concurrent.PollingConditions
 
+import java.nio.file.Files
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 import java.util.function.Function
 import java.util.stream.Collectors
@@ -253,6 +256,77 @@ class OrderedMsgChainSpec extends StreamrSpecification {
         received == 1
     }
 
+    void "spills to disk when the queue is full and spill directory is set, and processes everything once the gap is filled"() {
+        File spillDirectory = Files.createTempDirectory("spill-test").toFile()
+        List<StreamMessage> received = []
+        OrderedMsgChain util = new OrderedMsgChain(publisherId, "msgChainId", new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {
+                received.add(streamMessage)
+            }
+        }, null, 5000L, 5000L, false)
+        util.setSpillDirectory(spillDirectory)
+        int total = OrderedMsgChain.MAX_QUEUE_SIZE + 500
+
+        when:
+        util.add(createMessage(0, 0))
+        // message 1 is missing, so messages 2... are queued and then spilled
+        List<StreamMessage> afterGap = []
+        for (int i = 2; i <= total; i++) {
+            afterGap.add(createMessage(i, 0, i - 1, 0))
+        }
+        // a few swaps so that some messages arrive out of order while spilling
+        Collections.swap(afterGap, afterGap.size() - 1, afterGap.size() - 300)
+        Collections.swap(afterGap, 20, afterGap.size() - 2)
+        afterGap.forEach { util.add(it) }
+
+        then:
+        util.isQueueFull()
+        util.getSpilledCount() == total - 1 - OrderedMsgChain.MAX_QUEUE_SIZE
+        received.size() == 1
+
+        when:
+        util.add(createMessage(1, 0, 0, 0))
+
+        then:
+        received*.getTimestamp() == (0L..(long) total).toList()
+        util.getSpilledCount() == 0
+        !util.hasGap()
+        spillDirectory.listFiles().length == 0
+
+        cleanup:
+        spillDirectory.deleteDir()
+    }
+
+    void "falls back to skipGapsOnFullQueue if the messages can't be spilled"() {
+        // Doesn't exist, so creating the spill file fails
+        File spillDirectory = new File(Files.createTempDirectory("spill-test").toFile(), "missing")
+        int received = 0
+        OrderedMsgChain util = new OrderedMsgChain(publisherId, "msgChainId", new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {
+                received++
+            }
+        }, null, 5000L, 5000L, true)
+        util.setSpillDirectory(spillDirectory)
+
+        when:
+        util.add(createMessage(-1))
+        for (int i = 1; i <= OrderedMsgChain.MAX_QUEUE_SIZE; i++) {
+            util.add(createMessage(i, 0, i - 1, 0))
+        }
+        received = 0
+        util.add(createMessage(OrderedMsgChain.MAX_QUEUE_SIZE + 100, 0, OrderedMsgChain.MAX_QUEUE_SIZE + 95, 0))
+
+        then:
+        noExceptionThrown()
+        received == 1
+        util.getSpilledCount() == 0
+
+        cleanup:
+        spillDirectory.parentFile.deleteDir()
+    }
+
     // Warning: non-deterministic test. If you see flakiness in this test, it may indicate
     // something is wrong in the thread-safety of the class under test.
     void "handles input from multiple threads correctly"() {
@@ -281,4 +355,220 @@ class OrderedMsgChainSpec extends StreamrSpecification {
         0 * gapHandler.apply(_, _, _, _)
     }
 
+    void "does not start a new thread per gap (10k concurrent gaps)"() {
+        OrderedMsgChain.GapHandlerFunction gapHandler = Mock(OrderedMsgChain.GapHandlerFunction)
+        List<OrderedMsgChain> chains = []
+        for (int i = 0; i < 10000; i++) {
+            chains.add(new OrderedMsgChain(publisherId, "msgChainId-" + i, new Consumer<StreamMessage>() {
+                @Override
+                void accept(StreamMessage streamMessage) {}
+            }, gapHandler, 60000L, 60000L, false))
+        }
+        // Make sure the shared timer thread is already running before taking the baseline
+        chains[0].add(msg1)
+        chains[0].add(msg3)
+        int threadsBefore = Thread.activeCount()
+
+        when:
+        for (int i = 1; i < chains.size(); i++) {
+            chains[i].add(msg1)
+            chains[i].add(msg3)
+        }
+        int threadsDuring = Thread.activeCount()
+        boolean allHaveGaps = chains.every { it.hasGap() }
+        chains.forEach { it.clearGap() }
+
+        then:
+        allHaveGaps
+        threadsDuring - threadsBefore < 5
+        0 * gapHandler.apply(_, _, _, _)
+    }
+
+    OrderedMsgChain createChainWithPolicy(List<StreamMessage> received, List<GapFillFailedException> failures,
+                                          List<MessageRef> requests, GapFillPolicy policy) {
+        OrderedMsgChain chain = new OrderedMsgChain(publisherId, "msgChainId", { received.add(it) } as Consumer<StreamMessage>,
+                { MessageRef from, MessageRef to, Address publisherId, String msgChainId -> requests.add(from) } as OrderedMsgChain.GapHandlerFunction,
+                { GapFillFailedException e -> failures.add(e); return null } as Function<GapFillFailedException, Void>,
+                50L, 50L, false)
+        chain.setGapFillPolicy(policy)
+        return chain
+    }
+
+    void "block-and-alert policy reports the gap but keeps waiting for it"() {
+        List<StreamMessage> received = []
+        List<GapFillFailedException> failures = []
+        GapFillPolicy policy = new GapFillPolicy(2, GapFillPolicy.OnFailure.BLOCK_AND_ALERT)
+        OrderedMsgChain chain = createChainWithPolicy(received, failures, [], policy)
+
+        when:
+        chain.add(msg1)
+        chain.add(msg3)
+        chain.add(msg4)
+
+        then:
+        new PollingConditions(timeout: 2).eventually {
+            failures.size() == 1
+        }
+        !failures[0].isSubscriptionFailed()
+        received == [msg1]
+        chain.hasGap()
+        policy.getBlockedCount() == 1
+        policy.getSkippedCount() == 0
+
+        when: "the gap is eventually filled"
+        chain.add(msg2)
+
+        then:
+        received == [msg1, msg2, msg3, msg4]
+        !chain.hasGap()
+        policy.getFilledCount() == 1
+    }
+
+    void "a gap blocked by the block-and-alert policy can be requested again"() {
+        List<MessageRef> requests = []
+        List<GapFillFailedException> failures = []
+        GapFillPolicy policy = new GapFillPolicy(1, GapFillPolicy.OnFailure.BLOCK_AND_ALERT)
+        OrderedMsgChain chain = createChainWithPolicy([], failures, requests, policy)
+        chain.add(msg1)
+        chain.add(msg3)
+        new PollingConditions(timeout: 2).eventually {
+            chain.isBlocked()
+        }
+
+        when:
+        boolean retried = chain.retryBlockedGap()
+
+        then:
+        retried
+        !chain.isBlocked()
+        new PollingConditions(timeout: 2).eventually {
+            failures.size() == 2
+        }
+        requests.size() == 2
+        chain.isBlocked()
+    }
+
+    void "fail-subscription policy stops delivering messages"() {
+        List<StreamMessage> received = []
+        List<GapFillFailedException> failures = []
+        GapFillPolicy policy = new GapFillPolicy(1, GapFillPolicy.OnFailure.FAIL_SUBSCRIPTION)
+        OrderedMsgChain chain = createChainWithPolicy(received, failures, [], policy)
+
+        when:
+        chain.add(msg1)
+        chain.add(msg3)
+
+        then:
+        new PollingConditions(timeout: 2).eventually {
+            chain.isFailed()
+        }
+        failures.size() == 1
+        failures[0].isSubscriptionFailed()
+        !chain.hasGap()
+        policy.getFailedCount() == 1
+
+        when:
+        chain.add(msg2)
+        chain.add(msg4)
+
+        then:
+        received == [msg1]
+    }
+
+    void "retries against the secondary source with exponential backoff before giving up"() {
+        List<StreamMessage> received = []
+        List<GapFillFailedException> failures = []
+        List<MessageRef> primaryRequests = []
+        List<Long> secondaryRequestTimes = []
+        GapFillPolicy.SecondaryGapHandler secondary = { String streamId, int partition, MessageRef from, MessageRef to, Address publisherId, String msgChainId ->
+            secondaryRequestTimes.add(System.currentTimeMillis())
+        } as GapFillPolicy.SecondaryGapHandler
+        GapFillPolicy policy = new GapFillPolicy(2, 1, 10000L, secondary, 3, GapFillPolicy.OnFailure.SKIP)
+        OrderedMsgChain chain = createChainWithPolicy(received, failures, primaryRequests, policy)
+
+        when:
+        chain.add(msg1)
+        chain.add(msg3)
+
+        then:
+        new PollingConditions(timeout: 3).eventually {
+            failures.size() == 1
+        }
+        primaryRequests.size() == 2
+        secondaryRequestTimes.size() == 3
+        // waits of 50, 100 and 200 ms after the secondary requests
+        secondaryRequestTimes[2] - secondaryRequestTimes[1] >= 2 * (secondaryRequestTimes[1] - secondaryRequestTimes[0]) - 20
+        received == [msg1, msg3]
+        policy.getRequestCount() == 2
+        policy.getSecondaryRequestCount() == 3
+        policy.getSkippedCount() == 1
+    }
+
+    void "GapFillPolicy computes backoff delays"() {
+        GapFillPolicy policy = new GapFillPolicy(5, 2, 350L, null, 3, GapFillPolicy.OnFailure.SKIP)
+
+        expect:
+        policy.getRetryDelay(1, 100L) == 100L
+        policy.getRetryDelay(2, 100L) == 200L
+        policy.getRetryDelay(3, 100L) == 350L
+        policy.getSecondaryRetryDelay(2, 100L) == 200L
+        // no secondary handler, so no secondary requests
+        policy.getMaxSecondaryRequests() == 0
+        GapFillPolicy.getDefault().getRetryDelay(5, 100L) == 100L
+    }
+
+    void "the gap handler is called without holding the chain's lock"() {
+        ArrayList<StreamMessage> received = []
+        CountDownLatch requested = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        OrderedMsgChain util = new OrderedMsgChain(publisherId, "msgChainId", new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {
+                received.add(streamMessage)
+            }
+        }, new OrderedMsgChain.GapHandlerFunction() {
+            @Override
+            void apply(MessageRef from, MessageRef to, Address publisherId, String msgChainId) {
+                // Simulates a slow send of the resend request
+                requested.countDown()
+                release.await(10, TimeUnit.SECONDS)
+            }
+        }, 50L, 5000L, false)
+        util.add(msg1)
+        util.add(msg3)
+
+        when:
+        requested.await(10, TimeUnit.SECONDS)
+        long start = System.currentTimeMillis()
+        util.add(msg2)
+
+        then:
+        // Didn't wait for the gap handler to return
+        System.currentTimeMillis() - start < 5000
+        received == [msg1, msg2, msg3]
+
+        cleanup:
+        release.countDown()
+    }
+
+    void "skipping a gap delivers the queued messages off the shared timer"() {
+        List<String> threads = Collections.synchronizedList([])
+        OrderedMsgChain chain = new OrderedMsgChain(publisherId, "msgChainId", new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {
+                threads.add(Thread.currentThread().getName())
+            }
+        }, Mock(OrderedMsgChain.GapHandlerFunction), null, 50L, 50L, false)
+        chain.setGapFillPolicy(new GapFillPolicy(1, GapFillPolicy.OnFailure.SKIP))
+
+        when:
+        chain.add(msg1)
+        chain.add(msg3)
+
+        then:
+        new PollingConditions(timeout: 2).eventually {
+            threads.size() == 2
+        }
+        !threads[1].startsWith("streamr-shared-timer")
+    }
 }
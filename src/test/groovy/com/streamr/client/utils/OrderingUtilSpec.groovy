@@ -1,9 +1,16 @@
 package com.streamr.client.utils
 
+import com.streamr.client.options.ChainEvictionOptions
 import com.streamr.client.protocol.StreamrSpecification
 import com.streamr.client.protocol.message_layer.MessageRef
 import com.streamr.client.protocol.message_layer.StreamMessage
 
+import spock.util.concurrent.PollingConditions
+
+import java.time.Clock
+import java.time.Instant
+import java.time.ZoneId
+import java.time.ZoneOffset
 import java.util.function.Consumer
 
 class OrderingUtilSpec extends StreamrSpecification {
@@ -13,6 +20,24 @@ class OrderingUtilSpec extends StreamrSpecification {
     StreamMessage msg3 = createMessage(3, 0, 2, 0)
     StreamMessage msg4 = createMessage(4, 0, 3, 0)
 
+    long now = 1000000L
+    Clock clock = new Clock() {
+        @Override
+        ZoneId getZone() {
+            return ZoneOffset.UTC
+        }
+
+        @Override
+        Clock withZone(ZoneId zone) {
+            return this
+        }
+
+        @Override
+        Instant instant() {
+            return Instant.ofEpochMilli(now)
+        }
+    }
+
     void "calls the message handler when a message is received"() {
         StreamMessage received
         OrderingUtil util = new OrderingUtil("streamId", 0, new Consumer<StreamMessage>() {
@@ -83,4 +108,111 @@ class OrderingUtilSpec extends StreamrSpecification {
         then:
         !called
     }
+
+    void "keeps a separate chain per publisher and msgChainId"() {
+        List<StreamMessage> received = []
+        OrderingUtil util = new OrderingUtil("streamId", 0, new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {
+                received.add(streamMessage)
+            }
+        }, null, 5000L, 5000L, false)
+        Address publisher1 = new Address("0x1111111111111111111111111111111111111111")
+        Address publisher2 = new Address("0x2222222222222222222222222222222222222222")
+
+        when:
+        util.add(createMessage(1, 0, null, null, publisher1, [:], "chain1"))
+        util.add(createMessage(1, 0, null, null, publisher1, [:], "chain2"))
+        util.add(createMessage(1, 0, null, null, publisher2, [:], "chain1"))
+        // Equal address in a different instance must map to the same chain, so this is a duplicate
+        util.add(createMessage(1, 0, null, null, new Address(publisher1.toString()), [:], "chain1"))
+
+        then:
+        received.size() == 3
+        util.getChains().size() == 3
+    }
+
+    void "evicts idle chains and still rejects duplicates within the grace period"() {
+        List<StreamMessage> received = []
+        OrderingUtil util = new OrderingUtil("streamId", 0, new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {
+                received.add(streamMessage)
+            }
+        }, null, 5000L, 5000L, false)
+        util.setClock(clock)
+        util.setChainEvictionOptions(new ChainEvictionOptions(100L, 60000L, 0))
+
+        when:
+        util.add(createMessage(1, 0, null, null, publisherId, [:], "chain1"))
+        now += 1100L
+        // triggers the eviction check on the timer
+        util.add(createMessage(1, 0, null, null, publisherId, [:], "chain2"))
+
+        then:
+        new PollingConditions(timeout: 2).eventually {
+            util.getChainCount() == 1
+        }
+
+        when: "a duplicate arrives for the evicted chain"
+        util.add(createMessage(1, 0, null, null, publisherId, [:], "chain1"))
+
+        then:
+        received.size() == 2
+        util.getChainCount() == 2
+    }
+
+    void "evicts the least recently active chain when maxChains is reached"() {
+        OrderingUtil util = new OrderingUtil("streamId", 0, new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {}
+        }, null, 5000L, 5000L, false)
+        util.setClock(clock)
+        util.setChainEvictionOptions(new ChainEvictionOptions(60000L, 60000L, 2))
+
+        when:
+        util.add(createMessage(1, 0, null, null, publisherId, [:], "chain1"))
+        now += 10L
+        util.add(createMessage(1, 0, null, null, publisherId, [:], "chain2"))
+        now += 10L
+        util.add(createMessage(1, 0, null, null, publisherId, [:], "chain3"))
+
+        then:
+        util.getChainCount() == 2
+        util.getChains()*.getMsgChainId().toSet() == ["chain2", "chain3"].toSet()
+    }
+
+    void "estimates memory usage, which grows with queued messages"() {
+        OrderingUtil util = new OrderingUtil("streamId", 0, new Consumer<StreamMessage>() {
+            @Override
+            void accept(StreamMessage streamMessage) {}
+        }, null, 5000L, 5000L, false)
+        util.add(msg1)
+        long before = util.estimateMemoryUsage()
+
+        when:
+        util.add(msg3)
+        util.add(msg4)
+
+        then:
+        before > 0
+        util.estimateMemoryUsage() > before
+
+        cleanup:
+        util.clearGaps()
+    }
+
+    void "resumes from checkpoints"() {
+        List<StreamMessage> received = []
+        OrderingUtil resumed = new OrderingUtil("streamId", 0, { received.add(it) } as Consumer<StreamMessage>, null, 5000L, 5000L, false)
+
+        when:
+        resumed.addCheckpoints([new Checkpoint("streamId", 0, msg2.publisherId, msg2.msgChainId, msg2.messageRef)])
+        resumed.add(msg2)
+        resumed.add(msg3)
+
+        then:
+        // msg2 is a duplicate of the checkpoint
+        received == [msg3]
+    }
 }
@@ -0,0 +1,78 @@
+package com.streamr.client.utils
+
+import com.streamr.client.exceptions.RequestTimeoutException
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+
+class PendingRequestsSpec extends Specification {
+
+    void "complete() completes the future registered under the requestId"() {
+        PendingRequests requests = new PendingRequests(5000)
+        CompletableFuture<Void> future = new CompletableFuture<>()
+        requests.register("req1", future)
+
+        when:
+        boolean found = requests.complete("req1")
+
+        then:
+        found
+        future.isDone() && !future.isCompletedExceptionally()
+        requests.size() == 0
+        !requests.complete("req1")
+    }
+
+    void "fail() completes the future exceptionally"() {
+        PendingRequests requests = new PendingRequests(5000)
+        CompletableFuture<Void> future = new CompletableFuture<>()
+        requests.register("req1", future)
+
+        when:
+        requests.fail("req1", new RuntimeException("failed"))
+
+        then:
+        future.isCompletedExceptionally()
+        requests.size() == 0
+    }
+
+    void "times out if no response arrives"() {
+        PendingRequests requests = new PendingRequests(100)
+        CompletableFuture<Void> future = new CompletableFuture<>()
+        requests.register("req1", future)
+
+        when:
+        future.get(2, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown(ExecutionException)
+        e.cause instanceof RequestTimeoutException
+        requests.size() == 0
+    }
+
+    void "a future completed by its owner is removed from the table"() {
+        PendingRequests requests = new PendingRequests(5000)
+        CompletableFuture<Void> future = new CompletableFuture<>()
+        requests.register("req1", future)
+
+        when:
+        future.complete(null)
+
+        then:
+        requests.size() == 0
+    }
+
+    void "failAll() fails all pending requests"() {
+        PendingRequests requests = new PendingRequests(5000)
+        List<CompletableFuture<Void>> futures = (0..<5).collect { new CompletableFuture<Void>() }
+        futures.eachWithIndex { CompletableFuture<Void> future, int i -> requests.register("req" + i, future) }
+
+        when:
+        requests.failAll(new RuntimeException("disconnected"))
+
+        then:
+        futures.every { it.isCompletedExceptionally() }
+        requests.size() == 0
+    }
+}
@@ -0,0 +1,168 @@
+package com.streamr.client.utils
+
+import com.streamr.client.protocol.StreamrSpecification
+import com.streamr.client.protocol.message_layer.StreamMessage
+
+import java.nio.file.Files
+import java.util.function.Consumer
+
+class PublishJournalSpec extends StreamrSpecification {
+
+    File dir = Files.createTempDirectory("journal").toFile()
+
+    void cleanup() {
+        dir.deleteDir()
+    }
+
+    List<StreamMessage> createChain(int count) {
+        List<StreamMessage> result = [createMessage(1, 0, null, null, publisherId, [i: 0])]
+        for (int i = 1; i < count; i++) {
+            result.add(createMessage(i + 1, 0, i, 0, publisherId, [i: i]))
+        }
+        return result
+    }
+
+    void "replays the messages in order, keeping their message chain, and rolls over segments"() {
+        PublishJournal journal = new PublishJournal(dir, 4096)
+        List<StreamMessage> messages = createChain(100)
+        List<StreamMessage> replayed = []
+
+        when:
+        messages.each { journal.append(it) }
+
+        then:
+        journal.size() == 100
+        dir.listFiles().length > 1
+
+        when:
+        journal.replay({ replayed.add(it) } as Consumer<StreamMessage>)
+
+        then:
+        journal.isEmpty()
+        replayed*.serialize() == messages*.serialize()
+        replayed[1].previousMessageRef.timestamp == 1L
+        dir.listFiles().length == 0
+
+        cleanup:
+        journal.close()
+    }
+
+    void "a failed send stops the replay and is retried first on the next replay"() {
+        PublishJournal journal = new PublishJournal(dir, 4096)
+        List<StreamMessage> messages = createChain(5)
+        messages.each { journal.append(it) }
+        List<StreamMessage> replayed = []
+
+        when:
+        journal.replay({ StreamMessage msg ->
+            if (msg.timestamp == 3L) {
+                throw new RuntimeException("connection lost")
+            }
+            replayed.add(msg)
+        } as Consumer<StreamMessage>)
+
+        then:
+        thrown(RuntimeException)
+        replayed*.timestamp == [1L, 2L]
+        journal.size() == 3
+
+        when:
+        journal.replay({ replayed.add(it) } as Consumer<StreamMessage>)
+
+        then:
+        replayed*.timestamp == [1L, 2L, 3L, 4L, 5L]
+
+        cleanup:
+        journal.close()
+    }
+
+    void "picks up the messages left by a previous instance"() {
+        PublishJournal journal = new PublishJournal(dir, 4096)
+        createChain(30).each { journal.append(it) }
+        journal.close()
+        List<StreamMessage> replayed = []
+
+        when:
+        PublishJournal reopened = new PublishJournal(dir, 4096)
+        reopened.replay({ replayed.add(it) } as Consumer<StreamMessage>)
+
+        then:
+        replayed*.timestamp == (1L..30L).toList()
+
+        cleanup:
+        reopened.close()
+    }
+
+    void "a corrupted record is moved aside and the replay continues"() {
+        PublishJournal journal = new PublishJournal(dir, 4096)
+        createChain(3).each { journal.append(it) }
+        journal.close()
+        File segment = dir.listFiles()[0]
+        // Overwrite the first byte of the second record
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw")
+        int firstLength = raf.readInt()
+        raf.seek(4 + firstLength + 4)
+        raf.write('!' as char)
+        raf.close()
+        List<StreamMessage> replayed = []
+
+        when:
+        PublishJournal reopened = new PublishJournal(dir, 4096)
+        reopened.replay({ replayed.add(it) } as Consumer<StreamMessage>)
+
+        then:
+        replayed*.timestamp == [1L, 3L]
+        reopened.isEmpty()
+        dir.listFiles()*.name.findAll { it.startsWith("corrupted-") }.size() == 1
+
+        cleanup:
+        reopened.close()
+    }
+
+    void "can be used again after close()"() {
+        PublishJournal journal = new PublishJournal(dir, 4096)
+        List<StreamMessage> messages = createChain(4)
+        messages[0..1].each { journal.append(it) }
+        List<StreamMessage> replayed = []
+
+        when:
+        journal.close()
+        messages[2..3].each { journal.append(it) }
+        journal.replay({ replayed.add(it) } as Consumer<StreamMessage>)
+
+        then:
+        replayed*.timestamp == [1L, 2L, 3L, 4L]
+        journal.isEmpty()
+
+        cleanup:
+        journal.close()
+    }
+
+    void "a replay interrupted by close() continues after the replayed messages"() {
+        PublishJournal journal = new PublishJournal(dir, 4096)
+        createChain(5).each { journal.append(it) }
+        List<StreamMessage> replayed = []
+
+        when:
+        journal.replay({ StreamMessage msg ->
+            if (msg.timestamp == 3L) {
+                throw new RuntimeException("connection lost")
+            }
+            replayed.add(msg)
+        } as Consumer<StreamMessage>)
+
+        then:
+        thrown(RuntimeException)
+
+        when:
+        journal.close()
+        journal.replay({ replayed.add(it) } as Consumer<StreamMessage>)
+
+        then:
+        replayed*.timestamp == [1L, 2L, 3L, 4L, 5L]
+        journal.isEmpty()
+
+        cleanup:
+        journal.close()
+    }
+}
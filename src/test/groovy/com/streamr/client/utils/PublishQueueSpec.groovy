@@ -0,0 +1,107 @@
+package com.streamr.client.utils
+
+import com.streamr.client.exceptions.PublishQueueFullException
+import spock.lang.Specification
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.function.Supplier
+
+class PublishQueueSpec extends Specification {
+
+    CountDownLatch release = new CountDownLatch(1)
+
+    // Keeps the sender thread busy until release is counted down
+    Supplier<String> blockingTask = {
+        release.await(5, TimeUnit.SECONDS)
+        return "blocking"
+    } as Supplier<String>
+
+    void cleanup() {
+        release.countDown()
+    }
+
+    void "runs the tasks in submission order and completes their futures"() {
+        PublishQueue queue = new PublishQueue(100, PublishQueue.FullPolicy.BLOCK)
+        List<Integer> ran = Collections.synchronizedList([])
+
+        when:
+        List<CompletableFuture<Integer>> futures = (0..<50).collect { int i ->
+            queue.submit({ ran.add(i); return i } as Supplier<Integer>)
+        }
+
+        then:
+        futures*.get(5, TimeUnit.SECONDS) == (0..<50).toList()
+        ran == (0..<50).toList()
+        queue.getSentCount() == 50
+        queue.getQueueDepth() == 0
+        queue.getAverageLatencyMillis() >= 0
+    }
+
+    void "completes the future exceptionally if the task throws"() {
+        PublishQueue queue = new PublishQueue(10, PublishQueue.FullPolicy.BLOCK)
+
+        when:
+        queue.submit({ throw new IllegalStateException("boom") } as Supplier<Void>).get(5, TimeUnit.SECONDS)
+
+        then:
+        ExecutionException e = thrown(ExecutionException)
+        e.cause instanceof IllegalStateException
+        queue.getFailedCount() == 1
+    }
+
+    void "DROP fails the future of a task that doesn't fit"() {
+        PublishQueue queue = new PublishQueue(1, PublishQueue.FullPolicy.DROP)
+        queue.submit(blockingTask)
+        // wait until the sender has taken the blocking task
+        while (queue.getQueueDepth() > 0) {
+            Thread.sleep(10)
+        }
+        queue.submit({ "queued" } as Supplier<String>)
+
+        when:
+        CompletableFuture<String> dropped = queue.submit({ "dropped" } as Supplier<String>)
+
+        then:
+        dropped.isCompletedExceptionally()
+        queue.getDroppedCount() == 1
+        queue.getQueueDepth() == 1
+    }
+
+    void "FAIL throws when the queue is full"() {
+        PublishQueue queue = new PublishQueue(1, PublishQueue.FullPolicy.FAIL)
+        queue.submit(blockingTask)
+        while (queue.getQueueDepth() > 0) {
+            Thread.sleep(10)
+        }
+        queue.submit({ "queued" } as Supplier<String>)
+
+        when:
+        queue.submit({ "rejected" } as Supplier<String>)
+
+        then:
+        thrown(PublishQueueFullException)
+        queue.getRejectedCount() == 1
+        queue.getDroppedCount() == 0
+    }
+
+    void "close() fails the queued tasks and the ones submitted afterwards"() {
+        PublishQueue queue = new PublishQueue(10, PublishQueue.FullPolicy.BLOCK)
+        queue.submit(blockingTask)
+        while (queue.getQueueDepth() > 0) {
+            Thread.sleep(10)
+        }
+        CompletableFuture<String> queued = queue.submit({ "queued" } as Supplier<String>)
+
+        when:
+        queue.close()
+        CompletableFuture<String> afterClose = queue.submit({ "afterClose" } as Supplier<String>)
+
+        then:
+        queued.isCompletedExceptionally()
+        afterClose.isCompletedExceptionally()
+        queue.isClosed()
+    }
+}
@@ -0,0 +1,108 @@
+package com.streamr.client.utils
+
+import com.streamr.client.protocol.StreamrSpecification
+import com.streamr.client.protocol.message_layer.StreamMessage
+
+class ReorderBufferSpec extends StreamrSpecification {
+
+    void "returns messages sorted by timestamp and sequence number"() {
+        ReorderBuffer buffer = new ReorderBuffer(100)
+        List<StreamMessage> expected = []
+        for (int i = 0; i < 50; i++) {
+            expected.add(createMessage(i.intdiv(2), i % 2))
+        }
+        List<StreamMessage> shuffled = new ArrayList<>(expected)
+        Collections.shuffle(shuffled)
+
+        when:
+        shuffled.forEach { buffer.offer(it) }
+        List<StreamMessage> received = []
+        while (!buffer.isEmpty()) {
+            received.add(buffer.poll())
+        }
+
+        then:
+        received == expected
+    }
+
+    void "peek and peekLast return the oldest and newest message"() {
+        ReorderBuffer buffer = new ReorderBuffer(10)
+        StreamMessage msg1 = createMessage(1)
+        StreamMessage msg2 = createMessage(2)
+        StreamMessage msg3 = createMessage(3)
+
+        when:
+        buffer.offer(msg2)
+        buffer.offer(msg3)
+        buffer.offer(msg1)
+
+        then:
+        buffer.peek() == msg1
+        buffer.peekLast() == msg3
+        buffer.size() == 3
+        buffer.compareHeadTo(1, 0) == 0
+        buffer.compareHeadTo(0, 5) > 0
+        buffer.compareHeadTo(1, 1) < 0
+    }
+
+    void "ignores duplicates"() {
+        ReorderBuffer buffer = new ReorderBuffer(10)
+
+        when:
+        buffer.offer(createMessage(1))
+        buffer.offer(createMessage(2))
+        buffer.offer(createMessage(1))
+
+        then:
+        buffer.size() == 2
+    }
+
+    void "refuses messages when full"() {
+        ReorderBuffer buffer = new ReorderBuffer(3)
+
+        when:
+        boolean added = true
+        for (int i = 0; i < 3; i++) {
+            added &= buffer.offer(createMessage(i))
+        }
+
+        then:
+        added
+        buffer.isFull()
+        !buffer.offer(createMessage(10))
+        !buffer.offer(createMessage(-1))
+        buffer.size() == 3
+    }
+
+    void "keeps order when wrapping around the ring"() {
+        ReorderBuffer buffer = new ReorderBuffer(20)
+        List<StreamMessage> received = []
+
+        when:
+        for (int i = 0; i < 100; i++) {
+            buffer.offer(createMessage(i + 1))
+            buffer.offer(createMessage(i))
+            received.add(buffer.poll())
+        }
+        while (!buffer.isEmpty()) {
+            received.add(buffer.poll())
+        }
+
+        then:
+        received*.getTimestamp() == (0L..100L).toList()
+    }
+
+    void "clear() empties the buffer"() {
+        ReorderBuffer buffer = new ReorderBuffer(10)
+        buffer.offer(createMessage(1))
+        buffer.offer(createMessage(2))
+
+        when:
+        buffer.clear()
+
+        then:
+        buffer.isEmpty()
+        buffer.peek() == null
+        buffer.poll() == null
+    }
+}
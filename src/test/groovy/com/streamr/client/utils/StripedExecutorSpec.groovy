@@ -0,0 +1,90 @@
+package com.streamr.client.utils
+
+import spock.lang.Specification
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.TimeUnit
+
+class StripedExecutorSpec extends Specification {
+
+    StripedExecutor executor = new StripedExecutor(4, 100, "test-lane")
+
+    void cleanup() {
+        executor.shutdown()
+    }
+
+    void "runs the tasks of a stream-partition in order on a single thread"() {
+        Map<Integer, List<Integer>> ranByPartition = new ConcurrentHashMap<>()
+        Map<Integer, Set<String>> threadsByPartition = new ConcurrentHashMap<>()
+        CountDownLatch done = new CountDownLatch(8 * 200)
+
+        when:
+        for (int i = 0; i < 200; i++) {
+            for (int partition = 0; partition < 8; partition++) {
+                int n = i
+                int p = partition
+                executor.execute("stream", p, {
+                    ranByPartition.computeIfAbsent(p, { new CopyOnWriteArrayList<>() }).add(n)
+                    threadsByPartition.computeIfAbsent(p, { ConcurrentHashMap.newKeySet() }).add(Thread.currentThread().getName())
+                    done.countDown()
+                })
+            }
+        }
+
+        then:
+        done.await(5, TimeUnit.SECONDS)
+        ranByPartition.values().every { it == (0..<200).toList() }
+        threadsByPartition.values().every { it.size() == 1 }
+    }
+
+    void "a slow task only holds up its own lane"() {
+        CountDownLatch release = new CountDownLatch(1)
+        int slowLane = executor.getLaneIndex("slow", 0)
+        String fastStream = (0..100).collect { "fast-" + it }.find { executor.getLaneIndex(it, 0) != slowLane }
+        boolean fastRan = false
+
+        when:
+        executor.execute("slow", 0, { release.await(5, TimeUnit.SECONDS) })
+        executor.execute("slow", 0, {})
+        executor.execute(fastStream, 0, { fastRan = true })
+
+        then:
+        new PollingConditions(timeout: 2).eventually {
+            assert fastRan
+            assert executor.getQueueDepth(slowLane) == 1
+            assert executor.getLagMillis(slowLane) > 0
+        }
+
+        when:
+        release.countDown()
+
+        then:
+        new PollingConditions(timeout: 2).eventually {
+            assert executor.getLagMillis(slowLane) == 0
+        }
+    }
+
+    void "execute() gives up after maxWaitMillis if the lane stays full"() {
+        StripedExecutor bounded = new StripedExecutor(1, 1, "bounded-lane", 100L)
+        CountDownLatch release = new CountDownLatch(1)
+        bounded.execute(0, { release.await(5, TimeUnit.SECONDS) })
+        new PollingConditions(timeout: 2).eventually {
+            assert bounded.getQueueDepth(0) == 0
+        }
+        bounded.execute(0, {})
+
+        when:
+        bounded.execute(0, {})
+
+        then:
+        thrown(RejectedExecutionException)
+
+        cleanup:
+        release.countDown()
+        bounded.shutdown()
+    }
+}
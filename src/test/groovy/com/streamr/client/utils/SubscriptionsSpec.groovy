@@ -93,4 +93,53 @@ class SubscriptionsSpec extends Specification {
 		called == [sub1, sub2]
 	}
 
+	void "lookups stay consistent while other threads subscribe and unsubscribe"() {
+		int partitions = 16
+		// Half of the partitions stay subscribed throughout, the other half are added and removed repeatedly
+		List<Subscription> stable = (0..<partitions.intdiv(2)).collect { createSub("stream", it * 2) }
+		stable.each { subs.add(it) }
+		int iterations = 20000
+		List<Throwable> errors = Collections.synchronizedList([])
+
+		List<Thread> writers = (0..<4).collect { int writer ->
+			Thread.start {
+				try {
+					for (int i = 0; i < iterations; i++) {
+						Subscription sub = createSub("stream", (writer * 2 + 1) % partitions)
+						subs.add(sub)
+						subs.remove(sub)
+					}
+				} catch (Throwable e) {
+					errors.add(e)
+				}
+			}
+		}
+		List<Thread> readers = (0..<2).collect {
+			Thread.start {
+				try {
+					for (int i = 0; i < iterations; i++) {
+						int partition = (i * 2) % partitions
+						if (!subs.get("stream", partition).is(stable[partition.intdiv(2)])) {
+							throw new AssertionError("Wrong subscription for partition " + partition)
+						}
+						try {
+							subs.get("stream", partition + 1)
+						} catch (SubscriptionNotFoundException e) {
+							// expected while unsubscribed
+						}
+					}
+				} catch (Throwable e) {
+					errors.add(e)
+				}
+			}
+		}
+
+		when:
+		(writers + readers)*.join()
+
+		then:
+		errors.isEmpty()
+		subs.getAllForStreamId("stream").toList() == stable
+	}
+
 }
@@ -0,0 +1,123 @@
+package com.streamr.client.utils
+
+import com.streamr.client.protocol.StreamrSpecification
+import com.streamr.client.protocol.message_layer.MessageID
+import com.streamr.client.protocol.message_layer.StreamMessage
+import spock.util.concurrent.PollingConditions
+
+import java.util.concurrent.Callable
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class TimestampMergerSpec extends StreamrSpecification {
+
+    List<StreamMessage> output = []
+    TimestampMerger merger
+
+    void cleanup() {
+        merger?.close()
+    }
+
+    StreamMessage msg(int partition, long timestamp) {
+        return new StreamMessage(new MessageID("streamId", partition, timestamp, 0, publisherId, "msgChainId"), null, [:])
+    }
+
+    void "releases messages in timestamp order once every partition has a message"() {
+        merger = new TimestampMerger(3, 60000, { output.add(it) })
+
+        when:
+        merger.add(msg(0, 1))
+        merger.add(msg(0, 5))
+        merger.add(msg(1, 3))
+
+        then:
+        output.isEmpty()
+
+        when:
+        merger.add(msg(2, 2))
+
+        then:
+        // partition 0 is the only one with messages left after releasing 1, 2 and 3
+        output*.timestamp == [1L, 2L, 3L]
+        merger.size() == 1
+
+        when:
+        merger.close()
+
+        then:
+        output*.timestamp == [1L, 2L, 3L, 5L]
+    }
+
+    void "breaks timestamp ties by partition"() {
+        merger = new TimestampMerger(2, 60000, { output.add(it) })
+
+        when:
+        merger.add(msg(1, 1))
+        merger.add(msg(0, 1))
+        merger.close()
+
+        then:
+        output*.streamPartition == [0, 1]
+    }
+
+    void "runs an action after the buffered messages of a partition are released"() {
+        List<String> events = []
+        merger = new TimestampMerger(2, 60000, { events.add("message " + it.timestamp) })
+
+        when:
+        merger.runAfterBuffered(1, { events.add("empty") })
+        merger.add(msg(1, 1))
+        merger.add(msg(1, 3))
+        merger.runAfterBuffered(1, { events.add("after 3") })
+
+        then:
+        events == ["empty"]
+
+        when:
+        merger.add(msg(0, 2))
+
+        then:
+        // 3 stays buffered since partition 0 is empty again
+        events == ["empty", "message 1", "message 2"]
+
+        when:
+        merger.close()
+
+        then:
+        events == ["empty", "message 1", "message 2", "message 3", "after 3"]
+    }
+
+    void "releases messages that have waited maxDelayMillis for a quiet partition"() {
+        merger = new TimestampMerger(2, 100, { output.add(it) })
+
+        when:
+        merger.add(msg(0, 1))
+        merger.add(msg(0, 2))
+
+        then:
+        output.isEmpty()
+        new PollingConditions(timeout: 2).eventually {
+            output*.timestamp == [1L, 2L]
+        }
+    }
+
+    void "a slow output doesn't hold up the shared timer"() {
+        CountDownLatch outputCalled = new CountDownLatch(1)
+        CountDownLatch releaseOutput = new CountDownLatch(1)
+        merger = new TimestampMerger(2, 10, {
+            outputCalled.countDown()
+            releaseOutput.await()
+        })
+
+        when:
+        merger.add(msg(0, 1))
+
+        then:
+        outputCalled.await(2, TimeUnit.SECONDS)
+        // The periodic release is blocked in the output, the shared timer still runs its tasks
+        SharedTimer.getDefault().schedule({ true } as Callable, 0, TimeUnit.MILLISECONDS).get(1, TimeUnit.SECONDS)
+
+        cleanup:
+        releaseOutput.countDown()
+    }
+}